@@ -0,0 +1,209 @@
+package com.AppWizards.QuickQuoteHail;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Calculator;
+import models.CustomerInvoiceSummary;
+import models.CustomerTotals;
+import models.Invoice;
+import models.InvoiceLog;
+import models.InvoiceRepository;
+import models.InvoiceSegment;
+import models.InvoiceSegmentStore;
+import models.PanelType;
+import models.SegmentFormat;
+import models.SegmentPeriod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark comparing the JSON Lines and binary invoice segment formats, a cold
+ * load of many segments one at a time against the repository's parallel load, and a cold read
+ * of the customer totals from the summary view against grouping the loaded history.
+ * Timings and file sizes are written to logcat under the "InvoiceFormatBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InvoiceFormatBenchmarkTest {
+
+    private static final String TAG = "InvoiceFormatBenchmark";
+    private static final int INVOICES = 20000;
+    private static final int APPENDS = 200;
+    private static final int MONTHS = 24;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void compareSegmentFormats() throws Exception {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        List<Invoice> invoices = sampleInvoices();
+
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File file = new File(appContext.getCacheDir(), "benchmark" + format.getExtension());
+            file.delete();
+            InvoiceLog log = format.open(file);
+
+            long start = System.nanoTime();
+            log.rewrite(invoices);
+            long writeMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            for (int i = 0; i < APPENDS; i++) {
+                log.append(invoices.get(i));
+            }
+            long appendMillis = (System.nanoTime() - start) / 1000000;
+
+            // A fresh instance so nothing cached from the writes is reused
+            start = System.nanoTime();
+            List<Invoice> read = format.open(file).readAll();
+            long readMillis = (System.nanoTime() - start) / 1000000;
+
+            Log.i(TAG, format + ": " + file.length() + " bytes, rewrite " + writeMillis + " ms, "
+                    + APPENDS + " appends " + appendMillis + " ms, read " + readMillis + " ms");
+
+            assertEquals(INVOICES + APPENDS, read.size());
+            Invoice last = read.get(INVOICES - 1);
+            assertEquals(invoices.get(INVOICES - 1).getCustomerVIN(), last.getCustomerVIN());
+            assertEquals(invoices.get(INVOICES - 1).getQuote(), last.getQuote());
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void compareSequentialAndParallelLoad() throws Exception {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        List<Invoice> invoices = invoicesOverMonths();
+
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = new File(appContext.getCacheDir(), "benchmark-segments-" + format.name());
+            deleteDirectory(directory);
+            InvoiceRepository writer = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format));
+            writer.replaceAll(invoices);
+            writer.flush();
+
+            long start = System.nanoTime();
+            InvoiceSegmentStore store = new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format);
+            store.open();
+            List<Invoice> sequential = new ArrayList<>();
+            for (InvoiceSegment segment : store.getSegments()) {
+                sequential.addAll(store.read(segment.getName()));
+            }
+            long sequentialMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            List<Invoice> parallel = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format)).getAll();
+            long parallelMillis = (System.nanoTime() - start) / 1000000;
+
+            Log.i(TAG, format + ": " + store.getSegments().size() + " segments, sequential read " + sequentialMillis
+                    + " ms, parallel load and grouping " + parallelMillis + " ms");
+
+            assertEquals(INVOICES, parallel.size());
+            assertEquals(sequential, parallel);
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void compareSummaryViewAndGroupedLoad() throws Exception {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        List<Invoice> invoices = invoicesOverMonths();
+
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = new File(appContext.getCacheDir(), "benchmark-summary-" + format.name());
+            deleteDirectory(directory);
+            InvoiceRepository writer = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format));
+            writer.replaceAll(invoices);
+            // Updates and deletions move the totals of segments other than the newest
+            List<Invoice> saved = writer.getAll();
+            for (int i = 0; i < saved.size(); i += 997) {
+                writer.remove(saved.get(i).getId());
+                Invoice next = saved.get(i + 1);
+                writer.update(next.getId(), new Invoice(next.getCustomerName(), "VIN-UPDATED", next.getPanelType(),
+                        next.getLargestDentSize(), next.getNumberOfDents(), next.isAluminum(), next.getQuote()));
+            }
+            writer.flush();
+
+            long start = System.nanoTime();
+            List<CustomerTotals> totals = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format))
+                    .getTotalsSince(Long.MIN_VALUE);
+            long viewMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            List<CustomerInvoiceSummary> groups = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format))
+                    .getGroups();
+            long groupMillis = (System.nanoTime() - start) / 1000000;
+
+            Log.i(TAG, format + ": " + totals.size() + " customers, summary view " + viewMillis
+                    + " ms, grouped load " + groupMillis + " ms");
+            assertSameTotals(groups, totals);
+
+            // Without the summary file, as after a crash, it is counted again from the segments
+            assertTrue(new File(directory, "summary.json").delete());
+            assertSameTotals(groups, new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format))
+                    .getTotalsSince(Long.MIN_VALUE));
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void assertSameTotals(List<CustomerInvoiceSummary> groups, List<CustomerTotals> totals) {
+        assertEquals(groups.size(), totals.size());
+        for (int i = 0; i < groups.size(); i++) {
+            CustomerInvoiceSummary group = groups.get(i);
+            CustomerTotals row = totals.get(i);
+            assertEquals(group.getKey(), row.getKey());
+            assertEquals(group.getTotalCents(), row.getTotalCents());
+            assertEquals(group.getInvoiceCount(), row.getInvoiceCount());
+            assertEquals(group.getCustomRepairCount(), row.getCustomRepairCount());
+            assertEquals(group.getLatestTimestamp(), row.getLatestTimestamp());
+        }
+    }
+
+    // Spread over two years, so the history is split across one segment per month
+    private static List<Invoice> invoicesOverMonths() throws Exception {
+        List<Invoice> invoices = new ArrayList<>(INVOICES);
+        long now = System.currentTimeMillis();
+        for (Invoice invoice : sampleInvoices()) {
+            JSONObject json = invoice.toJsonObject();
+            json.put("creationTimestamp", now - (invoices.size() % (MONTHS * 30)) * DAY_MILLIS);
+            invoices.add(new Invoice(json));
+        }
+        return invoices;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<Invoice> sampleInvoices() {
+        Calculator calculator = new Calculator();
+        PanelType[] panels = PanelType.values();
+        String[] sizes = {"D", "N", "Q", "H"};
+        List<Invoice> invoices = new ArrayList<>(INVOICES);
+        for (int i = 0; i < INVOICES; i++) {
+            String panel = panels[i % panels.length].name();
+            String size = sizes[i % sizes.length];
+            int dents = 1 + (i * 7) % 150;
+            boolean aluminum = i % 5 == 0;
+            invoices.add(new Invoice("Customer " + (i / 13), "VIN" + (100000 + i / 13), panel, size, dents, aluminum,
+                    calculator.quote(panel, size, dents, aluminum)));
+        }
+        return invoices;
+    }
+}
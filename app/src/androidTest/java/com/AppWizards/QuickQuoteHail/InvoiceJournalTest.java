@@ -0,0 +1,133 @@
+package com.AppWizards.QuickQuoteHail;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import models.Calculator;
+import models.Invoice;
+import models.InvoiceJournal;
+import models.InvoiceRecordVisitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Instrumented tests of the streaming reader of {@link InvoiceJournal}: a damaged record in the
+ * middle of a journal is skipped, whether it fails its checksum or cannot be parsed at all, and
+ * the records around it are still read, with or without their panel details.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InvoiceJournalTest {
+
+    @Test
+    public void damagedRecordsAreSkipped() throws Exception {
+        File file = emptyFile("damaged.jsonl");
+        InvoiceJournal journal = new InvoiceJournal(file);
+        for (long id = 1; id <= 5; id++) {
+            journal.append(invoice(id));
+        }
+        List<String> lines = readLines(file);
+        // Still valid JSON, but no longer the bytes the checksum was taken of
+        lines.set(2, lines.get(2).replace("Customer 3", "Customer X"));
+        // Cut short, and with the checksum gone it is parsed as a line written before checksums
+        lines.set(3, lines.get(3).substring(0, lines.get(3).length() / 2));
+        writeLines(file, lines);
+
+        assertEquals(Arrays.asList(1L, 2L, 5L), scannedIds(journal, true));
+        assertEquals(Arrays.asList(1L, 2L, 5L), scannedIds(journal, false));
+        assertEquals(3, journal.readAll().size());
+        file.delete();
+    }
+
+    @Test
+    public void damagedBatchIsSkippedWhole() throws Exception {
+        File file = emptyFile("damaged-batch.jsonl");
+        InvoiceJournal journal = new InvoiceJournal(file);
+        journal.append(invoice(1));
+        journal.appendBatch(Arrays.asList(invoice(2), invoice(3), invoice(4)));
+        journal.append(invoice(5));
+        List<String> lines = readLines(file);
+        lines.set(1, lines.get(1).replace("Customer 3", "Customer X"));
+        writeLines(file, lines);
+
+        assertEquals(Arrays.asList(1L, 5L), scannedIds(journal, true));
+        assertEquals(Arrays.asList(1L, 5L), scannedIds(journal, false));
+        file.delete();
+    }
+
+    // The IDs of the records the journal streams, in file order
+    private static List<Long> scannedIds(InvoiceJournal journal, final boolean details) throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        journal.scan(new InvoiceRecordVisitor() {
+            @Override
+            public void record(long offset, Invoice invoice) {
+                assertNotNull(invoice.getCustomerName());
+                ids.add(invoice.getId());
+            }
+
+            @Override
+            public void delete(long id) {
+                ids.add(-id);
+            }
+
+            @Override
+            public boolean needsDetails() {
+                return details;
+            }
+        });
+        return ids;
+    }
+
+    private static Invoice invoice(long id) throws Exception {
+        Invoice invoice = new Invoice("Customer " + id, "VIN" + id, "HOOD", "D", (int) id, false,
+                new Calculator().quote("HOOD", "D", (int) id, false));
+        JSONObject json = invoice.toJsonObject();
+        json.put("id", id);
+        return new Invoice(json);
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = fis.read(chunk)) > 0) {
+                bytes.write(chunk, 0, read);
+            }
+            return new ArrayList<>(Arrays.asList(new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n")));
+        }
+    }
+
+    private static void writeLines(File file, List<String> lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static File emptyFile(String name) {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File file = new File(appContext.getCacheDir(), name);
+        file.delete();
+        return file;
+    }
+}
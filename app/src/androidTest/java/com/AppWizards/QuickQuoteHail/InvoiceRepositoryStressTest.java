@@ -0,0 +1,243 @@
+package com.AppWizards.QuickQuoteHail;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import models.Calculator;
+import models.CustomerInvoiceSummary;
+import models.CustomerTotals;
+import models.Invoice;
+import models.InvoiceRepository;
+import models.InvoiceSegmentStore;
+import models.PanelType;
+import models.SegmentFormat;
+import models.SegmentPeriod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented stress test of one {@link InvoiceRepository} saved to and read from by many threads
+ * at once. Writer threads add, batch-add and update invoices while reader threads keep reading
+ * the whole history, the groups and the totals; afterwards every save must be found exactly once,
+ * both in memory and in a repository opened again from the files. The time taken is written to
+ * logcat under the "InvoiceRepositoryStress" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InvoiceRepositoryStressTest {
+
+    private static final String TAG = "InvoiceRepositoryStress";
+    private static final int HISTORY = 2000;
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int SAVES = 150; // Per writer; every third one is a batch of three panels
+    private static final int MONTHS = 6;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void concurrentSavesAreNotLost() throws Exception {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File directory = new File(appContext.getCacheDir(), "stress-segments");
+        deleteDirectory(directory);
+        InvoiceRepository seed = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, SegmentFormat.BINARY));
+        seed.replaceAll(invoices("Existing", HISTORY));
+        seed.flush();
+
+        // Opened again, so the older segments are only read while the writers are running
+        final InvoiceRepository repository = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, SegmentFormat.BINARY));
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final long since = System.currentTimeMillis() - 45 * DAY_MILLIS; // Fixed, so the recent window never shrinks
+        ExecutorService threads = Executors.newFixedThreadPool(WRITERS + READERS);
+        List<Future<Map<Long, String>>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final String customer = "Writer " + w;
+            writers.add(threads.submit(new Callable<Map<Long, String>>() {
+                @Override
+                public Map<Long, String> call() throws Exception {
+                    start.await();
+                    return save(repository, customer);
+                }
+            }));
+        }
+        List<Future<Integer>> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            final int kind = r;
+            readers.add(threads.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    return read(repository, kind, since, writing);
+                }
+            }));
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        Map<Long, String> expected = new HashMap<>();
+        for (Future<Map<Long, String>> writer : writers) {
+            expected.putAll(writer.get());
+        }
+        writing.set(false);
+        int reads = 0;
+        for (Future<Integer> reader : readers) {
+            reads += reader.get();
+        }
+        repository.flush();
+        long millis = (System.nanoTime() - startNanos) / 1000000;
+        threads.shutdown();
+        Log.i(TAG, WRITERS + " writers saved " + expected.size() + " invoices while " + READERS + " readers made "
+                + reads + " reads, " + millis + " ms");
+
+        assertSaved(repository, expected);
+        InvoiceRepository reopened = new InvoiceRepository(new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, SegmentFormat.BINARY));
+        assertSaved(reopened, expected);
+        int counted = 0;
+        for (CustomerTotals totals : reopened.getTotalsSince(Long.MIN_VALUE)) {
+            counted += totals.getInvoiceCount();
+        }
+        assertEquals(HISTORY + expected.size(), counted);
+        deleteDirectory(directory);
+    }
+
+    // Adds single invoices and batches, updating every fifth save, and returns the VIN each saved ID should end up with
+    private static Map<Long, String> save(InvoiceRepository repository, String customer) throws Exception {
+        Map<Long, String> saved = new HashMap<>();
+        List<Invoice> invoices = invoices(customer, SAVES * 3);
+        for (int i = 0; i < SAVES; i++) {
+            if (i % 3 == 0) {
+                List<Invoice> batch = invoices.subList(i * 3, i * 3 + 3);
+                repository.addAll(batch);
+                for (Invoice invoice : batch) {
+                    saved.put(invoice.getId(), invoice.getCustomerVIN());
+                }
+            } else {
+                Invoice invoice = invoices.get(i * 3);
+                repository.add(invoice);
+                saved.put(invoice.getId(), invoice.getCustomerVIN());
+                if (i % 5 == 0) {
+                    String vin = invoice.getCustomerVIN() + "-UPDATED";
+                    Invoice updated = repository.update(invoice.getId(), new Invoice(invoice.getCustomerName(), vin,
+                            invoice.getPanelType(), invoice.getLargestDentSize(), invoice.getNumberOfDents(),
+                            invoice.isAluminum(), invoice.getQuote()));
+                    assertEquals(invoice.getId(), updated.getId());
+                    saved.put(invoice.getId(), vin);
+                }
+            }
+        }
+        return saved;
+    }
+
+    // Reads one kind of view until the writers are done. Each read must be consistent in itself and
+    // never see fewer invoices than the read before it.
+    private static int read(InvoiceRepository repository, int kind, long since, AtomicBoolean writing) {
+        int reads = 0;
+        int seen = 0;
+        do {
+            int count = 0;
+            switch (kind) {
+                case 0:
+                    List<Invoice> all = repository.getAll();
+                    Set<Long> ids = new HashSet<>();
+                    for (Invoice invoice : all) {
+                        assertTrue("Invoice " + invoice.getId() + " read twice", ids.add(invoice.getId()));
+                        assertTrue(invoice.getPanelType() != null);
+                    }
+                    count = all.size();
+                    break;
+                case 1:
+                    for (CustomerInvoiceSummary group : repository.getGroups()) {
+                        List<Invoice> invoices = group.getInvoices();
+                        assertEquals(group.getInvoiceCount(), invoices.size());
+                        // Header-only rows have their details read on first use
+                        Invoice newest = invoices.get(0);
+                        assertEquals(group.getKey().getCustomerName(), newest.getCustomerName());
+                        assertTrue(newest.getPanelType() != null);
+                        count += group.getInvoiceCount();
+                    }
+                    break;
+                case 2:
+                    for (CustomerInvoiceSummary group : repository.getGroupsSince(since)) {
+                        assertTrue(group.getEarliestTimestamp() >= since);
+                        count += group.getInvoiceCount();
+                    }
+                    break;
+                default:
+                    for (CustomerTotals totals : repository.getTotalsSince(Long.MIN_VALUE)) {
+                        count += totals.getInvoiceCount();
+                    }
+                    break;
+            }
+            assertTrue("Read " + count + " invoices after " + seen, count >= seen);
+            seen = count;
+            reads++;
+        } while (writing.get());
+        return reads;
+    }
+
+    private static void assertSaved(InvoiceRepository repository, Map<Long, String> expected) {
+        List<Invoice> all = repository.getAll();
+        assertEquals(HISTORY + expected.size(), all.size());
+        Set<Long> ids = new HashSet<>();
+        for (Invoice invoice : all) {
+            assertTrue("Invoice " + invoice.getId() + " found twice", ids.add(invoice.getId()));
+            String vin = expected.get(invoice.getId());
+            if (vin != null) {
+                assertEquals(vin, invoice.getCustomerVIN());
+            }
+        }
+        assertTrue("Saved invoices are missing", ids.containsAll(expected.keySet()));
+    }
+
+    // Spread over the last few months, newest first, so saves reach segments not read yet
+    private static List<Invoice> invoices(String customer, int count) throws Exception {
+        Calculator calculator = new Calculator();
+        PanelType[] panels = PanelType.values();
+        String[] sizes = {"D", "N", "Q", "H"};
+        long now = System.currentTimeMillis();
+        List<Invoice> invoices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String panel = panels[i % panels.length].name();
+            String size = sizes[i % sizes.length];
+            int dents = 1 + (i * 7) % 150;
+            boolean aluminum = i % 5 == 0;
+            Invoice invoice = new Invoice(customer + " " + (i / 9), "VIN" + (100000 + i / 9), panel, size, dents, aluminum,
+                    calculator.quote(panel, size, dents, aluminum));
+            JSONObject json = invoice.toJsonObject();
+            json.put("creationTimestamp", now - (i % (MONTHS * 30)) * DAY_MILLIS);
+            invoices.add(new Invoice(json));
+        }
+        return invoices;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,532 @@
+package com.AppWizards.QuickQuoteHail;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import models.Calculator;
+import models.CustomerTotals;
+import models.Invoice;
+import models.InvoiceRecordVisitor;
+import models.InvoiceSegment;
+import models.InvoiceSegmentStore;
+import models.QuoteResult;
+import models.SegmentFormat;
+import models.SegmentPeriod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented tests of {@link InvoiceSegmentStore} against real segment files. A crash is
+ * simulated by putting back the manifest and summary view saved before a write, as if the app
+ * stopped before updating them, and tearing or damaging the records the write left behind. After
+ * the store is opened again, the invoices that survive, the counts in the manifest and the totals
+ * in the summary view must all agree with what the segment files actually hold.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InvoiceSegmentStoreTest {
+
+    private static final String SUMMARY_FILENAME = "summary.json"; // Saved by the store next to its manifest
+    private static final long HOUR_MILLIS = 60L * 60 * 1000;
+    private static final long JANUARY = 1705320000000L; // 2024-01-15, away from month boundaries in any time zone
+    private static final long MARCH = 1710504000000L; // 2024-03-15
+    private static final long MONTH_MILLIS = 31 * 24 * HOUR_MILLIS; // Steps from mid-month to the middle of the next
+    private static final int MONTHS = 6;
+
+    @Test
+    public void tornBatchIsDroppedWhole() throws Exception {
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = emptyDirectory("torn-batch");
+            InvoiceSegmentStore store = open(directory, format);
+            List<Invoice> singles = invoices("Single", 3, JANUARY);
+            for (Invoice invoice : singles) {
+                store.append(invoice);
+            }
+            Map<String, byte[]> saved = saveMetadata(directory);
+            File file = store.getSegments().get(0).getFile();
+            long before = file.length();
+            store.appendBatch(invoices("Batch", 3, JANUARY));
+
+            // The app stopped halfway through writing the batch, before the manifest was updated
+            truncate(file, before + (file.length() - before) / 2);
+            restoreMetadata(directory, saved);
+            InvoiceSegmentStore reopened = open(directory, format);
+            assertEquals(format.name(), idsOf(singles), liveIds(reopened));
+            assertEquals(format.name(), before, file.length()); // The torn frame is cut off
+            assertConsistent(reopened);
+
+            // The next batch is appended after the intact records and is read back whole
+            List<Invoice> batch = invoices("Batch", 3, JANUARY);
+            reopened.appendBatch(batch);
+            TreeSet<Long> expected = idsOf(singles);
+            expected.addAll(idsOf(batch));
+            assertEquals(format.name(), expected, liveIds(open(directory, format)));
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void updateMovesInvoiceToItsNewSegment() throws Exception {
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = emptyDirectory("cross-segment-update");
+            InvoiceSegmentStore store = open(directory, format);
+            List<Invoice> invoices = invoices("Moved", 6, JANUARY);
+            store.appendBatch(invoices.subList(0, 3));
+            for (Invoice invoice : invoices.subList(3, 6)) {
+                store.append(invoice);
+            }
+            Invoice moved = invoices.get(1); // Part of the batch, which keeps its other panels
+            JSONObject json = moved.toJsonObject();
+            json.put("customerVIN", "VIN-MOVED");
+            json.put("creationTimestamp", MARCH);
+            assertTrue(store.update(new Invoice(json)));
+            store.delete(invoices.get(4).getId());
+
+            for (InvoiceSegmentStore current : Arrays.asList(store, open(directory, format))) {
+                List<InvoiceSegment> segments = current.getSegments();
+                assertEquals(format.name(), 2, segments.size());
+                List<Invoice> january = current.read(segments.get(0).getName());
+                List<Invoice> march = current.read(segments.get(1).getName());
+                assertFalse(idsOf(january).contains(moved.getId()));
+                assertEquals(1, march.size());
+                assertEquals(moved.getId(), march.get(0).getId());
+                assertEquals("VIN-MOVED", current.get(moved.getId()).getCustomerVIN());
+                assertEquals(4, january.size()); // Six saved, one moved away and one deleted
+                assertConsistent(current);
+            }
+            List<Long> deleted = tombstones(store.getSegments().get(0));
+            assertEquals(format.name(), Arrays.asList(moved.getId(), invoices.get(4).getId()), deleted);
+            assertTrue(tombstones(store.getSegments().get(1)).isEmpty());
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void tornTailPastCheckpointIsRecovered() throws Exception {
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = emptyDirectory("torn-tail");
+            InvoiceSegmentStore store = open(directory, format);
+            List<Invoice> invoices = invoices("Tail", 8, JANUARY);
+            for (Invoice invoice : invoices.subList(0, 4)) {
+                store.append(invoice);
+            }
+            Map<String, byte[]> saved = saveMetadata(directory);
+            for (Invoice invoice : invoices.subList(4, 7)) {
+                store.append(invoice);
+            }
+            File file = store.getSegments().get(0).getFile();
+            long intact = file.length();
+            store.append(invoices.get(7));
+
+            // Three whole records and one torn one past the checkpoint; the summary view is as old
+            // as the manifest, so its totals for the segment have to be counted again
+            truncate(file, intact + (file.length() - intact) / 2);
+            restoreMetadata(directory, saved);
+            InvoiceSegmentStore reopened = open(directory, format);
+            assertEquals(format.name(), idsOf(invoices.subList(0, 7)), liveIds(reopened));
+            assertEquals(format.name(), intact, file.length());
+            assertConsistent(reopened);
+            assertConsistent(open(directory, format)); // The recovered checkpoint was saved
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void garbageTailIsCutOffAfterSummaryWasSaved() throws Exception {
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = emptyDirectory("garbage-tail");
+            InvoiceSegmentStore store = open(directory, format);
+            List<Invoice> invoices = invoices("Garbage", 6, JANUARY);
+            for (Invoice invoice : invoices.subList(0, 3)) {
+                store.append(invoice);
+            }
+            Map<String, byte[]> saved = saveMetadata(directory);
+            saved.remove(SUMMARY_FILENAME); // The summary view is written first, so it got saved
+            for (Invoice invoice : invoices.subList(3, 6)) {
+                store.append(invoice);
+            }
+            File file = store.getSegments().get(0).getFile();
+            long intact = file.length();
+
+            appendBytes(file, new byte[]{0x7f, 0x00, 0x00, 0x42, '{', '"', 'q', 0x13, 0x07});
+            restoreMetadata(directory, saved);
+            InvoiceSegmentStore reopened = open(directory, format);
+            assertEquals(format.name(), idsOf(invoices), liveIds(reopened));
+            assertEquals(format.name(), intact, file.length());
+            assertConsistent(reopened);
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void tailThatCannotBeAppliedAloneRescansSegment() throws Exception {
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = emptyDirectory("rescan");
+            InvoiceSegmentStore store = open(directory, format);
+            List<Invoice> invoices = invoices("Rescan", 6, JANUARY);
+            for (Invoice invoice : invoices) {
+                store.append(invoice);
+            }
+            Map<String, byte[]> saved = saveMetadata(directory);
+
+            // The tail updates and deletes invoices saved before the checkpoint
+            JSONObject json = invoices.get(1).toJsonObject();
+            json.put("customerVIN", "VIN-UPDATED");
+            assertTrue(store.update(new Invoice(json)));
+            assertTrue(store.delete(invoices.get(2).getId()));
+            restoreMetadata(directory, saved);
+            InvoiceSegmentStore reopened = open(directory, format);
+            TreeSet<Long> expected = idsOf(invoices);
+            expected.remove(invoices.get(2).getId());
+            assertEquals(format.name(), expected, liveIds(reopened));
+            assertEquals("VIN-UPDATED", reopened.get(invoices.get(1).getId()).getCustomerVIN());
+            assertConsistent(reopened);
+
+            // The file is now shorter than its checkpoint, as if restored from an older backup
+            File file = reopened.getSegments().get(0).getFile();
+            long older = file.length();
+            for (Invoice invoice : invoices("Lost", 2, JANUARY + 12 * HOUR_MILLIS)) {
+                reopened.append(invoice);
+            }
+            truncate(file, older);
+            reopened = open(directory, format);
+            assertEquals(format.name(), expected, liveIds(reopened));
+            assertConsistent(reopened);
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void leftoverTemporaryFilesAreDeleted() throws Exception {
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = emptyDirectory("leftover-tmp");
+            InvoiceSegmentStore store = open(directory, format);
+            List<Invoice> invoices = invoices("Leftover", 4, JANUARY);
+            for (Invoice invoice : invoices) {
+                store.append(invoice);
+            }
+            // Rewrites that stopped before their rename: a compaction and a manifest update
+            String segmentName = store.getSegments().get(0).getFile().getName();
+            File[] leftovers = {new File(directory, segmentName + ".tmp"),
+                    new File(directory, InvoiceSegmentStore.MANIFEST_FILENAME + ".tmp")};
+            for (File leftover : leftovers) {
+                appendBytes(leftover, new byte[]{'{', '"', 0x00}); // Cut short
+            }
+
+            InvoiceSegmentStore reopened = open(directory, format);
+            for (File leftover : leftovers) {
+                assertFalse(leftover.getName(), leftover.exists());
+            }
+            assertEquals(format.name(), idsOf(invoices), liveIds(reopened));
+            assertConsistent(reopened);
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void compactedSegmentIsRenamedIntoPlace() throws Exception {
+        for (SegmentFormat format : SegmentFormat.values()) {
+            File directory = emptyDirectory("compaction");
+            InvoiceSegmentStore store = open(directory, format);
+            List<Invoice> invoices = invoices("Compacted", 10, JANUARY);
+            for (Invoice invoice : invoices) {
+                store.append(invoice);
+            }
+            // Four new versions of every invoice leave 40 dead records for 10 live ones
+            for (int version = 1; version <= 4; version++) {
+                for (Invoice invoice : invoices) {
+                    JSONObject json = invoice.toJsonObject();
+                    json.put("customerVIN", invoice.getCustomerVIN() + "-V" + version);
+                    assertTrue(store.update(new Invoice(json)));
+                }
+            }
+            File file = store.getSegments().get(0).getFile();
+            long before = file.length();
+
+            assertTrue(store.compactWhereNeeded() > 0);
+            assertTrue(file.length() < before);
+            assertEquals(Arrays.asList(file.getName(), InvoiceSegmentStore.MANIFEST_FILENAME, SUMMARY_FILENAME),
+                    sortedFileNames(directory)); // Nothing left behind by the rewrite
+            assertEquals(0, store.compactWhereNeeded());
+            for (InvoiceSegmentStore current : Arrays.asList(store, open(directory, format))) {
+                assertEquals(format.name(), idsOf(invoices), liveIds(current));
+                for (Invoice invoice : invoices) {
+                    assertEquals(invoice.getCustomerVIN() + "-V4", current.get(invoice.getId()).getCustomerVIN());
+                }
+                assertConsistent(current);
+            }
+            assertEquals(format.name(), invoices.size(), recordCount(store.getSegments().get(0)));
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void readAllKeepsOrderOfNames() throws Exception {
+        File directory = emptyDirectory("read-all");
+        InvoiceSegmentStore store = open(directory, SegmentFormat.BINARY);
+        List<Invoice> invoices = new ArrayList<>();
+        for (int month = 0; month < MONTHS; month++) {
+            // The first segment is by far the largest, so it is the last to finish decoding
+            invoices.addAll(invoices("Month " + month, month == 0 ? 300 : 5 + month, JANUARY + month * MONTH_MILLIS));
+        }
+        store.replaceAll(invoices);
+        List<String> names = new ArrayList<>();
+        for (InvoiceSegment segment : store.getSegments()) {
+            names.add(segment.getName());
+        }
+        assertEquals(MONTHS, names.size());
+        assertEquals(300, store.read(names.get(0)).size());
+        Collections.reverse(names);
+        names.add(2, "1999-01"); // Not a segment of the store
+
+        for (boolean details : new boolean[]{true, false}) {
+            List<List<Invoice>> decoded = store.readAll(names, details);
+            assertEquals(names.size(), decoded.size());
+            for (int i = 0; i < names.size(); i++) {
+                assertEquals(names.get(i), idsOf(store.read(names.get(i))), idsOf(decoded.get(i)));
+            }
+            assertTrue(decoded.get(2).isEmpty());
+        }
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void totalsFollowUpdatesAndDeletes() throws Exception {
+        File directory = emptyDirectory("totals");
+        InvoiceSegmentStore store = open(directory, SegmentFormat.BINARY);
+        List<Invoice> invoices = new ArrayList<>();
+        for (int month = 0; month < 3; month++) {
+            invoices.addAll(invoices("Totals", 8, JANUARY + month * MONTH_MILLIS)); // The same customers every month
+        }
+        store.replaceAll(invoices);
+        assertTotals(store);
+
+        // Each change takes out a customer's newest invoice, whose segment then has to be counted again
+        Invoice newest = invoices.get(invoices.size() - 1);
+        assertTrue(store.update(edited(newest, 40, newest.getCreationTimestamp())));
+        assertTotals(store);
+        assertTrue(store.delete(invoices.get(invoices.size() - 3).getId()));
+        assertTotals(store);
+        Invoice moved = invoices.get(invoices.size() - 5);
+        assertTrue(store.update(edited(moved, 12, JANUARY - HOUR_MILLIS))); // To an older segment
+        assertTotals(store);
+        assertTotals(open(directory, SegmentFormat.BINARY));
+        deleteDirectory(directory);
+    }
+
+    private static InvoiceSegmentStore open(File directory, SegmentFormat format) throws IOException {
+        InvoiceSegmentStore store = new InvoiceSegmentStore(directory, SegmentPeriod.MONTH, format);
+        store.open();
+        return store;
+    }
+
+    // One invoice per hour from the given time on, two per customer; every fourth needs a custom repair
+    private static List<Invoice> invoices(String customer, int count, long from) throws Exception {
+        Calculator calculator = new Calculator();
+        List<Invoice> invoices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String size = i % 4 == 3 ? "H" : "D";
+            int dents = i % 4 == 3 ? 80 : 1 + i;
+            Invoice invoice = new Invoice(customer + " " + (i / 2), "VIN" + (i / 2), "HOOD", size, dents, false,
+                    calculator.quote("HOOD", size, dents, false));
+            JSONObject json = invoice.toJsonObject();
+            json.put("creationTimestamp", from + i * HOUR_MILLIS);
+            invoices.add(new Invoice(json));
+        }
+        return invoices;
+    }
+
+    // A new version of a saved invoice with another dent count, and so another amount
+    private static Invoice edited(Invoice invoice, int dents, long timestamp) throws Exception {
+        Invoice edited = new Invoice(invoice.getCustomerName(), invoice.getCustomerVIN(), invoice.getPanelType(),
+                invoice.getLargestDentSize(), dents, invoice.isAluminum(),
+                new Calculator().quote(invoice.getPanelType(), invoice.getLargestDentSize(), dents, invoice.isAluminum()));
+        JSONObject json = edited.toJsonObject();
+        json.put("id", invoice.getId());
+        json.put("creationTimestamp", timestamp);
+        return new Invoice(json);
+    }
+
+    private static TreeSet<Long> idsOf(List<Invoice> invoices) {
+        TreeSet<Long> ids = new TreeSet<>();
+        for (Invoice invoice : invoices) {
+            ids.add(invoice.getId());
+        }
+        return ids;
+    }
+
+    private static TreeSet<Long> liveIds(InvoiceSegmentStore store) throws IOException {
+        TreeSet<Long> ids = new TreeSet<>();
+        for (InvoiceSegment segment : store.getSegments()) {
+            ids.addAll(idsOf(store.read(segment.getName())));
+        }
+        return ids;
+    }
+
+    // The IDs deleted by tombstones in a segment file, read record by record
+    private static List<Long> tombstones(InvoiceSegment segment) throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        segment.getFormat().open(segment.getFile()).scan(new InvoiceRecordVisitor() {
+            @Override
+            public void record(long offset, Invoice invoice) {
+            }
+
+            @Override
+            public void delete(long id) {
+                ids.add(id);
+            }
+        });
+        return ids;
+    }
+
+    // The number of invoice records in a segment file, live or not
+    private static int recordCount(InvoiceSegment segment) throws IOException {
+        final int[] count = {0};
+        segment.getFormat().open(segment.getFile()).scan(new InvoiceRecordVisitor() {
+            @Override
+            public void record(long offset, Invoice invoice) {
+                count[0]++;
+            }
+
+            @Override
+            public void delete(long id) {
+            }
+        });
+        return count[0];
+    }
+
+    // The manifest counts and the summary view's totals must match the decoded invoices
+    private static void assertConsistent(InvoiceSegmentStore store) throws IOException {
+        for (InvoiceSegment segment : store.getSegments()) {
+            assertEquals(segment.getName(), store.read(segment.getName()).size(), segment.getCount());
+        }
+        assertTotalsSince(store, Long.MIN_VALUE);
+    }
+
+    // The summary view's totals since a segment boundary must match those of the decoded invoices
+    // created since then
+    private static void assertTotalsSince(InvoiceSegmentStore store, long since) throws IOException {
+        Map<String, long[]> sums = new TreeMap<>(); // cents, count, repairs, latest
+        for (InvoiceSegment segment : store.getSegments()) {
+            for (Invoice invoice : store.read(segment.getName())) {
+                if (invoice.getCreationTimestamp() < since) {
+                    continue;
+                }
+                String key = invoice.getCustomerName() + "\n" + invoice.getCustomerVIN();
+                long[] sum = sums.get(key);
+                if (sum == null) {
+                    sum = new long[4];
+                    sums.put(key, sum);
+                }
+                sum[0] += invoice.getCostCents();
+                sum[1]++;
+                sum[2] += invoice.getQuote().getStatus() == QuoteResult.Status.CUSTOM_REPAIR ? 1 : 0;
+                sum[3] = Math.max(sum[3], invoice.getCreationTimestamp());
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : sums.entrySet()) {
+            long[] sum = entry.getValue();
+            expected.add(entry.getKey() + " " + sum[0] + " " + sum[1] + " " + sum[2] + " " + sum[3]);
+        }
+        List<String> actual = new ArrayList<>();
+        for (CustomerTotals totals : store.getTotalsSince(since)) {
+            actual.add(totals.getCustomerName() + "\n" + totals.getCustomerVIN() + " " + totals.getTotalCents() + " "
+                    + totals.getInvoiceCount() + " " + totals.getCustomRepairCount() + " " + totals.getLatestTimestamp());
+        }
+        assertEquals("Totals since " + since, expected, actual);
+    }
+
+    // The totals of the whole history and from each segment's first day on, also checking the counts
+    private static void assertTotals(InvoiceSegmentStore store) throws IOException {
+        assertConsistent(store);
+        for (InvoiceSegment segment : store.getSegments()) {
+            assertTotalsSince(store, store.segmentStartFor(segment.getMinTimestamp()));
+        }
+    }
+
+    // The manifest and summary view as they are now, to put back later as if a write never finished
+    private static Map<String, byte[]> saveMetadata(File directory) throws IOException {
+        Map<String, byte[]> saved = new TreeMap<>();
+        for (String name : new String[]{InvoiceSegmentStore.MANIFEST_FILENAME, SUMMARY_FILENAME}) {
+            saved.put(name, readBytes(new File(directory, name)));
+        }
+        return saved;
+    }
+
+    private static void restoreMetadata(File directory, Map<String, byte[]> saved) throws IOException {
+        for (Map.Entry<String, byte[]> entry : saved.entrySet()) {
+            try (FileOutputStream fos = new FileOutputStream(new File(directory, entry.getKey()))) {
+                fos.write(entry.getValue());
+            }
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = fis.read(chunk)) > 0) {
+                bytes.write(chunk, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static void appendBytes(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            fos.write(bytes);
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static List<String> sortedFileNames(File directory) {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static File emptyDirectory(String name) {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File directory = new File(appContext.getCacheDir(), name);
+        deleteDirectory(directory);
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
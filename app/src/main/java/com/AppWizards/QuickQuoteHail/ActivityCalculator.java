@@ -20,9 +20,15 @@ import java.util.ArrayList;
 import java.util.List;
 
 import models.Calculator;
-import models.Invoice;
 import models.InvoiceManager;
+import models.Money;
 import models.PanelInputData;
+import models.Quote;
+import models.QuoteCache;
+import models.QuoteResult;
+import models.RateCardManager;
+import models.RateCardRegistry;
+import models.VehiclePricing;
 
 /**
  * This activity allows users to
@@ -34,6 +40,8 @@ public class ActivityCalculator extends AppCompatActivity {
 
     // UI elements
     private Spinner panelSpinner;
+    private Spinner programSpinner;
+    private TextView programLabel;
     private LinearLayout dynamicPanelsContainer;
     private Button calculateAllCostsButton;
     private TextView totalEstimatedCostDisplay;
@@ -45,6 +53,12 @@ public class ActivityCalculator extends AppCompatActivity {
     // List of all panels user adds dynamically
     private List<PanelInputData> panelInputDataList;
 
+    // Shared by every calculator screen; results for a replaced rate card are never served
+    private static final QuoteCache QUOTE_CACHE = new QuoteCache(4096);
+
+    // Insurer/pricing program whose rate card is used for the quote
+    private String selectedProgramId = RateCardRegistry.DEFAULT_PROGRAM;
+
     /**
      * Called when the activity is first created. This is where you do all of your
      * normal static set up create views, bind data to lists, etc.
@@ -60,6 +74,8 @@ public class ActivityCalculator extends AppCompatActivity {
 
         // Initialize layout views
         panelSpinner = findViewById(R.id.panelSpinner);
+        programSpinner = findViewById(R.id.programSpinner);
+        programLabel = findViewById(R.id.programLabel);
         dynamicPanelsContainer = findViewById(R.id.dynamicPanelsContainer);
         calculateAllCostsButton = findViewById(R.id.calculateAllCostsButton);
         totalEstimatedCostDisplay = findViewById(R.id.totalEstimatedCostDisplay);
@@ -107,10 +123,54 @@ public class ActivityCalculator extends AppCompatActivity {
             public void onNothingSelected(AdapterView<?> parent) {}
         });
 
+        // When user picks a pricing program, later calculations use its rate card
+        programSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                selectedProgramId = parent.getItemAtPosition(position).toString();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
         // Button click calculates cost of all panels
         calculateAllCostsButton.setOnClickListener(v -> calculateAndDisplayAllCosts());
     }
 
+    /**
+     * Called when the activity resumes. Picks up new rate card files if any were dropped into
+     * app storage since the last check, so the next calculation uses the updated prices. The
+     * files are read on a background thread.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        updateProgramSpinner();
+        RateCardManager.reloadIfChangedAsync(this).thenAcceptAsync(published -> {
+            if (published && !isFinishing()) {
+                updateProgramSpinner();
+            }
+        }, this::runOnUiThread);
+    }
+
+    /**
+     * Fills the pricing program dropdown with the registered rate card programs. The dropdown
+     * is only shown when the shop has installed more than the default rate card.
+     */
+    private void updateProgramSpinner() {
+        List<String> programIds = RateCardRegistry.programIds();
+        int visibility = programIds.size() > 1 ? View.VISIBLE : View.GONE;
+        programLabel.setVisibility(visibility);
+        programSpinner.setVisibility(visibility);
+
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(this, R.layout.spinner_item_white, programIds);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        programSpinner.setAdapter(adapter);
+        int selected = programIds.indexOf(selectedProgramId);
+        programSpinner.setSelection(Math.max(selected, 0));
+    }
+
     /**
      * Dynamically adds a new panel input section to the UI for a given panel type.
      * This section includes fields for dent size, number of dents, material type (aluminum),
@@ -138,7 +198,7 @@ public class ActivityCalculator extends AppCompatActivity {
         newPanelData.dentSizeDisplay.setText("Largest Dent Size: " + newPanelData.largestDentSize);
         newPanelData.numDentsDisplay.setText("Number of Dents: " + (newPanelData.numberOfDents == -1 ? "Not Set" : String.valueOf(newPanelData.numberOfDents)));
         newPanelData.aluminumSwitch.setChecked(newPanelData.isAluminum);
-        newPanelData.panelEstimatedCostDisplay.setText("Estimated Cost: " + newPanelData.estimatedCost);
+        newPanelData.panelEstimatedCostDisplay.setText("Estimated Cost: N/A");
 
         newPanelData.selectDentSizeButton.setOnClickListener(v -> showDentSizeDialog(newPanelData));
         newPanelData.enterNumDentsButton.setOnClickListener(v -> showNumDentsDialog(newPanelData));
@@ -241,13 +301,12 @@ public class ActivityCalculator extends AppCompatActivity {
     /**
      * Calculates the estimated cost for all added panels and displays the total.
      * It first validates that all necessary information (customer name, VIN, and all panel inputs)
-     * has been provided. If successful, it calculates each panel's cost, updates the UI,
-     * and saves each panel's invoice to the history.
+     * has been provided. If successful, it prices every panel in one pass, updates the UI,
+     * and saves all of the vehicle's panel invoices to the history in one batch, in the background.
      */
     private void calculateAndDisplayAllCosts() {
-        double totalCost = 0.0;
-        boolean allPanelsReady = true;
-        Calculator calculator = new Calculator();
+        Calculator calculator = Calculator.forProgram(selectedProgramId);
+        calculator.setQuoteCache(QUOTE_CACHE);
 
         String customerName = customerNameEditText.getText().toString().trim();
         String customerVin = customerVinEditText.getText().toString().trim();
@@ -272,45 +331,53 @@ public class ActivityCalculator extends AppCompatActivity {
 
         for (PanelInputData panelData : panelInputDataList) {
             if (panelData.largestDentSize.equals("Not Set") || panelData.numberOfDents == -1) {
-                allPanelsReady = false;
                 Toast.makeText(this, "Please complete all inputs for " + panelData.panelType + " panel.", Toast.LENGTH_LONG).show();
-                if (panelData.panelLayout != null) {
-                    panelData.panelLayout.getParent().requestChildFocus(panelData.panelLayout, panelData.panelLayout);
-                }
+                focusPanel(panelData);
                 return;
             }
+        }
 
-            String costString = calculator.getEstimatedCost(
-                    panelData.panelType,
-                    panelData.largestDentSize,
-                    panelData.numberOfDents,
-                    panelData.isAluminum
-            );
-            panelData.estimatedCost = costString;
-            panelData.panelEstimatedCostDisplay.setText("Estimated Cost: " + costString);
-
-            try {
-                totalCost += Double.parseDouble(costString.replace("$", ""));
-            } catch (NumberFormatException e) {
-                Toast.makeText(this, "Could not parse cost for " + panelData.panelType, Toast.LENGTH_SHORT).show();
-                allPanelsReady = false;
-            }
+        VehiclePricing pricing = calculator.priceVehicle(panelInputDataList);
+        List<QuoteResult> results = pricing.getPanelResults();
+        for (int i = 0; i < results.size(); i++) {
+            PanelInputData panelData = panelInputDataList.get(i);
+            panelData.quote = results.get(i);
+            panelData.panelEstimatedCostDisplay.setText("Estimated Cost: " + panelData.quote.toDisplayString());
+        }
 
-            Invoice newInvoice = new Invoice(
-                    customerName,
-                    customerVin,
-                    panelData.panelType,
-                    panelData.largestDentSize,
-                    panelData.numberOfDents,
-                    panelData.isAluminum,
-                    panelData.estimatedCost
-            );
-            InvoiceManager.saveInvoice(this, newInvoice);
+        if (!pricing.isValid()) {
+            PanelInputData invalidPanel = panelInputDataList.get(pricing.getFirstInvalidIndex());
+            Toast.makeText(this, "No price for " + invalidPanel.panelType + ": " + pricing.getFirstInvalid().toDisplayString(), Toast.LENGTH_LONG).show();
+            focusPanel(invalidPanel);
+            totalEstimatedCostDisplay.setText("Total Estimated Cost: N/A");
+            return;
         }
 
-        if (allPanelsReady) {
-            totalEstimatedCostDisplay.setText(String.format("Total Estimated Cost: $%.2f", totalCost));
-            Toast.makeText(this, "All invoices saved to history!", Toast.LENGTH_SHORT).show();
+        Quote quote = Quote.fromPanels(customerName, customerVin, panelInputDataList);
+
+        String total = "Total Estimated Cost: " + Money.format(pricing.getSubtotalCents());
+        if (pricing.getCustomRepairCount() > 0) {
+            total += " + " + pricing.getCustomRepairCount() + " CR panel(s)";
+        }
+        totalEstimatedCostDisplay.setText(total);
+
+        // Save the whole vehicle as one quote record so it is never only partially saved; off the main thread
+        InvoiceManager.saveQuoteAsync(this, quote).thenAcceptAsync(saved -> {
+            if (saved) {
+                Toast.makeText(this, "All invoices saved to history!", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, "Could not save invoices. Please try again.", Toast.LENGTH_LONG).show();
+            }
+        }, InvoiceManager.mainThread());
+    }
+    /**
+     * Scrolls the given panel's input section into view.
+     *
+     * @param panelData The {@link PanelInputData} object for the panel to focus.
+     */
+    private void focusPanel(PanelInputData panelData) {
+        if (panelData.panelLayout != null) {
+            panelData.panelLayout.getParent().requestChildFocus(panelData.panelLayout, panelData.panelLayout);
         }
     }
     /**
@@ -319,22 +386,18 @@ public class ActivityCalculator extends AppCompatActivity {
      * The display will show "N/A" if no panels have a calculated cost.
      */
     private void updateTotalEstimatedCostDisplay() {
-        double totalCost = 0.0;
+        long totalCents = 0;
         boolean hasCalculatedCosts = false;
 
         for (PanelInputData panelData : panelInputDataList) {
-            if (panelData.estimatedCost != null && !panelData.estimatedCost.equals("N/A") && !panelData.estimatedCost.startsWith("CR")) {
-                try {
-                    totalCost += Double.parseDouble(panelData.estimatedCost.replace("$", ""));
-                    hasCalculatedCosts = true;
-                } catch (NumberFormatException e) {
-                    // Ignore
-                }
+            if (panelData.quote != null && panelData.quote.isPriced()) {
+                totalCents += panelData.quote.getAmountCents();
+                hasCalculatedCosts = true;
             }
         }
 
         if (hasCalculatedCosts) {
-            totalEstimatedCostDisplay.setText(String.format("Total Estimated Cost: $%.2f", totalCost));
+            totalEstimatedCostDisplay.setText("Total Estimated Cost: " + Money.format(totalCents));
         } else {
             totalEstimatedCostDisplay.setText("Total Estimated Cost: N/A");
         }
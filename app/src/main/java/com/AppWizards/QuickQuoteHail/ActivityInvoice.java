@@ -1,5 +1,6 @@
 package com.AppWizards.QuickQuoteHail;
 
+import android.app.AlertDialog;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
@@ -12,22 +13,41 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import models.CustomerInvoiceSummary;
+import models.CustomerKey;
+import models.CustomerTotals;
+import models.Invoice;
 import models.InvoiceManager;
+import models.Money;
 
 /**
  * The ActivityInvoice class displays a history of all generated invoices.
  * It loads and groups invoices by customer, presents them in a list, and provides
- * functionality to clear the history or email a specific invoice to a customer.
+ * functionality to clear the history, delete a single invoice (by long-pressing it)
+ * or email a specific invoice to a customer. Only recent invoices are shown at first,
+ * so older history is not read from storage unless the user asks for it.
+ * The screen opens on the per-customer totals kept in a small summary file, before any invoice
+ * is read; the invoices are then loaded in the background. No file is read or written on the
+ * main thread: every call to {@link InvoiceManager} is asynchronous, and so is generating the
+ * emailed PDF. Each group shows only its totals until its header is tapped, and the panel
+ * details are read from storage, in the background, only for the groups the user expands.
  */
-public class ActivityInvoice extends AppCompatActivity implements CustomerGroupAdapter.OnEmailInvoiceClickListener {
+public class ActivityInvoice extends AppCompatActivity implements CustomerGroupAdapter.OnEmailInvoiceClickListener,
+        CustomerGroupAdapter.OnInvoiceLongClickListener {
 
     private ListView invoiceListView;
     private CustomerGroupAdapter adapter;
     private TextView emptyStateTextView;
     private Button clearHistoryButton;
+    private Button showOlderButton;
+    private boolean showAllHistory = false;
+    private final Set<CustomerKey> expandedGroups = new HashSet<>(); // Kept across reloads
+    private int loadGeneration; // Lets a background load tell whether a newer one replaced it
 
     /**
      * Called when the activity is first created. This method initializes the UI components,
@@ -43,15 +63,20 @@ public class ActivityInvoice extends AppCompatActivity implements CustomerGroupA
         invoiceListView = findViewById(R.id.invoiceListView);
         emptyStateTextView = findViewById(R.id.emptyStateTextView);
         clearHistoryButton = findViewById(R.id.clearHistoryButton);
+        showOlderButton = findViewById(R.id.showOlderButton);
 
         clearHistoryButton.setOnClickListener(v -> clearInvoiceHistory());
+        showOlderButton.setOnClickListener(v -> {
+            showAllHistory = true;
+            loadAndDisplayInvoices();
+        });
 
         loadAndDisplayInvoices();
     }
     /**
      * Called when the activity resumes. the purpose of this method is to ensure that invoice list is refreshed
      * every time the user returns to this activity, showing any new invoices that might
-     * have been created.
+     * have been created. Invoices are served from memory, so this does not re-read the file.
      */
     @Override
     protected void onResume() {
@@ -59,49 +84,110 @@ public class ActivityInvoice extends AppCompatActivity implements CustomerGroupA
         loadAndDisplayInvoices();
     }
     /**
-     * Loads invoices from the InvoiceManager, groups them by customer, and populates
-     * the ListView. If no invoices are found, it displays a message and hides the list.
+     * Reads the customer totals from the InvoiceManager's summary file in the background and
+     * populates the ListView with them as soon as they arrive, then loads the invoices grouped
+     * by customer, also in the background, and hands them to the adapter. Unless the user asked
+     * for the full history, only the recent window is shown and a button offers the older
+     * invoices. If no invoices are found, it displays a message and hides the list.
      */
     private void loadAndDisplayInvoices() {
-        List<CustomerInvoiceSummary> groupedInvoices = InvoiceManager.loadGroupedInvoices(this);
+        boolean all = showAllHistory;
+        int generation = ++loadGeneration;
+        CompletableFuture<Long> start = all
+                ? CompletableFuture.completedFuture(Long.MIN_VALUE)
+                : InvoiceManager.recentWindowStartAsync(this);
+        start.thenCompose(since -> InvoiceManager.loadCustomerTotalsAsync(this, since)
+                .thenAcceptBothAsync(all
+                                ? CompletableFuture.completedFuture(false)
+                                : InvoiceManager.hasInvoicesBeforeAsync(this, since),
+                        (totals, hasOlder) -> {
+                            if (generation == loadGeneration && !isFinishing()) {
+                                displayTotals(generation, since, totals, hasOlder);
+                            }
+                        }, InvoiceManager.mainThread()));
+    }
+
+    // Shows the totals straight away and fills in each group's invoices once they are loaded
+    private void displayTotals(int generation, long since, List<CustomerTotals> totals, boolean hasOlder) {
+        showOlderButton.setVisibility(hasOlder ? View.VISIBLE : View.GONE);
 
-        if (groupedInvoices.isEmpty()) {
+        if (totals.isEmpty()) {
             invoiceListView.setVisibility(View.GONE);
             emptyStateTextView.setVisibility(View.VISIBLE);
-            emptyStateTextView.setText("No invoices found. Start calculating costs to see history here!");
-            clearHistoryButton.setVisibility(View.GONE);
+            emptyStateTextView.setText(hasOlder
+                    ? "No recent invoices. Tap \"Show Older Invoices\" to see earlier history."
+                    : "No invoices found. Start calculating costs to see history here!");
+            clearHistoryButton.setVisibility(hasOlder ? View.VISIBLE : View.GONE);
         } else {
             invoiceListView.setVisibility(View.VISIBLE);
             emptyStateTextView.setVisibility(View.GONE);
             clearHistoryButton.setVisibility(View.VISIBLE);
-            adapter = new CustomerGroupAdapter(this, groupedInvoices, this);
-            invoiceListView.setAdapter(adapter);
+            CustomerGroupAdapter shown = new CustomerGroupAdapter(this, totals, this, this, expandedGroups);
+            adapter = shown;
+            invoiceListView.setAdapter(shown);
+            InvoiceManager.loadGroupedInvoicesSinceAsync(this, since).thenAcceptAsync(groups -> {
+                if (generation == loadGeneration && !isFinishing()) {
+                    shown.setGroups(groups);
+                }
+            }, InvoiceManager.mainThread());
         }
     }
     /**
      * Clears all saved invoice history. It does this by saving an empty list of invoices
-     * to the persistent storage and then re-calling {@link #loadAndDisplayInvoices()} to
-     * refresh the UI.
+     * to the persistent storage in the background and then re-calling
+     * {@link #loadAndDisplayInvoices()} to refresh the UI.
      */
     private void clearInvoiceHistory() {
-        InvoiceManager.saveAllInvoices(this, new ArrayList<>());
-        loadAndDisplayInvoices();
-        Toast.makeText(this, "Invoice history cleared.", Toast.LENGTH_SHORT).show();
+        InvoiceManager.saveAllInvoicesAsync(this, new ArrayList<>()).thenRunAsync(() -> {
+            loadAndDisplayInvoices();
+            Toast.makeText(this, "Invoice history cleared.", Toast.LENGTH_SHORT).show();
+        }, InvoiceManager.mainThread());
+    }
+
+    /**
+     * Asks for confirmation and then deletes a single invoice by its ID in the background.
+     * Only a small deletion record is written; the rest of the history is not rewritten.
+     *
+     * @param invoice The {@link Invoice} that was long-pressed.
+     */
+    @Override
+    public void onInvoiceLongClick(Invoice invoice) {
+        new AlertDialog.Builder(this)
+                .setTitle("Delete Invoice")
+                .setMessage("Delete the " + invoice.getPanelType() + " panel from " + invoice.getFormattedDate() + "?")
+                .setPositiveButton("Delete", (dialog, which) ->
+                        InvoiceManager.deleteInvoiceAsync(this, invoice.getId()).thenAcceptAsync(deleted -> {
+                            if (deleted) {
+                                Toast.makeText(this, "Invoice deleted.", Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(this, "Could not delete invoice.", Toast.LENGTH_SHORT).show();
+                            }
+                            loadAndDisplayInvoices();
+                        }, InvoiceManager.mainThread()))
+                .setNegativeButton("Cancel", null)
+                .show();
     }
 
 
     /**
      * Handles the event when the "Email Invoice" button is clicked for a specific customer summary.
-     * This method first generates a PDF of the invoice using {@link PdfGenerator} and then
-     * creates and starts an email intent with the PDF attached.
+     * This method first generates a PDF of the invoice using {@link PdfGenerator} in the background,
+     * as it reads the panel details and writes a file, and then creates and starts an email intent
+     * with the PDF attached.
      *
      * @param summary The {@link CustomerInvoiceSummary} object for the invoice to be emailed.
      */
     @Override
     public void onEmailInvoiceClick(CustomerInvoiceSummary summary) {
-        // --- Generate PDF first ---
-        Uri pdfUri = PdfGenerator.generateInvoicePdf(this, summary);
+        PdfGenerator.generateInvoicePdfAsync(this, summary).thenAcceptAsync(pdfUri -> {
+            if (!isFinishing()) {
+                emailInvoice(summary, pdfUri);
+            }
+        }, InvoiceManager.mainThread());
+    }
 
+    // Starts an email intent with the generated PDF attached
+    private void emailInvoice(CustomerInvoiceSummary summary, Uri pdfUri) {
         if (pdfUri == null) {
             Toast.makeText(this, "Failed to generate PDF for email.", Toast.LENGTH_SHORT).show();
             return;
@@ -114,7 +200,7 @@ public class ActivityInvoice extends AppCompatActivity implements CustomerGroupA
         StringBuilder body = new StringBuilder();
         body.append("Dear ").append(summary.getCustomerName()).append(",\n\n");
         body.append("Please find attached your hail damage repair estimate for VIN: ").append(summary.getCustomerVIN()).append(".\n\n");
-        body.append(String.format("Total Estimated Cost: $%.2f\n\n", summary.getTotalCost()));
+        body.append("Total Estimated Cost: ").append(Money.format(summary.getTotalCents())).append("\n\n");
         body.append("For detailed information, please refer to the attached PDF invoice.\n\n");
         body.append("Thank you for choosing QuickQuoteHail!");
 
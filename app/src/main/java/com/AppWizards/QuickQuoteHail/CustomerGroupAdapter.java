@@ -12,21 +12,40 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import models.CustomerInvoiceSummary;
+import models.CustomerKey;
+import models.CustomerTotals;
 import models.Invoice;
+import models.InvoiceManager;
+import models.Money;
 /**
- * An ArrayAdapter for displaying a list of {@link CustomerInvoiceSummary} objects.
+ * An ArrayAdapter for displaying a list of {@link CustomerTotals} objects.
  * This adapter is responsible for inflating a view for each customer group, populating
- * it with summary information (customer name, VIN, total cost), and dynamically
- * adding views for each individual invoice associated with that customer. It also
- * provides an interface to handle click events on an "Email Invoice" button.
+ * it with summary information (customer name, VIN, total cost, panel count), and
+ * dynamically adding views for each individual invoice associated with that customer
+ * once the group is expanded by tapping its header. The headers need only the totals,
+ * so the list can be shown before any invoice is loaded; the groups arrive later through
+ * {@link #setGroups}. The invoices of a group are only read once it is expanded, in the background
+ * through {@link InvoiceManager#loadInvoicesAsync}, with a placeholder shown until they arrive,
+ * so binding a row never reads storage. It also
+ * provides interfaces to handle click events on an "Email Invoice" button and long presses
+ * on a single invoice.
  */
-public class CustomerGroupAdapter extends ArrayAdapter<CustomerInvoiceSummary> {
+public class CustomerGroupAdapter extends ArrayAdapter<CustomerTotals> {
 
     private LayoutInflater inflater;
     private OnEmailInvoiceClickListener emailClickListener; // New listener interface
+    private OnInvoiceLongClickListener invoiceLongClickListener;
+    private final Set<CustomerKey> expandedGroups; // Groups whose invoices are shown
+    private final Map<CustomerKey, CustomerInvoiceSummary> groups = new HashMap<>(); // Empty until loaded
+    private final Map<CustomerKey, List<Invoice>> invoices = new HashMap<>(); // Of expanded groups, once read
+    private final Set<CustomerKey> loading = new HashSet<>(); // Groups whose invoices are being read
 
     /**
      * An interface to handle click events on the "Email Invoice" button within a list item.
@@ -41,22 +60,76 @@ public class CustomerGroupAdapter extends ArrayAdapter<CustomerInvoiceSummary> {
         void onEmailInvoiceClick(CustomerInvoiceSummary summary);
     }
 
+    /**
+     * An interface to handle long presses on a single invoice row, e.g. to delete it.
+     */
+    public interface OnInvoiceLongClickListener {
+        /**
+         * Called when an individual invoice row is long-pressed.
+         * @param invoice The {@link Invoice} shown in the pressed row.
+         */
+        void onInvoiceLongClick(Invoice invoice);
+    }
+
     /**
      * Constructs a new {@link CustomerGroupAdapter}.
      *
      * @param context The current context.
-     * @param summaries A list of {@link CustomerInvoiceSummary} objects to be displayed.
+     * @param totals A list of {@link CustomerTotals} objects to be displayed.
      * @param listener The listener for email button clicks.
+     * @param longClickListener The listener for long presses on a single invoice.
+     * @param expandedGroups The keys of the groups to show expanded. The adapter adds and removes
+     *                       keys as headers are tapped, so the caller can keep the set across reloads.
      */
-    public CustomerGroupAdapter(@NonNull Context context, @NonNull List<CustomerInvoiceSummary> summaries, OnEmailInvoiceClickListener listener) {
-        super(context, 0, summaries);
+    public CustomerGroupAdapter(@NonNull Context context, @NonNull List<CustomerTotals> totals, OnEmailInvoiceClickListener listener,
+                                OnInvoiceLongClickListener longClickListener, @NonNull Set<CustomerKey> expandedGroups) {
+        super(context, 0, totals);
         inflater = LayoutInflater.from(context);
         this.emailClickListener = listener; // Assign the listener
+        this.invoiceLongClickListener = longClickListener;
+        this.expandedGroups = expandedGroups;
     }
+
+    /**
+     * Supplies the invoices of each group once they have been loaded. The displayed totals are
+     * replaced with those of the groups, so the list always matches the invoices it can show.
+     *
+     * @param summaries The loaded {@link CustomerInvoiceSummary} objects, in display order.
+     */
+    public void setGroups(@NonNull List<CustomerInvoiceSummary> summaries) {
+        groups.clear();
+        invoices.clear();
+        loading.clear();
+        setNotifyOnChange(false);
+        clear();
+        for (CustomerInvoiceSummary summary : summaries) {
+            groups.put(summary.getKey(), summary);
+            add(CustomerTotals.of(summary));
+        }
+        notifyDataSetChanged();
+    }
+    // Reads a group's invoices in the background and shows them once they arrive, unless the
+    // groups were replaced meanwhile
+    private void loadInvoices(CustomerInvoiceSummary summary) {
+        CustomerKey key = summary.getKey();
+        if (!loading.add(key)) {
+            return;
+        }
+        InvoiceManager.loadInvoicesAsync(getContext(), summary).thenAcceptAsync(loaded -> {
+            if (groups.get(key) == summary) {
+                loading.remove(key);
+                invoices.put(key, loaded);
+                notifyDataSetChanged();
+            }
+        }, InvoiceManager.mainThread());
+    }
+
     /**
      * Get a View that displays the data at the specified position in the data set.
-     * This method inflates a new view if needed, binds the data from the {@link CustomerInvoiceSummary}
-     * object to the views, and handles the creation of sub-views for each individual invoice.
+     * This method inflates a new view if needed, binds the data from the {@link CustomerTotals}
+     * object to the views, and handles the creation of sub-views for each individual invoice
+     * when the group is expanded. Until the invoices of an expanded group have been read in the
+     * background, a placeholder is shown in their place.
      *
      * @param position The position of the item within the adapter's data set.
      * @param convertView The old view to reuse, if possible
@@ -74,6 +147,8 @@ public class CustomerGroupAdapter extends ArrayAdapter<CustomerInvoiceSummary> {
             holder.customerNameHeader = convertView.findViewById(R.id.customerNameHeader);
             holder.customerVinHeader = convertView.findViewById(R.id.customerVinHeader);
             holder.customerTotalCostHeader = convertView.findViewById(R.id.customerTotalCostHeader);
+            holder.customerPanelCountHeader = convertView.findViewById(R.id.customerPanelCountHeader);
+            holder.groupHeader = convertView.findViewById(R.id.customerGroupHeader);
             holder.individualInvoicesContainer = convertView.findViewById(R.id.individualInvoicesContainer);
             holder.emailButton = convertView.findViewById(R.id.shareCustomerInvoiceButton); // Find the new button
             convertView.setTag(holder);
@@ -81,26 +156,57 @@ public class CustomerGroupAdapter extends ArrayAdapter<CustomerInvoiceSummary> {
             holder = (ViewHolder) convertView.getTag();
         }
 
-        CustomerInvoiceSummary currentSummary = getItem(position);
+        CustomerTotals currentTotals = getItem(position);
 
-        if (currentSummary != null) {
+        if (currentTotals != null) {
             // Populate customer summary header
-            holder.customerNameHeader.setText("Customer: " + currentSummary.getCustomerName());
-            holder.customerVinHeader.setText("VIN: " + currentSummary.getCustomerVIN());
-            holder.customerTotalCostHeader.setText(String.format("Total for Customer: $%.2f", currentSummary.getTotalCost()));
+            holder.customerNameHeader.setText("Customer: " + currentTotals.getCustomerName());
+            holder.customerVinHeader.setText("VIN: " + currentTotals.getCustomerVIN());
+            String total = "Total for Customer: " + Money.format(currentTotals.getTotalCents());
+            if (currentTotals.getCustomRepairCount() > 0) {
+                total += " + " + currentTotals.getCustomRepairCount() + " CR panel(s)";
+            }
+            holder.customerTotalCostHeader.setText(total);
+
+            CustomerKey key = currentTotals.getKey();
+            CustomerInvoiceSummary currentSummary = groups.get(key); // Null while the groups are loading
+            List<Invoice> currentInvoices = invoices.get(key); // Null until the group is expanded and read
+            boolean expanded = expandedGroups.contains(key);
+            holder.customerPanelCountHeader.setText(currentTotals.getInvoiceCount() + " panel(s) - "
+                    + (expanded && currentInvoices == null ? "loading..." : "tap to " + (expanded ? "hide" : "show")));
+            holder.groupHeader.setOnClickListener(v -> {
+                if (!expandedGroups.remove(key)) {
+                    expandedGroups.add(key);
+                }
+                notifyDataSetChanged();
+            });
 
-            // Set OnClickListener for the email button
+            // Set OnClickListener for the email button; the PDF needs the invoices
+            holder.emailButton.setEnabled(currentSummary != null);
             holder.emailButton.setOnClickListener(v -> {
-                if (emailClickListener != null) {
+                if (emailClickListener != null && currentSummary != null) {
                     emailClickListener.onEmailInvoiceClick(currentSummary);
                 }
             });
 
             // Clear previous invoice views to prevent duplicates due to recycling
             holder.individualInvoicesContainer.removeAllViews();
+            holder.individualInvoicesContainer.setVisibility(expanded ? View.VISIBLE : View.GONE);
+            if (!expanded) {
+                return convertView;
+            }
+            if (currentInvoices == null) {
+                if (currentSummary != null) {
+                    loadInvoices(currentSummary);
+                }
+                TextView placeholder = new TextView(getContext());
+                placeholder.setText("Loading invoices...");
+                holder.individualInvoicesContainer.addView(placeholder);
+                return convertView;
+            }
 
             // Add individual invoice details
-            for (Invoice invoice : currentSummary.getInvoices()) {
+            for (Invoice invoice : currentInvoices) {
                 LinearLayout invoiceItemView = (LinearLayout) inflater.inflate(R.layout.single_invoice_detail_item, holder.individualInvoicesContainer, false);
 
                 TextView dateTextView = invoiceItemView.findViewById(R.id.detailDate);
@@ -115,6 +221,14 @@ public class CustomerGroupAdapter extends ArrayAdapter<CustomerInvoiceSummary> {
                 aluminumStatusTextView.setText("Aluminum: " + (invoice.isAluminum() ? "Yes" : "No"));
                 costTextView.setText("Cost: " + invoice.getEstimatedCost());
 
+                invoiceItemView.setOnLongClickListener(v -> {
+                    if (invoiceLongClickListener == null) {
+                        return false;
+                    }
+                    invoiceLongClickListener.onInvoiceLongClick(invoice);
+                    return true;
+                });
+
                 holder.individualInvoicesContainer.addView(invoiceItemView);
             }
         }
@@ -129,6 +243,8 @@ public class CustomerGroupAdapter extends ArrayAdapter<CustomerInvoiceSummary> {
         TextView customerNameHeader;
         TextView customerVinHeader;
         TextView customerTotalCostHeader;
+        TextView customerPanelCountHeader;
+        LinearLayout groupHeader;
         LinearLayout individualInvoicesContainer;
         Button emailButton; // Add the button here
     }
@@ -18,21 +18,55 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
 
 import models.CustomerInvoiceSummary;
 import models.Invoice;
+import models.Money;
 
 /**
  * PdfGenerator is responsible for creating a PDF invoice summary
  * from a given CustomerInvoiceSummary object. It includes customer details,
  * a list of all individual panel invoices, and a cost breakdown with tax.
  *
- * <p>This class handles rendering the invoice visually and saving it to internal storage.</p>
+ * <p>This class handles rendering the invoice visually and saving it to internal storage.
+ * Both, and reading the panel details of the invoices, touch storage, so callers on the main
+ * thread use {@link #generateInvoicePdfAsync}.</p>
  */
 public class PdfGenerator {
 
     private static final String TAG = "PdfGenerator";
     private static final String FILE_AUTHORITY_SUFFIX = ".fileprovider";
+    private static final double TAX_RATE = 0.0825;
+    private static final ExecutorService GENERATOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pdf-generator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Generates a PDF invoice on a background thread, see {@link #generateInvoicePdf}.
+     *
+     * @param context The context used to access resources and internal file storage.
+     * @param summary The summary object containing all invoice data to be printed.
+     * @return Completes with a URI to the generated PDF file, or null if generation fails.
+     */
+    public static CompletableFuture<Uri> generateInvoicePdfAsync(Context context, final CustomerInvoiceSummary summary) {
+        final Context appContext = context.getApplicationContext();
+        return CompletableFuture.supplyAsync(new Supplier<Uri>() {
+            @Override
+            public Uri get() {
+                return generateInvoicePdf(appContext, summary);
+            }
+        }, GENERATOR);
+    }
 
     /**
      * Generates a PDF invoice based on the provided customer summary and returns a content URI.
@@ -93,7 +127,7 @@ public class PdfGenerator {
         canvas.drawText("VIN: " + summary.getCustomerVIN(), x, y, paint);
         y += lineHeight;
 
-        String date = summary.getInvoices().isEmpty() ? "N/A" : summary.getInvoices().get(0).getFormattedDate();
+        String date = summary.getInvoiceCount() == 0 ? "N/A" : Invoice.formatDate(summary.getLatestTimestamp());
         canvas.drawText("Date of Estimate: " + date, x, y, paint);
         y += lineHeight * 2;
 
@@ -110,7 +144,6 @@ public class PdfGenerator {
         paint.setTypeface(Typeface.DEFAULT);
         paint.setTextSize(14);
 
-        double totalCost = 0.0;
         boolean alternateRow = false; // for zebra-striping rows
 
         for (Invoice invoice : summary.getInvoices()) {
@@ -122,16 +155,6 @@ public class PdfGenerator {
                 y = 50;
             }
 
-            // Parse the cost from the invoice string (e.g., "$300.00")
-            double cost = 0.0;
-            try {
-                cost = Double.parseDouble(invoice.getEstimatedCost().replace("$", ""));
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Invalid cost format: " + invoice.getEstimatedCost());
-            }
-
-            totalCost += cost;
-
             // === Alternate row background color ===
             paint.setColor(alternateRow ? Color.parseColor("#F8F8F8") : Color.WHITE);
             canvas.drawRect(x, y - rowHeight + 10, tableRight, y + 10, paint);
@@ -141,7 +164,7 @@ public class PdfGenerator {
             canvas.drawText(invoice.getPanelType(), x, y, paint);
             canvas.drawText(invoice.getNumberOfDents() + " (" + invoice.getLargestDentSize() + ")", x + 120, y, paint);
             canvas.drawText(invoice.isAluminum() ? "Yes" : "No", x + 240, y, paint);
-            canvas.drawText(String.format(Locale.getDefault(), "$%.2f", cost), x + 360, y, paint);
+            canvas.drawText(invoice.getQuote().toShortString(), x + 360, y, paint);
 
             // === Row separator line ===
             paint.setColor(Color.LTGRAY);
@@ -153,9 +176,9 @@ public class PdfGenerator {
 
         // === Summary Totals ===
         y += lineHeight;
-        double taxRate = 0.0825;
-        double taxAmount = totalCost * taxRate;
-        double grandTotal = totalCost + taxAmount;
+        long subtotalCents = summary.getTotalCents();
+        long taxCents = Math.round(subtotalCents * TAX_RATE);
+        long grandTotalCents = subtotalCents + taxCents;
 
         paint.setTypeface(Typeface.DEFAULT_BOLD);
         paint.setColor(Color.DKGRAY);
@@ -164,11 +187,11 @@ public class PdfGenerator {
 
         paint.setTypeface(Typeface.DEFAULT);
         paint.setColor(Color.BLACK);
-        canvas.drawText(String.format(Locale.getDefault(), "Subtotal: $%.2f", totalCost), x, y, paint);
+        canvas.drawText("Subtotal: " + Money.format(subtotalCents), x, y, paint);
         y += lineHeight;
-        canvas.drawText(String.format(Locale.getDefault(), "Tax (8.25%%): $%.2f", taxAmount), x, y, paint);
+        canvas.drawText("Tax (8.25%): " + Money.format(taxCents), x, y, paint);
         y += lineHeight;
-        canvas.drawText(String.format(Locale.getDefault(), "Total: $%.2f", grandTotal), x, y, paint);
+        canvas.drawText("Total: " + Money.format(grandTotalCents), x, y, paint);
 
         // === Finish the page ===
         document.finishPage(page);
@@ -0,0 +1,382 @@
+package models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes invoices as compact binary frames, the record format of {@link BinaryInvoiceLog}.
+ * All numbers are big-endian and fixed-width.
+ *
+ * <pre>
+ * frame   := length:int32  payload[length]  crc32(payload):int32
+ * payload := kind:int8 (1 = single, 2 = batch)  count:uint16  record[count]
+ *          | kind:int8 (3 = quote)  count:uint16  quoteHeader  line[count]
+ *          | kind:int8 (4 = tombstone)  count:uint16  id:int64[count]
+ * record  := id:int64  creationTimestamp:int64  panel:int8  dentSize:int8  numberOfDents:int32
+ *            flags:int8 (bit 0 = aluminum)  quoteStatus:int8  amountCents:int64
+ *            customerName:str  customerVIN:str  [panelType:str]  [largestDentSize:str]
+ *            quoteReason:str  rateCardVersion:str
+ * quoteHeader := firstId:int64  creationTimestamp:int64  customerName:str  customerVIN:str  rateCardVersion:str
+ * line    := panel:int8  dentSize:int8  numberOfDents:int32
+ *            flags:int8 (bit 0 = aluminum, bit 1 = own rate card version)  quoteStatus:int8
+ *            amountCents:int64  [panelType:str]  [largestDentSize:str]  quoteReason:str
+ *            [rateCardVersion:str]
+ * str     := byteLength:uint16 (0xFFFF = null)  utf8[byteLength]
+ * </pre>
+ *
+ * A {@link Quote} frame stores its customer, VIN, timestamp and rate card version once for all
+ * of its panels; a line only carries a rate card version when it differs from the header's.
+ * Decoding a quote frame yields one invoice per line, all sharing the header's strings; the lines
+ * are numbered consecutively from the header's first ID.
+ *
+ * Version 1 of the format had no IDs (no "id" in records, no "firstId" in quote headers, no
+ * tombstones); it is still decoded, giving every invoice the ID 0. Encoding always writes
+ * {@link #VERSION}.
+ *
+ * Panel types and dent sizes are dictionary-coded as the ordinal of their {@link PanelType} or
+ * {@link DentSize} constant; a value that is not exactly one of those names is stored with code
+ * {@link #RAW} followed by the text. The quote status is the ordinal of
+ * {@link QuoteResult.Status}. Reordering any of these enums requires a new format version.
+ *
+ * Frames can also be decoded for the invoice headers alone, stepping over the panel details;
+ * see {@link #decodePayload(ByteBuffer, List, boolean)}.
+ *
+ * Decoding instances keep a scratch buffer for strings and are not thread-safe.
+ */
+public class BinaryInvoiceCodec {
+
+    public static final int VERSION = 2;
+    static final byte KIND_SINGLE = 1;
+    static final byte KIND_BATCH = 2;
+    static final byte KIND_QUOTE = 3;
+    static final byte KIND_TOMBSTONE = 4;
+    static final int RAW = 0xFF;
+    static final int FRAME_OVERHEAD = 8; // Length prefix and CRC
+
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int MAX_BATCH = 0xFFFF;
+    private static final PanelType[] PANELS = PanelType.values();
+    private static final DentSize[] SIZES = DentSize.values();
+    private static final QuoteResult.Status[] STATUSES = QuoteResult.Status.values();
+    private static final int FLAG_ALUMINUM = 1;
+    private static final int FLAG_OWN_VERSION = 2;
+    private static final long[] NO_IDS = new long[0];
+
+    private final int version;
+    private byte[] scratch = new byte[64];
+
+    public BinaryInvoiceCodec() {
+        this(VERSION);
+    }
+
+    /**
+     * @param version The format version of the frames to decode.
+     */
+    public BinaryInvoiceCodec(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Encodes invoices as one frame, including its length prefix and CRC.
+     *
+     * @param invoices The invoices; more than one makes a batch frame that is read whole or not at all.
+     * @param batch True to mark the frame as a batch.
+     * @return The encoded frame.
+     * @throws IOException If the batch is too large or a string is too long to encode.
+     */
+    public static byte[] encodeFrame(Collection<Invoice> invoices, boolean batch) throws IOException {
+        if (invoices.size() > MAX_BATCH) {
+            throw new IOException("Too many invoices in one batch: " + invoices.size());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 96 * invoices.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Length, patched below
+        out.writeByte(batch ? KIND_BATCH : KIND_SINGLE);
+        out.writeShort(invoices.size());
+        for (Invoice invoice : invoices) {
+            writeRecord(out, invoice);
+        }
+        return finishFrame(bytes, out);
+    }
+
+    /**
+     * Encodes a quote as one frame, including its length prefix and CRC.
+     *
+     * @param quote The quote.
+     * @return The encoded frame.
+     * @throws IOException If the quote has too many panels or a string is too long to encode.
+     */
+    public static byte[] encodeQuote(Quote quote) throws IOException {
+        if (quote.getLineCount() > MAX_BATCH) {
+            throw new IOException("Too many panels in one quote: " + quote.getLineCount());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 32 * quote.getLineCount());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Length, patched below
+        out.writeByte(KIND_QUOTE);
+        out.writeShort(quote.getLineCount());
+        out.writeLong(quote.getFirstId());
+        out.writeLong(quote.getCreationTimestamp());
+        writeString(out, quote.getCustomerName());
+        writeString(out, quote.getCustomerVIN());
+        writeString(out, quote.getRateCardVersion());
+        for (Quote.Line line : quote.getLines()) {
+            writeLine(out, line, quote.getRateCardVersion());
+        }
+        return finishFrame(bytes, out);
+    }
+
+    /**
+     * Encodes a tombstone for one invoice as a frame, including its length prefix and CRC.
+     *
+     * @param id The ID of the deleted invoice.
+     * @return The encoded frame.
+     * @throws IOException If the frame cannot be encoded.
+     */
+    public static byte[] encodeTombstone(long id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Length, patched below
+        out.writeByte(KIND_TOMBSTONE);
+        out.writeShort(1);
+        out.writeLong(id);
+        return finishFrame(bytes, out);
+    }
+
+    private static byte[] finishFrame(ByteArrayOutputStream bytes, DataOutputStream out) throws IOException {
+        out.writeInt(0); // CRC, patched below
+        out.flush();
+
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - FRAME_OVERHEAD;
+        CRC32 crc = new CRC32();
+        crc.update(frame, 4, length);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(0, length);
+        buffer.putInt(4 + length, (int) crc.getValue());
+        return frame;
+    }
+
+    private static void writeRecord(DataOutputStream out, Invoice invoice) throws IOException {
+        int panel = codeOf(PanelType.fromCode(invoice.getPanelType()), invoice.getPanelType());
+        int size = codeOf(DentSize.fromCode(invoice.getLargestDentSize()), invoice.getLargestDentSize());
+        QuoteResult quote = invoice.getQuote();
+
+        out.writeLong(invoice.getId());
+        out.writeLong(invoice.getCreationTimestamp());
+        out.writeByte(panel);
+        out.writeByte(size);
+        out.writeInt(invoice.getNumberOfDents());
+        out.writeByte(invoice.isAluminum() ? 1 : 0);
+        out.writeByte(quote.getStatus().ordinal());
+        out.writeLong(quote.getAmountCents());
+        writeString(out, invoice.getCustomerName());
+        writeString(out, invoice.getCustomerVIN());
+        if (panel == RAW) {
+            writeString(out, invoice.getPanelType());
+        }
+        if (size == RAW) {
+            writeString(out, invoice.getLargestDentSize());
+        }
+        writeString(out, quote.getReason());
+        writeString(out, quote.getRateCardVersion());
+    }
+
+    private static void writeLine(DataOutputStream out, Quote.Line line, String headerVersion) throws IOException {
+        int panel = codeOf(PanelType.fromCode(line.getPanelType()), line.getPanelType());
+        int size = codeOf(DentSize.fromCode(line.getLargestDentSize()), line.getLargestDentSize());
+        QuoteResult result = line.getResult();
+        String version = result.getRateCardVersion();
+        boolean ownVersion = version != null && !version.equals(headerVersion);
+
+        out.writeByte(panel);
+        out.writeByte(size);
+        out.writeInt(line.getNumberOfDents());
+        out.writeByte((line.isAluminum() ? FLAG_ALUMINUM : 0) | (ownVersion ? FLAG_OWN_VERSION : 0));
+        out.writeByte(result.getStatus().ordinal());
+        out.writeLong(result.getAmountCents());
+        if (panel == RAW) {
+            writeString(out, line.getPanelType());
+        }
+        if (size == RAW) {
+            writeString(out, line.getLargestDentSize());
+        }
+        writeString(out, result.getReason());
+        if (ownVersion) {
+            writeString(out, version);
+        }
+    }
+
+    // Only exact names are dictionary-coded, so decoding gives back the stored text unchanged
+    private static int codeOf(Enum<?> constant, String text) {
+        return constant != null && constant.name().equals(text) ? constant.ordinal() : RAW;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(NULL_STRING);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length >= NULL_STRING) {
+            throw new IOException("String too long to encode: " + utf8.length + " bytes");
+        }
+        out.writeShort(utf8.length);
+        out.write(utf8);
+    }
+
+    /**
+     * Decodes the payload of one frame, i.e. the bytes between its length prefix and its CRC.
+     *
+     * @param payload A buffer positioned at the start of the payload and limited to its end.
+     * @param out Receives the decoded invoices.
+     * @return The IDs deleted by a tombstone frame, or an empty array for any other frame.
+     * @throws IllegalArgumentException If the payload is malformed.
+     */
+    public long[] decodePayload(ByteBuffer payload, List<Invoice> out) {
+        return decodePayload(payload, out, true);
+    }
+
+    /**
+     * Decodes the payload of one frame, optionally stepping over the panel details: dictionary
+     * codes are not looked up and the strings for raw panel types and dent sizes, invalid quote
+     * reasons and rate card versions are skipped without being decoded.
+     *
+     * @param payload A buffer positioned at the start of the payload and limited to its end.
+     * @param out Receives the decoded invoices; header-only ones have a null panel type and dent size.
+     * @param details False to decode only each invoice's header.
+     * @return The IDs deleted by a tombstone frame, or an empty array for any other frame.
+     * @throws IllegalArgumentException If the payload is malformed.
+     */
+    long[] decodePayload(ByteBuffer payload, List<Invoice> out, boolean details) {
+        long[] deleted = NO_IDS;
+        try {
+            byte kind = payload.get();
+            if (kind < KIND_SINGLE || kind > KIND_TOMBSTONE || (kind == KIND_TOMBSTONE && version < 2)) {
+                throw new IllegalArgumentException("Unknown frame kind " + kind);
+            }
+            int count = payload.getShort() & 0xFFFF;
+            if (kind == KIND_TOMBSTONE) {
+                deleted = new long[count];
+                for (int i = 0; i < count; i++) {
+                    deleted[i] = payload.getLong();
+                }
+            } else if (kind == KIND_QUOTE) {
+                readQuote(payload, count, out, details);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    out.add(readRecord(payload, details));
+                }
+            }
+        } catch (java.nio.BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated invoice record");
+        }
+        if (payload.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected bytes after invoice records");
+        }
+        return deleted;
+    }
+
+    private Invoice readRecord(ByteBuffer in, boolean details) {
+        long id = version >= 2 ? in.getLong() : 0;
+        long creationTimestamp = in.getLong();
+        int panel = in.get() & 0xFF;
+        int size = in.get() & 0xFF;
+        int numberOfDents = in.getInt();
+        boolean isAluminum = (in.get() & FLAG_ALUMINUM) != 0;
+        QuoteResult.Status status = STATUSES[in.get()];
+        long amountCents = in.getLong();
+        String customerName = readString(in);
+        String customerVIN = readString(in);
+        if (!details) {
+            skipStrings(in, (panel == RAW ? 1 : 0) + (size == RAW ? 1 : 0) + 2);
+            Invoice header = new Invoice(customerName, customerVIN, null, null, 0, false,
+                    toResult(status, amountCents, null, null), creationTimestamp);
+            header.setId(id);
+            return header;
+        }
+        String panelType = panel == RAW ? readString(in) : PANELS[panel].name();
+        String largestDentSize = size == RAW ? readString(in) : SIZES[size].name();
+        String reason = readString(in);
+        String rateCardVersion = readString(in);
+
+        QuoteResult quote = toResult(status, amountCents, reason, rateCardVersion);
+        Invoice invoice = new Invoice(customerName, customerVIN, panelType, largestDentSize, numberOfDents, isAluminum, quote, creationTimestamp);
+        invoice.setId(id);
+        return invoice;
+    }
+
+    private void readQuote(ByteBuffer in, int count, List<Invoice> out, boolean details) {
+        long firstId = version >= 2 ? in.getLong() : 0;
+        long creationTimestamp = in.getLong();
+        String customerName = readString(in);
+        String customerVIN = readString(in);
+        String headerVersion = details ? readString(in) : skipStrings(in, 1);
+        for (int i = 0; i < count; i++) {
+            int panel = in.get() & 0xFF;
+            int size = in.get() & 0xFF;
+            int numberOfDents = in.getInt();
+            int flags = in.get();
+            QuoteResult.Status status = STATUSES[in.get()];
+            long amountCents = in.getLong();
+            if (!details) {
+                skipStrings(in, (panel == RAW ? 1 : 0) + (size == RAW ? 1 : 0) + 1 + ((flags & FLAG_OWN_VERSION) != 0 ? 1 : 0));
+                Invoice header = new Invoice(customerName, customerVIN, null, null, 0, false,
+                        toResult(status, amountCents, null, null), creationTimestamp);
+                header.setId(firstId != 0 ? firstId + i : 0);
+                out.add(header);
+                continue;
+            }
+            String panelType = panel == RAW ? readString(in) : PANELS[panel].name();
+            String largestDentSize = size == RAW ? readString(in) : SIZES[size].name();
+            String reason = readString(in);
+            String rateCardVersion = (flags & FLAG_OWN_VERSION) != 0 ? readString(in) : headerVersion;
+
+            QuoteResult quote = toResult(status, amountCents, reason, rateCardVersion);
+            Invoice invoice = new Invoice(customerName, customerVIN, panelType, largestDentSize, numberOfDents,
+                    (flags & FLAG_ALUMINUM) != 0, quote, creationTimestamp);
+            invoice.setId(firstId != 0 ? firstId + i : 0);
+            out.add(invoice);
+        }
+    }
+
+    private static QuoteResult toResult(QuoteResult.Status status, long amountCents, String reason, String rateCardVersion) {
+        switch (status) {
+            case PRICED:
+                return QuoteResult.priced(amountCents, rateCardVersion);
+            case CUSTOM_REPAIR:
+                return QuoteResult.customRepair(rateCardVersion);
+            default:
+                return QuoteResult.invalid(reason);
+        }
+    }
+
+    // Steps over strings without decoding them; returns null so it can stand in for a skipped value
+    private static String skipStrings(ByteBuffer in, int count) {
+        for (int i = 0; i < count; i++) {
+            int length = in.getShort() & 0xFFFF;
+            if (length != NULL_STRING) {
+                in.position(in.position() + length);
+            }
+        }
+        return null;
+    }
+
+    private String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,297 @@
+package models;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only invoice log in the compact binary format of {@link BinaryInvoiceCodec}.
+ * The file starts with an 8-byte header (the magic "QQHB", a format version and two reserved
+ * bytes) followed by one frame per save; a vehicle quote or batch is a single frame. Every frame carries
+ * a CRC32 of its payload, so a frame cut short or damaged is detected and skipped.
+ *
+ * Reads map the file into memory through a {@link FileChannel} and decode the frames straight
+ * from the mapping; on API 26 and later the CRC is also computed on the mapping, while older
+ * versions copy each frame once into a reused buffer because {@code CRC32.update(ByteBuffer)}
+ * is not available there. A single record can also be read on its own by seeking to its offset.
+ *
+ * A frame left incomplete at the end of the file by a crash is cut off before the next append,
+ * so new frames are never written after a torn one. Recovery can also check just the frames after
+ * a known-good offset, see {@link #scan(long, InvoiceRecordVisitor)}. A file written in an older
+ * format version is rewritten in the current one before anything is appended to it.
+ */
+public class BinaryInvoiceLog implements InvoiceLog {
+
+    public static final int VERSION = BinaryInvoiceCodec.VERSION;
+    static final int HEADER_LENGTH = 8;
+    private static final byte[] MAGIC = {'Q', 'Q', 'H', 'B'};
+    private static final String TAG = "BinaryInvoiceLog";
+
+    private final File file;
+    private long validLength = -1; // End of the last intact frame, or -1 if not known yet
+    private int fileVersion; // Format version of the file, or 0 if it has no header yet
+
+    /**
+     * @param file The log file. It is created on the first write.
+     */
+    public BinaryInvoiceLog(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized long append(Invoice invoice) throws IOException {
+        return appendFrame(BinaryInvoiceCodec.encodeFrame(Collections.singletonList(invoice), false));
+    }
+
+    @Override
+    public synchronized long appendBatch(Collection<Invoice> invoices) throws IOException {
+        if (invoices.isEmpty()) {
+            return -1;
+        }
+        return appendFrame(BinaryInvoiceCodec.encodeFrame(invoices, true));
+    }
+
+    @Override
+    public synchronized long appendQuote(Quote quote) throws IOException {
+        return appendFrame(BinaryInvoiceCodec.encodeQuote(quote));
+    }
+
+    @Override
+    public synchronized void appendDelete(long id) throws IOException {
+        appendFrame(BinaryInvoiceCodec.encodeTombstone(id));
+    }
+
+    private long appendFrame(byte[] frame) throws IOException {
+        long end = validLength >= 0 && validLength == file.length() ? validLength : scanFrames(0, null);
+        if (end >= HEADER_LENGTH && fileVersion != VERSION) {
+            Log.w(TAG, "Upgrading " + file.getName() + " from format version " + fileVersion);
+            rewrite(readAll());
+            end = validLength;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (end < HEADER_LENGTH) {
+                raf.setLength(0);
+                raf.write(header());
+                end = HEADER_LENGTH;
+                fileVersion = VERSION;
+            } else if (raf.length() != end) {
+                Log.w(TAG, "Dropping " + (raf.length() - end) + " bytes of an incomplete record in " + file.getName());
+                raf.setLength(end);
+            }
+            raf.seek(end);
+            raf.write(frame);
+            raf.getFD().sync();
+            validLength = end + frame.length;
+        }
+        return end;
+    }
+
+    /**
+     * Replaces the whole log with the given invoices, one quote frame per {@link Quote} they group
+     * into. The new content is written to a temporary file that is renamed over the log.
+     *
+     * @param invoices The invoices the log should contain.
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void rewrite(List<Invoice> invoices) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        long length = HEADER_LENGTH;
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            BufferedOutputStream out = new BufferedOutputStream(fos, 64 * 1024);
+            out.write(header());
+            for (Quote quote : Quote.group(invoices)) {
+                byte[] frame = BinaryInvoiceCodec.encodeQuote(quote);
+                out.write(frame);
+                length += frame.length;
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file.getName());
+        }
+        validLength = length;
+        fileVersion = VERSION;
+    }
+
+    @Override
+    public synchronized long scan(long from, InvoiceRecordVisitor visitor) throws IOException {
+        long end = scanFrames(from, visitor);
+        if (from <= HEADER_LENGTH) {
+            validLength = end;
+        }
+        return Math.max(end, from);
+    }
+
+    @Override
+    public synchronized void truncate(long length) throws IOException {
+        if (!file.exists() || file.length() <= length) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+            raf.getFD().sync();
+        }
+        validLength = length >= HEADER_LENGTH ? length : -1;
+    }
+
+    /**
+     * Reads one frame by seeking to it, without mapping or scanning the rest of the file.
+     *
+     * @param offset The offset of the frame.
+     * @return The invoices in the frame; empty for a tombstone.
+     * @throws IOException If there is no intact frame at the offset.
+     */
+    @Override
+    public synchronized List<Invoice> readAt(long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int version = readHeader(raf);
+            long available = raf.length() - offset - BinaryInvoiceCodec.FRAME_OVERHEAD;
+            if (offset < HEADER_LENGTH || available < 0) {
+                throw new IOException("No record at offset " + offset + " of " + file.getName());
+            }
+            raf.seek(offset);
+            int length = raf.readInt();
+            if (length <= 0 || length > available) {
+                throw new IOException("No record at offset " + offset + " of " + file.getName());
+            }
+            byte[] payload = new byte[length];
+            raf.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != raf.readInt()) {
+                throw new IOException("Damaged record at offset " + offset + " of " + file.getName());
+            }
+            List<Invoice> invoices = new ArrayList<>();
+            try {
+                new BinaryInvoiceCodec(version).decodePayload(ByteBuffer.wrap(payload), invoices);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unreadable record at offset " + offset + ": " + e.getMessage());
+            }
+            return invoices;
+        }
+    }
+
+    /**
+     * Walks the frames of the file, checking each CRC and handing decoded records to the visitor.
+     *
+     * @param from The offset of the first frame to read; the header is always checked.
+     * @param visitor Receives each record, or null to only find the end of the intact frames.
+     * @return The offset just after the last intact frame, or 0 if the file has no valid header.
+     * @throws IOException If the file cannot be read or is not a binary invoice log.
+     */
+    private long scanFrames(long from, InvoiceRecordVisitor visitor) throws IOException {
+        if (!file.exists() || file.length() < HEADER_LENGTH) {
+            fileVersion = 0;
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+
+            fileVersion = readHeader(raf);
+            long size = channel.size();
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            BinaryInvoiceCodec codec = new BinaryInvoiceCodec(fileVersion);
+            CRC32 crc = new CRC32();
+            byte[] copy = new byte[0];
+            List<Invoice> frame = new ArrayList<>();
+            int position = (int) Math.max(from, HEADER_LENGTH);
+            while (size - position >= BinaryInvoiceCodec.FRAME_OVERHEAD) {
+                int length = map.getInt(position);
+                if (length <= 0 || length > size - position - BinaryInvoiceCodec.FRAME_OVERHEAD) {
+                    break; // Cut short by a crash mid-write
+                }
+                int next = position + length + BinaryInvoiceCodec.FRAME_OVERHEAD;
+
+                ByteBuffer payload = map.duplicate();
+                payload.limit(position + 4 + length).position(position + 4);
+                crc.reset();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    crc.update(payload.duplicate());
+                } else {
+                    if (copy.length < length) {
+                        copy = new byte[Math.max(length, copy.length * 2)];
+                    }
+                    payload.duplicate().get(copy, 0, length);
+                    crc.update(copy, 0, length);
+                }
+                if ((int) crc.getValue() != map.getInt(position + 4 + length)) {
+                    if (next == size) {
+                        break; // Torn last frame
+                    }
+                    Log.w(TAG, "Skipping damaged record at offset " + position + " of " + file.getName());
+                    position = next;
+                    continue;
+                }
+
+                if (visitor != null) {
+                    frame.clear();
+                    long[] deleted;
+                    try {
+                        deleted = codec.decodePayload(payload, frame, visitor.needsDetails());
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "Skipping unreadable record at offset " + position + ": " + e.getMessage());
+                        position = next;
+                        continue;
+                    }
+                    for (Invoice invoice : frame) {
+                        visitor.record(position, invoice);
+                    }
+                    for (long id : deleted) {
+                        visitor.delete(id);
+                    }
+                }
+                position = next;
+            }
+            if (position != size) {
+                Log.w(TAG, "Ignoring " + (size - position) + " bytes of an incomplete record at the end of " + file.getName());
+            }
+            return position;
+        }
+    }
+
+    // Checks the magic and returns the format version
+    private int readHeader(RandomAccessFile raf) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        raf.seek(0);
+        raf.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException(file.getName() + " is not a binary invoice log");
+            }
+        }
+        int version = raf.readShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported binary invoice log version " + version);
+        }
+        return version;
+    }
+
+    private static byte[] header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) 0); // Reserved
+        return header.array();
+    }
+}
@@ -1,77 +1,82 @@
 package models;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 /**
  * The Calculator class provides the core business logic for estimating the cost of hail damage repair.
- * It uses a static, nested HashMap to store a lookup table of repair costs based on a variety of
+ * It looks up repair costs in the compiled price matrix of a {@link RateCard} based on a variety of
  * factors, including panel type, the largest dent size, and the total number of dents.
- * The class also handles applying an additional multiplier for aluminum panels and provides
- * a method to retrieve the estimated cost as a formatted string
+ * The class also handles applying the card's multiplier for the panel material (e.g., aluminum)
+ * and returns each estimate as a {@link QuoteResult} holding the amount in cents.
+ *
+ * Each quote is priced against the card currently registered for the calculator's program in
+ * the {@link RateCardRegistry}, read once per quote (or once per vehicle for {@link #priceVehicle}),
+ * so a card swapped in mid-quote never mixes prices from two versions. An optional
+ * {@link QuoteCache} can be attached to return ready-made results for repeated inputs.
  */
 public class Calculator {
 
+    /** Sentinel cost meaning the panel needs a custom repair quote ("CR"). */
+    public static final int CUSTOM_REPAIR = -1;
+    /** Sentinel cost meaning no price exists for the given inputs. */
+    public static final int NOT_AVAILABLE = -2;
+
+    private static final QuoteResult INVALID_INPUT = QuoteResult.invalid("Invalid input.");
+    private static final QuoteResult UNKNOWN_PANEL = QuoteResult.invalid("Unknown panel type.");
+    private static final QuoteResult UNKNOWN_DENT_SIZE = QuoteResult.invalid("Unknown dent size category for selected panel/dents.");
+    private static final QuoteResult UNKNOWN_PROGRAM = QuoteResult.invalid("No rate card for the selected program.");
+
     private String customerName;
     private String customerVIN;
 
+    // Card to price against, or null to use the program's currently registered card
+    private final RateCard pinnedCard;
+    private final String programId;
+    private QuoteCache quoteCache;
 
-    // Nested Map for the lookup table
-    // Panel Type -> (Dents Range -> (Dent Size -> Cost))
-    private static final Map<String, Map<String, Map<String, String>>> DENT_COSTS = new HashMap<>();
-
-    static {
-        // Panel: HOOD, ROOF, TRUNK - Each gets its own independent cost map
-        String[] mainPanels = {"HOOD", "ROOF", "TRUNK"};
-        for (String panel : mainPanels) {
-            // A NEW HashMap is created for EACH panel (Hood, Roof, Trunk).
-            // This ensures that HOOD's map is distinct from ROOF's map, etc.
-            Map<String, Map<String, String>> panelCosts = new HashMap<>();
-            panelCosts.put("1-5", createDentSizeMap("125", "155", "185", "215"));
-            panelCosts.put("6-15", createDentSizeMap("185", "215", "255", "325"));
-            panelCosts.put("16-30", createDentSizeMap("255", "325", "375", "425"));
-            panelCosts.put("31-50", createDentSizeMap("375", "425", "475", "575")); // Note: 475,475 in H col
-            panelCosts.put("51-75", createDentSizeMap("475", "525", "625", "800"));
-            panelCosts.put("76-100", createDentSizeMap("625", "725", "850", "CR")); // CR for 'Call for Quote'
-            panelCosts.put("101-150", createDentSizeMap("850", "1000", "1200", "1500"));
-            panelCosts.put("151-200", createDentSizeMap("1200", "1500", "1800", "CR"));
-            panelCosts.put("201-300", createDentSizeMap("CR", "CR", "CR", "CR"));
-            DENT_COSTS.put(panel, panelCosts); // Each panel gets its own distinct map
-        }
-        // Panel: LFF (Left Front Fender) and other similar 95-start panels
-        // This part remains the same as it already follows the distinct-map-per-panel pattern
-        String[] panelsWith95Start = {"LFF", "LFD", "LG", "LQ", "LRAIL", "RFF", "RFD", "RG", "RQ", "RRAIL"};
-        for (String panel : panelsWith95Start) {
-            Map<String, Map<String, String>> panelCosts = new HashMap<>();
-            panelCosts.put("1-5", createDentSizeMap("95", "125", "155", "185"));
-            panelCosts.put("6-15", createDentSizeMap("135", "175", "215", "255"));
-            panelCosts.put("16-30", createDentSizeMap("185", "255", "325", "375"));
-            panelCosts.put("31-50", createDentSizeMap("325", "375", "425", "CR")); // CR in H col
-            panelCosts.put("51-75", createDentSizeMap("CR", "CR", "CR", "CR")); // All CR
-            panelCosts.put("76-100", createDentSizeMap("CR", "CR", "CR", "CR")); // All CR
-            panelCosts.put("101-150", createDentSizeMap("CR", "CR", "CR", "CR")); // All CR
-            panelCosts.put("151-200", createDentSizeMap("CR", "CR", "CR", "CR")); // All CR
-            panelCosts.put("201-300", createDentSizeMap("CR", "CR", "CR", "CR")); // All CR
-            DENT_COSTS.put(panel, panelCosts);
-        }
+    /**
+     * Creates a calculator that prices against the default program's current rate card.
+     */
+    public Calculator() {
+        this(null, RateCardRegistry.DEFAULT_PROGRAM);
     }
+
     /**
-     * Helper method to create the innermost map for dent sizes.
+     * Creates a calculator that always prices against the given rate card.
      *
-     * @param d The cost for dent size 'D'.
-     * @param n The cost for dent size 'N'.
-     * @param q The cost for dent size 'Q'.
-     * @param h The cost for dent size 'H'.
-     * @return A map linking dent size categories to their costs.
+     * @param rateCard The rate card to use.
      */
-    // Helper method to create the innermost map for dent sizes
-    private static Map<String, String> createDentSizeMap(String d, String n, String q, String h) {
-        Map<String, String> map = new HashMap<>();
-        map.put("D", d);
-        map.put("N", n);
-        map.put("Q", q);
-        map.put("H", h);
-        return map;
+    public Calculator(RateCard rateCard) {
+        this(rateCard, rateCard.getProgramId());
+    }
+
+    private Calculator(RateCard rateCard, String programId) {
+        this.pinnedCard = rateCard;
+        this.programId = programId;
+    }
+
+    /**
+     * Creates a calculator that prices against the current rate card of an insurer or pricing program.
+     *
+     * @param programId The program ID registered in the {@link RateCardRegistry}.
+     * @return A calculator for the program.
+     */
+    public static Calculator forProgram(String programId) {
+        return new Calculator(null, programId);
+    }
+
+    /**
+     * Attaches a cache that memoizes results for repeated inputs. Caches may be shared between
+     * calculators and threads; results for a replaced rate card are never returned.
+     *
+     * @param quoteCache The cache to use, or null to always compute results.
+     */
+    public void setQuoteCache(QuoteCache quoteCache) {
+        this.quoteCache = quoteCache;
+    }
+
+    private RateCard rateCard() {
+        return pinnedCard != null ? pinnedCard : RateCardRegistry.get(programId);
     }
 
     /**
@@ -81,76 +86,133 @@ public class Calculator {
      * @param largestDentSize The largest dent size category (e.g., "D", "N", "Q", "H").
      * @param numberOfDents The total number of dents on the panel.
      * @param isAluminum True if the car's body is aluminum, false otherwise.
-     * @return The estimated cost as a String, or "N/A" if input is invalid/not found, or "CR" if it requires Custom Repair.
+     * @return A {@link QuoteResult} that is priced in cents, flagged for custom repair, or invalid with a reason.
      */
-    public String getEstimatedCost(String panelType, String largestDentSize, int numberOfDents, boolean isAluminum) {
+    public QuoteResult quote(String panelType, String largestDentSize, int numberOfDents, boolean isAluminum) {
+        return quote(rateCard(), panelType, largestDentSize, numberOfDents, isAluminum);
+    }
+
+    private QuoteResult quote(RateCard card, String panelType, String largestDentSize, int numberOfDents, boolean isAluminum) {
+        if (card == null) {
+            return UNKNOWN_PROGRAM;
+        }
         if (panelType == null || largestDentSize == null || numberOfDents <= 0) {
-            return "N/A: Invalid input.";
+            return INVALID_INPUT;
         }
 
-        // Convert panelType to uppercase to match map keys
-        panelType = panelType.toUpperCase();
-        largestDentSize = largestDentSize.toUpperCase();
-
-        Map<String, Map<String, String>> panelData = DENT_COSTS.get(panelType);
-        if (panelData == null) {
-            return "N/A: Unknown panel type.";
+        PanelType panel = PanelType.fromCode(panelType);
+        if (panel == null) {
+            return UNKNOWN_PANEL;
         }
 
-        String dentRangeKey = getDentRangeKey(numberOfDents);
-        if (dentRangeKey == null) {
-            return "N/A: Number of dents out of range (1-300)."; // Updated error message
+        if (card.getBuckets().indexOf(numberOfDents) < 0) {
+            return QuoteResult.invalid("Number of dents out of range (1-" + card.getBuckets().getMaxDents() + ").");
         }
 
-        Map<String, String> dentSizeData = panelData.get(dentRangeKey);
-        if (dentSizeData == null) {
-            return "N/A: Data for dent range not found.";
+        DentSize size = DentSize.fromCode(largestDentSize);
+        if (size == null) {
+            return UNKNOWN_DENT_SIZE;
         }
 
-        String costStr = dentSizeData.get(largestDentSize);
-        if (costStr == null) {
-            return "N/A: Unknown dent size category for selected panel/dents.";
+        QuoteCache cache = quoteCache;
+        long key = 0;
+        if (cache != null) {
+            key = QuoteCache.key(card, panel, size, numberOfDents, Material.of(isAluminum));
+            QuoteResult cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
         }
 
-        if (costStr.equals("CR")) {
-            return "CR: Custom Repair Needed";
+        int cents = lookupCents(card, panel, size, numberOfDents, isAluminum);
+        QuoteResult result = cents == CUSTOM_REPAIR ? card.customRepairResult() : QuoteResult.priced(cents, card.getVersionTag());
+        if (cache != null) {
+            cache.put(key, result);
         }
+        return result;
+    }
 
-        // Apply aluminum multiplier if applicable
-        try {
-            double cost = Double.parseDouble(costStr);
-            if (isAluminum) {
-                cost *= 1.5;
+    /**
+     * Calculates the estimated cost as a display string. This is a thin adapter over
+     * {@link #quote} kept for callers that still work with formatted costs.
+     *
+     * @param panelType The type of panel (e.g., "HOOD", "LFF").
+     * @param largestDentSize The largest dent size category (e.g., "D", "N", "Q", "H").
+     * @param numberOfDents The total number of dents on the panel.
+     * @param isAluminum True if the car's body is aluminum, false otherwise.
+     * @return The estimated cost as a String, or "N/A" if input is invalid/not found, or "CR" if it requires Custom Repair.
+     */
+    public String getEstimatedCost(String panelType, String largestDentSize, int numberOfDents, boolean isAluminum) {
+        return quote(panelType, largestDentSize, numberOfDents, isAluminum).toDisplayString();
+    }
+
+    /**
+     * Prices every panel of a vehicle in one pass. Each panel is validated and looked up once,
+     * priced amounts are summed in cents, and custom repair panels are counted.
+     *
+     * @param panels The panels entered for the vehicle, in display order.
+     * @return A {@link VehiclePricing} with one result per panel, the subtotal, the custom repair
+     *         count and the index of the first panel that failed validation (or -1).
+     */
+    public VehiclePricing priceVehicle(List<PanelInputData> panels) {
+        RateCard card = rateCard();
+        QuoteResult[] results = new QuoteResult[panels.size()];
+        long subtotalCents = 0;
+        int customRepairCount = 0;
+        int firstInvalidIndex = -1;
+
+        for (int i = 0; i < results.length; i++) {
+            PanelInputData panel = panels.get(i);
+            QuoteResult result = quote(card, panel.panelType, panel.largestDentSize, panel.numberOfDents, panel.isAluminum);
+            results[i] = result;
+            switch (result.getStatus()) {
+                case PRICED:
+                    subtotalCents += result.getAmountCents();
+                    break;
+                case CUSTOM_REPAIR:
+                    customRepairCount++;
+                    break;
+                default:
+                    if (firstInvalidIndex < 0) {
+                        firstInvalidIndex = i;
+                    }
+                    break;
             }
-            // Format to 2 decimal places for currency, if it's not a whole number.
-            // Or just cast to int if all your prices are whole numbers.
-            // Here, using String.format for clean currency representation.
-            return String.format("$%.2f", cost);
-        } catch (NumberFormatException e) {
-            // This should ideally not happen if data is correctly entered,
-            // but good for robustness.
-            return "N/A: Internal cost data error.";
         }
+        return new VehiclePricing(results, subtotalCents, customRepairCount, firstInvalidIndex);
     }
 
     /**
-     * Helper method to determine the correct dent range key from the number of dents.
+     * Looks up the estimated cost in cents directly from the rate card's compiled price matrix.
+     * This path performs no String handling and no allocation.
      *
-     * @param numDents The number of dents.
-     * @return A String representing the dent range (e.g., "1-5"), or null if the number is out of the defined range.
+     * @param panel The panel being repaired.
+     * @param size The largest dent size category.
+     * @param numberOfDents The total number of dents on the panel.
+     * @param isAluminum True if the panel is aluminum, false otherwise.
+     * @return The cost in cents, {@link #CUSTOM_REPAIR} if the panel needs a custom quote,
+     *         or {@link #NOT_AVAILABLE} if the inputs are invalid or out of range.
      */
-    private String getDentRangeKey(int numDents) {
-        if (numDents >= 1 && numDents <= 5) return "1-5";
-        if (numDents >= 6 && numDents <= 15) return "6-15";
-        if (numDents >= 16 && numDents <= 30) return "16-30";
-        if (numDents >= 31 && numDents <= 50) return "31-50";
-        if (numDents >= 51 && numDents <= 75) return "51-75";
-        if (numDents >= 76 && numDents <= 100) return "76-100";
-        if (numDents >= 101 && numDents <= 150) return "101-150";
-        if (numDents >= 151 && numDents <= 200) return "151-200";
-        if (numDents >= 201 && numDents <= 300) return "201-300";
-        return null; // Out of defined ranges
+    public int getEstimatedCostCents(PanelType panel, DentSize size, int numberOfDents, boolean isAluminum) {
+        return lookupCents(rateCard(), panel, size, numberOfDents, isAluminum);
+    }
+
+    private int lookupCents(RateCard card, PanelType panel, DentSize size, int numberOfDents, boolean isAluminum) {
+        if (card == null || panel == null || size == null) {
+            return NOT_AVAILABLE;
+        }
+        int bucket = card.getBuckets().indexOf(numberOfDents);
+        if (bucket < 0) {
+            return NOT_AVAILABLE;
+        }
+
+        int cents = card.centsFor(panel, bucket, size);
+        if (cents == CUSTOM_REPAIR) {
+            return cents;
+        }
+        // Apply the card's material multiplier (e.g., 1.5x for aluminum)
+        return card.applyMaterial(cents, Material.of(isAluminum));
     }
 
     // You might want to add other utility methods here in the future
-}
\ No newline at end of file
+}
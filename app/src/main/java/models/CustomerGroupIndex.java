@@ -0,0 +1,197 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Groups invoices by customer and vehicle, kept up to date one invoice at a time.
+ * Groups are held in a sorted map keyed by {@link CustomerKey}, so adding or removing an
+ * invoice costs O(log k) for k groups and listing the groups in display order is O(k), with
+ * no re-grouping or re-sorting of the whole history.
+ *
+ * The summaries hold row numbers of an {@link InvoiceColumns} table rather than invoices.
+ * {@link #add(Invoice)} stores the invoice in the table itself, while {@link InvoiceRepository}
+ * stores each invoice once and groups its row with {@link #addRow}.
+ *
+ * This class is not thread-safe; {@link InvoiceRepository} guards it with its own lock.
+ */
+public class CustomerGroupIndex {
+
+    private final InvoiceColumns columns;
+    private final TreeMap<CustomerKey, CustomerInvoiceSummary> groups = new TreeMap<>();
+
+    public CustomerGroupIndex() {
+        this(new InvoiceColumns());
+    }
+
+    /**
+     * @param columns The table holding the rows that will be grouped.
+     */
+    CustomerGroupIndex(InvoiceColumns columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Adds an invoice to its group, creating the group if needed.
+     *
+     * @param invoice The invoice to add.
+     */
+    public void add(Invoice invoice) {
+        addRow(columns.add(invoice));
+    }
+
+    /**
+     * Adds one row of the table to its group, creating the group if needed.
+     *
+     * @param row The row to add.
+     */
+    void addRow(int row) {
+        groupOf(row).addRow(row);
+    }
+
+    private CustomerInvoiceSummary groupOf(int row) {
+        CustomerKey key = new CustomerKey(columns.getCustomerName(row), columns.getCustomerVIN(row));
+        CustomerInvoiceSummary summary = groups.get(key);
+        if (summary == null) {
+            summary = new CustomerInvoiceSummary(key.getCustomerName(), key.getCustomerVIN(), columns);
+            groups.put(key, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Adds every invoice in a collection, see {@link #addRows}.
+     *
+     * @param invoices The invoices to add.
+     */
+    public void addAll(Collection<Invoice> invoices) {
+        addRows(columns.addAll(invoices));
+    }
+
+    /**
+     * Adds several rows. Consecutive rows of the same customer and vehicle, such as the panels
+     * of one {@link Quote}, share a single group lookup.
+     *
+     * @param rows The rows to add.
+     */
+    void addRows(IntList rows) {
+        CustomerInvoiceSummary summary = null;
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            // Compares dictionary codes, so no strings are touched
+            if (summary == null || !columns.sameCustomer(rows.get(i - 1), row)) {
+                summary = groupOf(row);
+            }
+            summary.addRow(row);
+        }
+    }
+
+    /**
+     * Combines the groups of a partial index into this one. A partial index is built over its
+     * own table, typically for one segment on a loader thread, and its table is then appended to
+     * this index's table; the combine step only has to look up each of its groups once rather
+     * than every row.
+     *
+     * @param partial The partial index.
+     * @param offset The row of this index's table that the partial table's first row became.
+     */
+    void merge(CustomerGroupIndex partial, int offset) {
+        for (Map.Entry<CustomerKey, CustomerInvoiceSummary> entry : partial.groups.entrySet()) {
+            CustomerInvoiceSummary summary = groups.get(entry.getKey());
+            if (summary == null) {
+                summary = new CustomerInvoiceSummary(entry.getKey().getCustomerName(), entry.getKey().getCustomerVIN(), columns);
+                groups.put(entry.getKey(), summary);
+            }
+            summary.merge(entry.getValue(), offset);
+        }
+    }
+
+    /**
+     * Removes an invoice from its group. A group left without invoices is dropped.
+     *
+     * @param invoice The invoice to remove.
+     * @return True if the invoice was found.
+     */
+    public boolean remove(Invoice invoice) {
+        CustomerKey key = CustomerKey.of(invoice);
+        CustomerInvoiceSummary summary = groups.get(key);
+        if (summary == null || !summary.removeInvoice(invoice)) {
+            return false;
+        }
+        if (summary.getInvoiceCount() == 0) {
+            groups.remove(key);
+        }
+        return true;
+    }
+
+    /**
+     * Removes one row from its group. A group left without invoices is dropped.
+     *
+     * @param row The row to remove.
+     * @return True if the row was found.
+     */
+    boolean removeRow(int row) {
+        CustomerKey key = new CustomerKey(columns.getCustomerName(row), columns.getCustomerVIN(row));
+        CustomerInvoiceSummary summary = groups.get(key);
+        if (summary == null || !summary.removeRow(row)) {
+            return false;
+        }
+        if (summary.getInvoiceCount() == 0) {
+            groups.remove(key);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces one row with a new version of the same invoice, created at the same time. It stays
+     * in place if the customer and vehicle are unchanged, and moves to its new group otherwise.
+     *
+     * @param row The row to replace.
+     * @param replacement The row of the new version.
+     * @return True if the row was found.
+     */
+    boolean replaceRow(int row, int replacement) {
+        if (!columns.sameCustomer(row, replacement)) {
+            if (!removeRow(row)) {
+                return false;
+            }
+            addRow(replacement);
+            return true;
+        }
+        CustomerInvoiceSummary summary = groups.get(new CustomerKey(columns.getCustomerName(row), columns.getCustomerVIN(row)));
+        return summary != null && summary.replaceRow(row, replacement);
+    }
+
+    /**
+     * Discards every group.
+     */
+    public void clear() {
+        groups.clear();
+    }
+
+    /**
+     * @param key A customer/vehicle key.
+     * @return The group for the key, or null if there are no invoices for it.
+     */
+    public CustomerInvoiceSummary get(CustomerKey key) {
+        return groups.get(key);
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    InvoiceColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return Every group, sorted by customer name and then VIN.
+     */
+    public List<CustomerInvoiceSummary> getGroups() {
+        return new ArrayList<>(groups.values());
+    }
+}
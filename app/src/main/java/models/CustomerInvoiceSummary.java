@@ -1,21 +1,28 @@
 package models;
 
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.AbstractList;
 import java.util.List;
 /**
  * A data model class representing a summary of all invoices for a single customer and vehicle.
- * It aggregates individual {@link Invoice} objects, calculates the total estimated cost,
+ * It aggregates individual {@link Invoice} objects, keeps running totals (priced amount in cents,
+ * invoice count, custom repair count, first and last date) as invoices are added or removed,
  * and groups them together for easy display and management (e.g., in a history view).
- * This class is serializable to allow its objects to be written to and read from a file.
+ * The invoices themselves are kept as rows of an {@link InvoiceColumns} table, shared with the
+ * rest of the history when the summary comes from a {@link CustomerGroupIndex}, and are only
+ * materialized when {@link #getInvoices()} is read. A removed invoice is only marked in the row
+ * list, so removal does not shift the rows after it; the marks are compacted away once they make
+ * up half of the list.
  */
-public class CustomerInvoiceSummary implements Serializable {
+public class CustomerInvoiceSummary {
+
     private String customerName;
     private String customerVIN;
-    private double totalCost;
-    private List<Invoice> invoices; // List of individual invoices for this customer/VIN
+    private long totalCents;
+    private int customRepairCount;
+    private final InvoiceColumns columns;
+    private final IntList rows; // Rows of the individual invoices for this customer/VIN, newest first; ~row once removed
+    private int removed; // Removed rows still marked in the list
+    private int version; // Counts changes; a copy keeps the version it was copied at
 
     /**
      * Constructs a new CustomerInvoiceSummary.
@@ -24,38 +31,241 @@ public class CustomerInvoiceSummary implements Serializable {
      * @param customerVIN The VIN (Vehicle Identification Number) of the customer's vehicle.
      */
     public CustomerInvoiceSummary(String customerName, String customerVIN) {
+        this(customerName, customerVIN, new InvoiceColumns(8));
+    }
+
+    /**
+     * Constructs a summary over rows of a shared table.
+     *
+     * @param customerName The name of the customer.
+     * @param customerVIN The VIN of the customer's vehicle.
+     * @param columns The table holding the invoices that will be added with {@link #addRow}.
+     */
+    CustomerInvoiceSummary(String customerName, String customerVIN, InvoiceColumns columns) {
         this.customerName = customerName;
         this.customerVIN = customerVIN;
-        this.totalCost = 0.0;
-        this.invoices = new ArrayList<>();
+        this.totalCents = 0;
+        this.customRepairCount = 0;
+        this.columns = columns;
+        this.rows = new IntList(4);
     }
 
     /**
-     * Adds an individual invoice to this summary. The method also updates the
-     * total cost by parsing the estimated cost from the invoice and adds it to the running total.
-     * Invoices are kept sorted by their creation timestamp in descending order (newest first).
+     * Adds an individual invoice to this summary. The method also updates the running totals:
+     * a priced amount in cents is added to the total and a custom repair quote is counted.
+     * The invoice is inserted at its place in creation timestamp order, newest first, found by
+     * binary search, so the list never has to be re-sorted.
      *
      * @param invoice The {@link Invoice} object to add.
      */
     public void addInvoice(Invoice invoice) {
-        this.invoices.add(invoice);
-        // Add to total cost, handling "CR" cases
-        if (invoice.getEstimatedCost() != null && !invoice.getEstimatedCost().equals("N/A") && !invoice.getEstimatedCost().startsWith("CR")) {
-            try {
-                // Remove '$' before parsing to double
-                totalCost += Double.parseDouble(invoice.getEstimatedCost().replace("$", ""));
-            } catch (NumberFormatException e) {
-                // Log or handle cases where cost isn't a valid number
-                // Log.e("CustomerInvoiceSummary", "Error parsing cost: " + invoice.getEstimatedCost() + " - " + e.getMessage());
+        addRow(columns.add(invoice));
+    }
+
+    /**
+     * Adds an invoice already stored in the summary's table, see {@link #addInvoice}.
+     *
+     * @param row The row of the invoice.
+     */
+    void addRow(int row) {
+        rows.add(insertionPoint(columns.getCreationTimestamp(row)), row);
+        version++;
+        totalCents += columns.getCostCents(row);
+        if (columns.getStatus(row) == QuoteResult.Status.CUSTOM_REPAIR) {
+            customRepairCount++;
+        }
+    }
+
+    /**
+     * Adds every invoice of a partial summary, built over a separate table whose rows have since
+     * been appended to this summary's table (see {@link InvoiceColumns#append}). Both row lists
+     * are already newest first, so they are merged in one pass and the partial totals are added
+     * without reading the amounts again.
+     *
+     * @param partial The summary to take the invoices of, for the same customer and vehicle.
+     * @param offset The row in this summary's table that the partial table's first row became.
+     */
+    void merge(CustomerInvoiceSummary partial, int offset) {
+        IntList merged = new IntList(rows.size() + partial.rows.size());
+        int i = 0;
+        int j = 0;
+        while (i < rows.size() && j < partial.rows.size()) {
+            // On equal timestamps the rows already here come first, as with addRow
+            if (timestampAt(i) >= columns.getCreationTimestamp(partial.rows.get(j) + offset)) {
+                merged.add(rows.get(i++));
+            } else {
+                merged.add(partial.rows.get(j++) + offset);
             }
         }
-        // Keep invoices sorted by date within the group (newest first)
-        Collections.sort(this.invoices, new Comparator<Invoice>() {
-            @Override
-            public int compare(Invoice o1, Invoice o2) {
-                return Long.compare(o2.getCreationTimestamp(), o1.getCreationTimestamp()); // Newest first
+        while (i < rows.size()) {
+            merged.add(rows.get(i++));
+        }
+        while (j < partial.rows.size()) {
+            merged.add(partial.rows.get(j++) + offset);
+        }
+        rows.clear();
+        rows.addAll(merged);
+        version++;
+        totalCents += partial.totalCents;
+        customRepairCount += partial.customRepairCount;
+    }
+
+    /**
+     * Copies this summary, or its newest invoices, onto a snapshot of its table taken with
+     * {@link InvoiceColumns#snapshot()}, which keeps the same row numbers.
+     *
+     * @param table The snapshot, or this summary's own table.
+     * @param since The earliest creation timestamp to keep; {@link Long#MIN_VALUE} for every invoice.
+     * @return A new summary; it is empty if no invoice was created since then.
+     */
+    CustomerInvoiceSummary copy(InvoiceColumns table, long since) {
+        CustomerInvoiceSummary copy = new CustomerInvoiceSummary(customerName, customerVIN, table);
+        copy.version = version;
+        int count = since == Long.MIN_VALUE ? rows.size() : insertionPoint(since);
+        if (count == rows.size() && removed == 0) {
+            copy.rows.addAll(rows);
+            copy.totalCents = totalCents;
+            copy.customRepairCount = customRepairCount;
+            return copy;
+        }
+        for (int i = 0; i < count; i++) {
+            int row = rows.get(i);
+            if (row < 0) {
+                continue;
+            }
+            copy.rows.add(row);
+            copy.totalCents += table.getCostCents(row);
+            if (table.getStatus(row) == QuoteResult.Status.CUSTOM_REPAIR) {
+                copy.customRepairCount++;
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return A number that changes whenever an invoice is added or removed, so a copy of this
+     *         summary is still current if it has the same one.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Removes an individual invoice from this summary and takes it out of the running totals.
+     *
+     * @param invoice The {@link Invoice} object to remove.
+     * @return True if the invoice was part of this summary.
+     */
+    public boolean removeInvoice(Invoice invoice) {
+        int index = indexOf(invoice.getCreationTimestamp(), invoice, -1);
+        return index >= 0 && removeAt(index);
+    }
+
+    /**
+     * Removes one row from this summary and takes it out of the running totals.
+     *
+     * @param row The row of the invoice.
+     * @return True if the row was part of this summary.
+     */
+    boolean removeRow(int row) {
+        int index = indexOf(columns.getCreationTimestamp(row), null, row);
+        return index >= 0 && removeAt(index);
+    }
+
+    /**
+     * Replaces one row with a new version of the same invoice, which must have the same creation
+     * timestamp, in place.
+     *
+     * @param row The row of the invoice.
+     * @param replacement The row of its new version.
+     * @return True if the row was part of this summary.
+     */
+    boolean replaceRow(int row, int replacement) {
+        int index = indexOf(columns.getCreationTimestamp(row), null, row);
+        if (index < 0) {
+            return false;
+        }
+        rows.set(index, replacement);
+        version++;
+        totalCents += columns.getCostCents(replacement) - columns.getCostCents(row);
+        customRepairCount += repairs(replacement) - repairs(row);
+        return true;
+    }
+
+    private int repairs(int row) {
+        return columns.getStatus(row) == QuoteResult.Status.CUSTOM_REPAIR ? 1 : 0;
+    }
+
+    // Only rows with the same timestamp need to be checked, found by binary search
+    private int indexOf(long timestamp, Invoice invoice, int row) {
+        for (int i = firstIndexAtOrBefore(timestamp); i < rows.size(); i++) {
+            int candidate = rows.get(i);
+            if (timestampAt(i) != timestamp) {
+                break;
+            }
+            if (candidate < 0) {
+                continue;
+            }
+            if (invoice != null ? columns.holds(candidate, invoice) : candidate == row) {
+                return i;
             }
-        });
+        }
+        return -1;
+    }
+
+    // Marks the row removed in O(1); the list is compacted once half of it is marks
+    private boolean removeAt(int index) {
+        int row = rows.get(index);
+        rows.set(index, ~row);
+        removed++;
+        version++;
+        totalCents -= columns.getCostCents(row);
+        customRepairCount -= repairs(row);
+        if (removed * 2 > rows.size()) {
+            compact();
+        }
+        return true;
+    }
+
+    private void compact() {
+        rows.removeNegatives();
+        removed = 0;
+    }
+
+    // Removed rows keep their timestamp, so the list stays searchable
+    private long timestampAt(int index) {
+        int row = rows.get(index);
+        return columns.getCreationTimestamp(row < 0 ? ~row : row);
+    }
+
+    // Index of the first invoice created at or before the timestamp
+    private int firstIndexAtOrBefore(long timestamp) {
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) > timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first invoice created strictly before the timestamp, i.e. how many are newer or as new
+    private int insertionPoint(long timestamp) {
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) >= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     // Getters
@@ -67,12 +277,67 @@ public class CustomerInvoiceSummary implements Serializable {
         return customerVIN;
     }
 
-    public double getTotalCost() {
-        return totalCost;
+    public CustomerKey getKey() {
+        return new CustomerKey(customerName, customerVIN);
+    }
+
+    public long getTotalCents() {
+        return totalCents;
     }
 
+    public int getInvoiceCount() {
+        return rows.size() - removed;
+    }
+
+    public int getCustomRepairCount() {
+        return customRepairCount;
+    }
+
+    /**
+     * @return The creation timestamp of the oldest invoice, or 0 if there are none.
+     */
+    public long getEarliestTimestamp() {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            if (rows.get(i) >= 0) {
+                return timestampAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The creation timestamp of the newest invoice, or 0 if there are none.
+     */
+    public long getLatestTimestamp() {
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i) >= 0) {
+                return timestampAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The invoices, newest first. The list is read-only; use {@link #addInvoice} and
+     *         {@link #removeInvoice} so the totals stay in step. Each element is materialized
+     *         from the table when it is read, so callers that only need the totals never build
+     *         the invoices at all.
+     */
     public List<Invoice> getInvoices() {
-        return invoices;
+        if (removed > 0) {
+            compact(); // Never the case for the copies handed out by a repository
+        }
+        return new AbstractList<Invoice>() {
+            @Override
+            public Invoice get(int index) {
+                return columns.get(rows.get(index));
+            }
+
+            @Override
+            public int size() {
+                return rows.size();
+            }
+        };
     }
 
     /**
@@ -0,0 +1,71 @@
+package models;
+
+/**
+ * Identifies one customer's vehicle: the pair of customer name and VIN that invoices are grouped
+ * by in the history. Unlike a concatenated "name_VIN" string, two different pairs can never map to
+ * the same key.
+ *
+ * Keys sort the way the history is displayed: by name ignoring case, then by VIN ignoring case.
+ * Pairs that differ only in letter case are still distinct keys and are ordered by their exact
+ * text, so the ordering stays consistent with {@link #equals}.
+ */
+public final class CustomerKey implements Comparable<CustomerKey> {
+
+    private final String customerName;
+    private final String customerVIN;
+
+    public CustomerKey(String customerName, String customerVIN) {
+        this.customerName = customerName != null ? customerName : "";
+        this.customerVIN = customerVIN != null ? customerVIN : "";
+    }
+
+    /**
+     * @param invoice An invoice.
+     * @return The key of the group the invoice belongs to.
+     */
+    public static CustomerKey of(Invoice invoice) {
+        return new CustomerKey(invoice.getCustomerName(), invoice.getCustomerVIN());
+    }
+
+    // Getters
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public String getCustomerVIN() {
+        return customerVIN;
+    }
+
+    @Override
+    public int compareTo(CustomerKey other) {
+        int result = customerName.compareToIgnoreCase(other.customerName);
+        if (result == 0) {
+            result = customerVIN.compareToIgnoreCase(other.customerVIN);
+        }
+        if (result == 0) {
+            result = customerName.compareTo(other.customerName);
+        }
+        if (result == 0) {
+            result = customerVIN.compareTo(other.customerVIN);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CustomerKey that = (CustomerKey) o;
+        return customerName.equals(that.customerName) && customerVIN.equals(that.customerVIN);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * customerName.hashCode() + customerVIN.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return customerName + " / " + customerVIN;
+    }
+}
@@ -0,0 +1,141 @@
+package models;
+
+/**
+ * The running totals of one customer's vehicle, without its invoices: priced amount in cents,
+ * invoice count, custom repair count and the creation timestamp of the newest invoice. These are
+ * the rows of the summary view the segment store keeps next to its manifest, see
+ * {@link InvoiceSummaryView}, and what the history screen shows before any invoice is read.
+ */
+public class CustomerTotals {
+
+    private final String customerName;
+    private final String customerVIN;
+    private long totalCents;
+    private int invoiceCount;
+    private int customRepairCount;
+    private long latestTimestamp;
+
+    /**
+     * Constructs empty totals.
+     *
+     * @param customerName The name of the customer.
+     * @param customerVIN The VIN of the customer's vehicle.
+     */
+    public CustomerTotals(String customerName, String customerVIN) {
+        this.customerName = customerName;
+        this.customerVIN = customerVIN;
+    }
+
+    /**
+     * @param summary A summary of invoices.
+     * @return The totals of the summary.
+     */
+    public static CustomerTotals of(CustomerInvoiceSummary summary) {
+        CustomerTotals totals = new CustomerTotals(summary.getCustomerName(), summary.getCustomerVIN());
+        totals.totalCents = summary.getTotalCents();
+        totals.invoiceCount = summary.getInvoiceCount();
+        totals.customRepairCount = summary.getCustomRepairCount();
+        totals.latestTimestamp = summary.getLatestTimestamp();
+        return totals;
+    }
+
+    /**
+     * Adds one invoice to the totals.
+     *
+     * @param invoice The invoice, which may carry only its header.
+     */
+    void add(Invoice invoice) {
+        totalCents += invoice.getCostCents();
+        invoiceCount++;
+        if (invoice.getQuote().getStatus() == QuoteResult.Status.CUSTOM_REPAIR) {
+            customRepairCount++;
+        }
+        if (invoiceCount == 1 || invoice.getCreationTimestamp() > latestTimestamp) {
+            latestTimestamp = invoice.getCreationTimestamp();
+        }
+    }
+
+    /**
+     * Takes one invoice out of the totals.
+     *
+     * @param invoice The invoice, as it was added.
+     * @return False if the invoice may have been the newest one, so the latest timestamp can
+     *         only be found again by recounting the invoices that are left.
+     */
+    boolean remove(Invoice invoice) {
+        totalCents -= invoice.getCostCents();
+        invoiceCount--;
+        if (invoice.getQuote().getStatus() == QuoteResult.Status.CUSTOM_REPAIR) {
+            customRepairCount--;
+        }
+        return invoiceCount == 0 || invoice.getCreationTimestamp() < latestTimestamp;
+    }
+
+    /**
+     * Adds another set of totals for the same customer and vehicle, e.g. of another segment.
+     *
+     * @param other The totals to add.
+     */
+    void add(CustomerTotals other) {
+        if (other.invoiceCount == 0) {
+            return;
+        }
+        if (invoiceCount == 0 || other.latestTimestamp > latestTimestamp) {
+            latestTimestamp = other.latestTimestamp;
+        }
+        totalCents += other.totalCents;
+        invoiceCount += other.invoiceCount;
+        customRepairCount += other.customRepairCount;
+    }
+
+    /**
+     * Restores totals saved by the summary view.
+     */
+    static CustomerTotals restore(String customerName, String customerVIN, long totalCents, int invoiceCount,
+                                  int customRepairCount, long latestTimestamp) {
+        CustomerTotals totals = new CustomerTotals(customerName, customerVIN);
+        totals.totalCents = totalCents;
+        totals.invoiceCount = invoiceCount;
+        totals.customRepairCount = customRepairCount;
+        totals.latestTimestamp = latestTimestamp;
+        return totals;
+    }
+
+    // Getters
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public String getCustomerVIN() {
+        return customerVIN;
+    }
+
+    public CustomerKey getKey() {
+        return new CustomerKey(customerName, customerVIN);
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    public int getInvoiceCount() {
+        return invoiceCount;
+    }
+
+    public int getCustomRepairCount() {
+        return customRepairCount;
+    }
+
+    /**
+     * @return The creation timestamp of the newest invoice, or 0 if there are none.
+     */
+    public long getLatestTimestamp() {
+        return invoiceCount == 0 ? 0 : latestTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerTotals{" + customerName + " / " + customerVIN + ", cents=" + totalCents
+                + ", invoices=" + invoiceCount + '}';
+    }
+}
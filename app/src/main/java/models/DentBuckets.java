@@ -0,0 +1,93 @@
+package models;
+
+/**
+ * Maps a dent count to the dent-range row of the rate card. The ranges are declared once as a
+ * list of inclusive upper bounds (the first range starts at 1 dent), and are compiled into a dense
+ * lookup table so that any count resolves to its bucket index in O(1) without building a String key.
+ *
+ * Instances are immutable, so a rate card can define its own boundaries and share them across threads.
+ */
+public final class DentBuckets {
+
+    /** The largest dent count a bucket definition may cover, which bounds the lookup table size. */
+    public static final int MAX_SUPPORTED_DENTS = 10_000;
+
+    /** The standard ranges: 1-5, 6-15, 16-30, 31-50, 51-75, 76-100, 101-150, 151-200, 201-300. */
+    public static final DentBuckets STANDARD = new DentBuckets(new int[]{5, 15, 30, 50, 75, 100, 150, 200, 300});
+
+    private final int[] upperBounds;
+    private final byte[] bucketByCount; // index is the dent count, value is the bucket index
+
+    /**
+     * Compiles a bucket definition into its lookup table.
+     *
+     * @param upperBounds The inclusive upper bound of each bucket, strictly ascending.
+     * @throws IllegalArgumentException If the bounds are empty, not ascending, or out of the supported range.
+     */
+    public DentBuckets(int[] upperBounds) {
+        if (upperBounds == null || upperBounds.length == 0 || upperBounds.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Dent buckets must define between 1 and " + Byte.MAX_VALUE + " ranges.");
+        }
+        int previous = 0;
+        for (int bound : upperBounds) {
+            if (bound <= previous) {
+                throw new IllegalArgumentException("Dent bucket bounds must be positive and strictly ascending: " + bound);
+            }
+            previous = bound;
+        }
+        if (previous > MAX_SUPPORTED_DENTS) {
+            throw new IllegalArgumentException("Dent buckets may not exceed " + MAX_SUPPORTED_DENTS + " dents.");
+        }
+
+        this.upperBounds = upperBounds.clone();
+        this.bucketByCount = new byte[previous + 1];
+        bucketByCount[0] = -1;
+        int count = 1;
+        for (int bucket = 0; bucket < upperBounds.length; bucket++) {
+            for (; count <= upperBounds[bucket]; count++) {
+                bucketByCount[count] = (byte) bucket;
+            }
+        }
+    }
+
+    /**
+     * @param numberOfDents The number of dents on a panel.
+     * @return The bucket index for the count, or -1 if it is outside every bucket.
+     */
+    public int indexOf(int numberOfDents) {
+        if (numberOfDents < 1 || numberOfDents >= bucketByCount.length) {
+            return -1;
+        }
+        return bucketByCount[numberOfDents];
+    }
+
+    /**
+     * @return The number of buckets, which is the number of dent-range rows in a rate card.
+     */
+    public int size() {
+        return upperBounds.length;
+    }
+
+    /**
+     * @return The largest dent count covered by the buckets.
+     */
+    public int getMaxDents() {
+        return upperBounds[upperBounds.length - 1];
+    }
+
+    /**
+     * @param bucket A bucket index.
+     * @return A readable label for the bucket (e.g., "16-30").
+     */
+    public String label(int bucket) {
+        int lower = bucket == 0 ? 1 : upperBounds[bucket - 1] + 1;
+        return lower + "-" + upperBounds[bucket];
+    }
+
+    /**
+     * @return A copy of the inclusive upper bounds this instance was built from.
+     */
+    public int[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+}
@@ -0,0 +1,28 @@
+package models;
+
+/**
+ * The largest-dent size categories used on the rate card: Dime, Nickel, Quarter and Half-dollar.
+ * The ordinal of each constant is used as a column index into the compiled price matrix
+ * in {@link Calculator}.
+ */
+public enum DentSize {
+    D, N, Q, H;
+
+    private static final DentSize[] VALUES = values();
+
+    /**
+     * Resolves a dent size code (e.g., "d", "Q") to its enum constant without allocating.
+     *
+     * @param code The dent size code, compared case-insensitively.
+     * @return The matching {@link DentSize}, or null if the code is null or unknown.
+     */
+    public static DentSize fromCode(String code) {
+        if (code == null) return null;
+        for (DentSize size : VALUES) {
+            if (size.name().equalsIgnoreCase(code)) {
+                return size;
+            }
+        }
+        return null;
+    }
+}
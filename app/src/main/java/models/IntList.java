@@ -0,0 +1,120 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, used to hold row numbers of an {@link InvoiceColumns}
+ * table without boxing each one.
+ *
+ * This class is not thread-safe.
+ */
+final class IntList {
+
+    private int[] values;
+    private int size;
+
+    IntList() {
+        this(8);
+    }
+
+    IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return values[index];
+    }
+
+    void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        values[index] = value;
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    void add(int index, int value) {
+        if (index > size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+
+    void addAll(IntList other) {
+        if (size + other.size > values.length) {
+            values = Arrays.copyOf(values, Math.max(size + other.size, values.length * 2));
+        }
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Sets the value at an index, first growing the list with -1 up to it. Used for lists indexed
+     * by row number, where not every row has a value.
+     *
+     * @param index The index to set.
+     * @param value The value.
+     */
+    void put(int index, int value) {
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, Math.max(index + 1, values.length * 2));
+        }
+        if (index >= size) {
+            Arrays.fill(values, size, index, -1);
+            size = index + 1;
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Removes the value at an index in O(1) by moving the last value into its place, so the
+     * order of the list is not kept.
+     *
+     * @param index The index of the value to remove.
+     */
+    void swapRemove(int index) {
+        get(index);
+        values[index] = values[--size];
+    }
+
+    /**
+     * Drops every negative value, keeping the order of the rest. Lists that must stay in order
+     * mark a removed row as its complement (~row) rather than shifting every later value, and
+     * compact the marks away with this once they make up a good part of the list.
+     */
+    void removeNegatives() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (values[i] >= 0) {
+                values[kept++] = values[i];
+            }
+        }
+        size = kept;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -1,9 +1,14 @@
 package models;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Objects;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -20,8 +25,9 @@ public class Invoice implements Serializable {
     private String largestDentSize;
     private int numberOfDents;
     private boolean isAluminum;
-    private String estimatedCost;
+    private QuoteResult quote;
     private long creationTimestamp; // Add this field
+    private long id; // 0 until the invoice is saved
 
     /**
      * Constructs a new Invoice with all the necessary details.
@@ -33,23 +39,23 @@ public class Invoice implements Serializable {
      * @param largestDentSize The largest dent size category (e.g., "D", "N").
      * @param numberOfDents The total number of dents on the panel.
      * @param isAluminum True if the panel is aluminum, false otherwise.
-     * @param estimatedCost The estimated cost as a formatted string (e.g., "$125.00").
+     * @param quote The priced result for this panel, as returned by the {@link Calculator}.
      */
-    public Invoice(String customerName, String customerVIN, String panelType, String largestDentSize, int numberOfDents, boolean isAluminum, String estimatedCost) {
+    public Invoice(String customerName, String customerVIN, String panelType, String largestDentSize, int numberOfDents, boolean isAluminum, QuoteResult quote) {
         this.customerName = customerName;
         this.customerVIN = customerVIN;
         this.panelType = panelType;
         this.largestDentSize = largestDentSize;
         this.numberOfDents = numberOfDents;
         this.isAluminum = isAluminum;
-        this.estimatedCost = estimatedCost;
+        this.quote = quote;
         this.creationTimestamp = System.currentTimeMillis(); // Initialize timestamp
     }
 
     /**
      * Constructs an Invoice object from a JSON object. This is typically used when
-     * loading saved invoices from a file. It includes a check for backward compatibility
-     * in case the 'creationTimestamp' field was not present in older saved files
+     * loading saved invoices from a file. It includes checks for backward compatibility
+     * in case the 'creationTimestamp' or typed cost fields were not present in older saved files
      *
      * @param jsonObject The {@link JSONObject} to deserialize.
      * @throws JSONException If the JSON object is malformed or a required key is missing
@@ -61,8 +67,134 @@ public class Invoice implements Serializable {
         this.largestDentSize = jsonObject.getString("largestDentSize");
         this.numberOfDents = jsonObject.getInt("numberOfDents");
         this.isAluminum = jsonObject.getBoolean("isAluminum");
-        this.estimatedCost = jsonObject.getString("estimatedCost");
+        this.quote = toQuote(
+                jsonObject.optString("costStatus", null),
+                jsonObject.optLong("costCents", 0),
+                jsonObject.optString("costReason", null),
+                jsonObject.optString("rateCardVersion", null),
+                jsonObject.optString("estimatedCost", null));
         this.creationTimestamp = jsonObject.optLong("creationTimestamp", System.currentTimeMillis()); // Use optLong for backward compatibility
+        this.id = jsonObject.optLong("id", 0); // Files written before invoice IDs have none
+    }
+
+    Invoice(String customerName, String customerVIN, String panelType, String largestDentSize, int numberOfDents, boolean isAluminum, QuoteResult quote, long creationTimestamp) {
+        this(customerName, customerVIN, panelType, largestDentSize, numberOfDents, isAluminum, quote);
+        this.creationTimestamp = creationTimestamp;
+    }
+
+    /**
+     * Returns a copy of this invoice that takes over the identity of a saved one, so it can
+     * replace that invoice in the history.
+     *
+     * @param id The ID of the saved invoice.
+     * @param creationTimestamp The creation timestamp of the saved invoice.
+     * @return The copy.
+     */
+    Invoice withIdentity(long id, long creationTimestamp) {
+        Invoice copy = new Invoice(customerName, customerVIN, panelType, largestDentSize, numberOfDents, isAluminum, quote, creationTimestamp);
+        copy.id = id;
+        return copy;
+    }
+
+    /**
+     * Reads one invoice object from a streaming {@link JsonReader}, without building a
+     * {@link JSONObject} first. Unknown fields are skipped. Fields with an unexpected type are
+     * skipped too, so the reader is always left just after the object and the caller can move
+     * on to the next record.
+     *
+     * @param reader A reader positioned at the start of an invoice object.
+     * @return The invoice.
+     * @throws IOException If the underlying JSON is syntactically broken.
+     * @throws JSONException If the object is missing a required field.
+     */
+    public static Invoice read(JsonReader reader) throws IOException, JSONException {
+        return read(reader, true);
+    }
+
+    /**
+     * Reads one invoice object, optionally skipping the panel details.
+     *
+     * @param reader A reader positioned at the start of an invoice object.
+     * @param details False to skip the panel details (see {@link #isDetailField}) without decoding
+     *                them; the invoice then has a null panel type and dent size.
+     * @return The invoice.
+     * @throws IOException If the underlying JSON is syntactically broken.
+     * @throws JSONException If the object is missing a required field.
+     */
+    static Invoice read(JsonReader reader, boolean details) throws IOException, JSONException {
+        String customerName = null;
+        String customerVIN = null;
+        String panelType = null;
+        String largestDentSize = null;
+        Integer numberOfDents = null;
+        Boolean isAluminum = null;
+        String costStatus = null;
+        long costCents = 0;
+        String costReason = null;
+        String rateCardVersion = null;
+        String estimatedCost = null;
+        long creationTimestamp = System.currentTimeMillis(); // Older files may not have a timestamp
+        long id = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL || (!details && isDetailField(name))) {
+                reader.skipValue();
+                continue;
+            }
+            try {
+                switch (name) {
+                    case "customerName": customerName = reader.nextString(); break;
+                    case "customerVIN": customerVIN = reader.nextString(); break;
+                    case "panelType": panelType = reader.nextString(); break;
+                    case "largestDentSize": largestDentSize = reader.nextString(); break;
+                    case "numberOfDents": numberOfDents = reader.nextInt(); break;
+                    case "isAluminum": isAluminum = reader.nextBoolean(); break;
+                    case "costStatus": costStatus = reader.nextString(); break;
+                    case "costCents": costCents = reader.nextLong(); break;
+                    case "costReason": costReason = reader.nextString(); break;
+                    case "rateCardVersion": rateCardVersion = reader.nextString(); break;
+                    case "estimatedCost": estimatedCost = reader.nextString(); break;
+                    case "creationTimestamp": creationTimestamp = reader.nextLong(); break;
+                    case "id": id = reader.nextLong(); break;
+                    default: reader.skipValue(); break;
+                }
+            } catch (IllegalStateException | NumberFormatException e) {
+                reader.skipValue(); // Wrong type: the value was not consumed, so step over it
+            }
+        }
+        reader.endObject();
+
+        if (customerName == null || customerVIN == null || (details && (panelType == null || largestDentSize == null
+                || numberOfDents == null || isAluminum == null))) {
+            throw new JSONException("Invoice record is missing required fields");
+        }
+        QuoteResult quote = toQuote(costStatus, costCents, costReason, rateCardVersion, estimatedCost);
+        Invoice invoice = new Invoice(customerName, customerVIN, panelType, largestDentSize,
+                numberOfDents != null ? numberOfDents : 0, isAluminum != null && isAluminum, quote, creationTimestamp);
+        invoice.id = id;
+        return invoice;
+    }
+
+    /**
+     * @param field A field name of an invoice or quote panel record.
+     * @return True for the fields only shown in a panel's detail row, which a header-only read
+     *         skips: panel type, dent size and count, material, rate card version and the reason
+     *         of an invalid quote.
+     */
+    static boolean isDetailField(String field) {
+        switch (field) {
+            case "panelType":
+            case "largestDentSize":
+            case "numberOfDents":
+            case "isAluminum":
+            case "costReason":
+            case "rateCardVersion":
+                return true;
+            default:
+                return false;
+        }
     }
 
     // Getters for all fields
@@ -72,8 +204,15 @@ public class Invoice implements Serializable {
     public String getLargestDentSize() { return largestDentSize; }
     public int getNumberOfDents() { return numberOfDents; }
     public boolean isAluminum() { return isAluminum; }
-    public String getEstimatedCost() { return estimatedCost; }
+    public QuoteResult getQuote() { return quote; }
+    public long getCostCents() { return quote.isPriced() ? quote.getAmountCents() : 0; }
     public long getCreationTimestamp() { return creationTimestamp; } // New getter for timestamp
+    public String getRateCardVersion() { return quote.getRateCardVersion(); } // Null for invoices saved before versioned rate cards
+    public long getId() { return id; } // Unique and never reused; 0 until saved
+
+    void setId(long id) {
+        this.id = id;
+    }
 
     /**
      * Returns the creation timestamp formatted as a readable date and time string.
@@ -82,8 +221,27 @@ public class Invoice implements Serializable {
      * @return A formatted string of the creation date and time.
      */
     public String getFormattedDate() {
+        return formatDate(creationTimestamp);
+    }
+
+    /**
+     * Formats a timestamp the same way as {@link #getFormattedDate()}.
+     *
+     * @param timestamp Milliseconds since the epoch.
+     * @return The formatted date string.
+     */
+    public static String formatDate(long timestamp) {
         SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
-        return sdf.format(new Date(creationTimestamp));
+        return sdf.format(new Date(timestamp));
+    }
+
+    /**
+     * Returns the estimated cost formatted for display (e.g., "$125.00" or "CR: Custom Repair Needed").
+     *
+     * @return The estimated cost as a display string.
+     */
+    public String getEstimatedCost() {
+        return quote.toDisplayString();
     }
 
     /**
@@ -93,7 +251,35 @@ public class Invoice implements Serializable {
      * @return The estimated cost as a string.
      */
     public String getCalculatedCost() {
-        return estimatedCost;
+        return getEstimatedCost();
+    }
+
+    /**
+     * Rebuilds the stored {@link QuoteResult} from the saved cost fields. Files written before
+     * typed costs existed only have the formatted "estimatedCost" string, which is parsed instead.
+     *
+     * @return The stored {@link QuoteResult}.
+     * @throws JSONException If neither the typed fields nor the legacy cost are present, or the status is unknown.
+     */
+    static QuoteResult toQuote(String status, long cents, String reason, String version, String legacyCost) throws JSONException {
+        if (status == null) {
+            if (legacyCost == null) {
+                throw new JSONException("Invoice record has no cost");
+            }
+            return QuoteResult.fromLegacyString(legacyCost); // Older files only stored the formatted cost
+        }
+        try {
+            switch (QuoteResult.Status.valueOf(status)) {
+                case PRICED:
+                    return QuoteResult.priced(cents, version);
+                case CUSTOM_REPAIR:
+                    return QuoteResult.customRepair(version);
+                default:
+                    return QuoteResult.invalid(reason != null ? reason : "Invalid input.");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Unknown cost status: " + status);
+        }
     }
 
 
@@ -111,11 +297,50 @@ public class Invoice implements Serializable {
         jsonObject.put("largestDentSize", largestDentSize);
         jsonObject.put("numberOfDents", numberOfDents);
         jsonObject.put("isAluminum", isAluminum);
-        jsonObject.put("estimatedCost", estimatedCost);
+        jsonObject.put("costStatus", quote.getStatus().name());
+        jsonObject.put("costCents", quote.getAmountCents());
+        if (quote.getReason() != null) {
+            jsonObject.put("costReason", quote.getReason());
+        }
+        if (quote.getRateCardVersion() != null) {
+            jsonObject.put("rateCardVersion", quote.getRateCardVersion());
+        }
+        jsonObject.put("estimatedCost", quote.toLegacyString()); // Kept so older app versions can still read the file
         jsonObject.put("creationTimestamp", creationTimestamp); // Save timestamp
+        if (id != 0) {
+            jsonObject.put("id", id);
+        }
         return jsonObject;
     }
 
+    /**
+     * Two invoices are equal if they have the same ID, creation timestamp and content, so an
+     * invoice materialized again from {@link InvoiceColumns} equals the one that was stored.
+     *
+     * @param o The object to compare with.
+     * @return true if the objects are equal, false otherwise.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Invoice that = (Invoice) o;
+        return id == that.id &&
+                creationTimestamp == that.creationTimestamp &&
+                numberOfDents == that.numberOfDents &&
+                isAluminum == that.isAluminum &&
+                Objects.equals(customerName, that.customerName) &&
+                Objects.equals(customerVIN, that.customerVIN) &&
+                Objects.equals(panelType, that.panelType) &&
+                Objects.equals(largestDentSize, that.largestDentSize) &&
+                Objects.equals(quote, that.quote);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, creationTimestamp, customerVIN, panelType);
+    }
+
     /**
      * Provides a string representation of the Invoice object for debugging purposes.
      *
@@ -130,8 +355,9 @@ public class Invoice implements Serializable {
                 ", largestDentSize='" + largestDentSize + '\'' +
                 ", numberOfDents=" + numberOfDents +
                 ", isAluminum=" + isAluminum +
-                ", estimatedCost='" + estimatedCost + '\'' +
+                ", quote=" + quote +
                 ", creationTimestamp=" + creationTimestamp +
+                ", id=" + id +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,533 @@
+package models;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The invoice history held in memory column by column instead of as one {@link Invoice} object
+ * per panel. IDs, timestamps, amounts and dent counts live in primitive arrays, the aluminum flag
+ * in a {@link BitSet}, and every string (customer name, VIN, panel type, dent size, rate card
+ * version, invalid reason) is stored once in a dictionary and referenced by an int code, so a
+ * customer's name costs four bytes per panel rather than a string copy.
+ *
+ * Each added invoice gets a row number. Rows are append-only and their content never changes,
+ * so an {@link Invoice} materialized from a row with {@link #get(int)} stays valid for as long as
+ * the caller keeps it; a row that is no longer referenced is simply left behind until the table
+ * is replaced. Aggregates such as totals and time ranges read the primitive columns directly,
+ * without materializing invoices.
+ *
+ * A row can also be stored from a header-only record (customer, VIN, amount, status, timestamp
+ * and ID), which is all the grouped history needs. Its panel details are filled in through the
+ * table's {@link DetailSource} the first time the row is materialized or its material is read;
+ * until then the detail columns are empty.
+ *
+ * {@link #snapshot()} takes a read-only copy of the table that shares its columns, which is
+ * possible because rows are only ever appended: the snapshot reads rows below its own size, and
+ * the live table only writes above that size or into new arrays once it grows. The one exception
+ * is filling in a header-only row, so a snapshot keeps the details it reads for such rows to the
+ * side instead of in the shared columns.
+ *
+ * This class is not thread-safe; {@link InvoiceRepository} guards it with its own lock. A
+ * snapshot can be read from any number of threads without locking.
+ */
+public final class InvoiceColumns {
+
+    private static final QuoteResult.Status[] STATUSES = QuoteResult.Status.values();
+    private static final int NONE = -1; // Dictionary code of a null string
+
+    private final Dictionary strings;
+    private int size;
+    private long[] ids;
+    private long[] timestamps;
+    private long[] cents;
+    private int[] dentCounts;
+    private byte[] statuses;
+    private final BitSet aluminum;
+    private final BitSet headerOnly; // Rows whose panel details are not filled in yet
+    private int[] names;
+    private int[] vins;
+    private int[] panels;
+    private int[] dentSizes;
+    private int[] versions;
+    private int[] reasons;
+    private DetailSource detailSource;
+    private final Map<Integer, Invoice> snapshotDetails; // Snapshots only: details read since, guarded by itself
+
+    /**
+     * Reads the panel details of rows stored from header-only records.
+     */
+    interface DetailSource {
+
+        /**
+         * Fills in the details of a header-only row with {@link #fill}, and those of any other
+         * header-only rows that can be read at the same time. Leaving the row as it is means the
+         * details could not be read.
+         *
+         * @param columns The table holding the row.
+         * @param row The row about to be materialized.
+         */
+        void fillDetails(InvoiceColumns columns, int row);
+    }
+
+    public InvoiceColumns() {
+        this(64);
+    }
+
+    /**
+     * @param capacity How many rows to allocate room for before growing.
+     */
+    public InvoiceColumns(int capacity) {
+        strings = new Dictionary();
+        aluminum = new BitSet();
+        headerOnly = new BitSet();
+        snapshotDetails = null;
+        allocate(Math.max(capacity, 1));
+    }
+
+    // Shares the columns of a live table as they are now, see snapshot()
+    private InvoiceColumns(InvoiceColumns live) {
+        strings = new Dictionary(live.strings);
+        size = live.size;
+        ids = live.ids;
+        timestamps = live.timestamps;
+        cents = live.cents;
+        dentCounts = live.dentCounts;
+        statuses = live.statuses;
+        aluminum = (BitSet) live.aluminum.clone();
+        headerOnly = (BitSet) live.headerOnly.clone();
+        names = live.names;
+        vins = live.vins;
+        panels = live.panels;
+        dentSizes = live.dentSizes;
+        versions = live.versions;
+        reasons = live.reasons;
+        detailSource = live.detailSource;
+        snapshotDetails = new HashMap<>();
+    }
+
+    private void allocate(int capacity) {
+        ids = grow(ids, capacity);
+        timestamps = grow(timestamps, capacity);
+        cents = grow(cents, capacity);
+        dentCounts = grow(dentCounts, capacity);
+        statuses = statuses == null ? new byte[capacity] : Arrays.copyOf(statuses, capacity);
+        names = grow(names, capacity);
+        vins = grow(vins, capacity);
+        panels = grow(panels, capacity);
+        dentSizes = grow(dentSizes, capacity);
+        versions = grow(versions, capacity);
+        reasons = grow(reasons, capacity);
+    }
+
+    private static long[] grow(long[] column, int capacity) {
+        return column == null ? new long[capacity] : Arrays.copyOf(column, capacity);
+    }
+
+    private static int[] grow(int[] column, int capacity) {
+        return column == null ? new int[capacity] : Arrays.copyOf(column, capacity);
+    }
+
+    /**
+     * @param source Where the details of header-only rows are read from.
+     */
+    void setDetailSource(DetailSource source) {
+        detailSource = source;
+    }
+
+    /**
+     * Takes a read-only snapshot of the table: the rows written so far, which keep their row
+     * numbers. It costs a copy of the aluminum and header-only flags, one bit per row, and of
+     * nothing else, and stays valid however this table changes afterwards. Header-only rows are
+     * still filled in through the detail source, which is given the snapshot.
+     *
+     * @return The snapshot. Adding rows to it throws {@link IllegalStateException}.
+     */
+    InvoiceColumns snapshot() {
+        return new InvoiceColumns(this);
+    }
+
+    /**
+     * @return The number of rows written, including rows no longer referenced.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends one invoice as a new row.
+     *
+     * @param invoice The invoice to store.
+     * @return The row number.
+     */
+    public int add(Invoice invoice) {
+        return add(invoice, true);
+    }
+
+    private int add(Invoice invoice, boolean details) {
+        checkWritable();
+        if (size == ids.length) {
+            allocate(size * 2);
+        }
+        int row = size++;
+        ids[row] = invoice.getId();
+        timestamps[row] = invoice.getCreationTimestamp();
+        cents[row] = invoice.getCostCents();
+        statuses[row] = (byte) invoice.getQuote().getStatus().ordinal();
+        names[row] = strings.encode(invoice.getCustomerName());
+        vins[row] = strings.encode(invoice.getCustomerVIN());
+        if (details) {
+            fill(row, invoice);
+        } else {
+            panels[row] = NONE;
+            dentSizes[row] = NONE;
+            versions[row] = NONE;
+            reasons[row] = NONE;
+            headerOnly.set(row);
+        }
+        return row;
+    }
+
+    /**
+     * Appends several invoices, in order.
+     *
+     * @param invoices The invoices to store.
+     * @return Their row numbers, in the same order.
+     */
+    IntList addAll(Collection<Invoice> invoices) {
+        return addAll(invoices, true);
+    }
+
+    /**
+     * Appends several invoices, in order.
+     *
+     * @param invoices The invoices to store.
+     * @param details False if the invoices were read without their panel details; their rows are
+     *                then marked header-only and filled in on first use.
+     * @return Their row numbers, in the same order.
+     */
+    IntList addAll(Collection<Invoice> invoices, boolean details) {
+        checkWritable();
+        if (size + invoices.size() > ids.length) {
+            allocate(Math.max(size + invoices.size(), size * 2));
+        }
+        IntList rows = new IntList(invoices.size());
+        for (Invoice invoice : invoices) {
+            rows.add(add(invoice, details));
+        }
+        return rows;
+    }
+
+    /**
+     * Fills in the panel details of a row from the full invoice it was stored from.
+     *
+     * @param row A row number.
+     * @param invoice The same invoice, read with its details.
+     */
+    void fill(int row, Invoice invoice) {
+        if (snapshotDetails != null) {
+            synchronized (snapshotDetails) {
+                snapshotDetails.put(row, invoice);
+            }
+            return;
+        }
+        QuoteResult quote = invoice.getQuote();
+        dentCounts[row] = invoice.getNumberOfDents();
+        aluminum.set(row, invoice.isAluminum());
+        panels[row] = strings.encode(invoice.getPanelType());
+        dentSizes[row] = strings.encode(invoice.getLargestDentSize());
+        versions[row] = strings.encode(quote.getRateCardVersion());
+        reasons[row] = quote.getStatus() == QuoteResult.Status.INVALID ? strings.encode(quote.getReason()) : NONE;
+        headerOnly.clear(row);
+    }
+
+    /**
+     * @param row A row number.
+     * @return False if the row was stored from a header-only record and has not been filled in.
+     */
+    boolean hasDetails(int row) {
+        checkRow(row);
+        if (!headerOnly.get(row) || snapshotDetails == null) {
+            return !headerOnly.get(row);
+        }
+        synchronized (snapshotDetails) {
+            return snapshotDetails.containsKey(row);
+        }
+    }
+
+    // Fills in a header-only row through the detail source. A snapshot returns the details it
+    // keeps to the side; the live table fills its columns and returns null.
+    private Invoice ensureDetails(int row) {
+        if (!headerOnly.get(row) || detailSource == null) {
+            return null;
+        }
+        if (snapshotDetails == null) {
+            detailSource.fillDetails(this, row);
+            return null;
+        }
+        // Held while reading, so concurrent readers of the same row read its record once
+        synchronized (snapshotDetails) {
+            if (!snapshotDetails.containsKey(row)) {
+                detailSource.fillDetails(this, row);
+            }
+            return snapshotDetails.get(row);
+        }
+    }
+
+    private void checkWritable() {
+        if (snapshotDetails != null) {
+            throw new IllegalStateException("A snapshot of the invoice table is read-only");
+        }
+    }
+
+    /**
+     * Appends every row of another table, in order. The primitive columns are copied in bulk and
+     * each of the other table's strings is looked up in this dictionary once, so tables built
+     * on separate threads can be combined cheaply.
+     *
+     * @param other The table to copy.
+     * @return The row number the other table's first row became; its row r is now row offset + r.
+     */
+    int append(InvoiceColumns other) {
+        checkWritable();
+        int offset = size;
+        int count = other.size;
+        if (size + count > ids.length) {
+            allocate(Math.max(size + count, size * 2));
+        }
+        int[] codes = new int[other.strings.count];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = strings.encode(other.strings.values[code]);
+        }
+        System.arraycopy(other.ids, 0, ids, offset, count);
+        System.arraycopy(other.timestamps, 0, timestamps, offset, count);
+        System.arraycopy(other.cents, 0, cents, offset, count);
+        System.arraycopy(other.dentCounts, 0, dentCounts, offset, count);
+        System.arraycopy(other.statuses, 0, statuses, offset, count);
+        for (int row = other.aluminum.nextSetBit(0); row >= 0 && row < count; row = other.aluminum.nextSetBit(row + 1)) {
+            aluminum.set(offset + row);
+        }
+        for (int row = other.headerOnly.nextSetBit(0); row >= 0 && row < count; row = other.headerOnly.nextSetBit(row + 1)) {
+            headerOnly.set(offset + row);
+        }
+        recode(other.names, names, codes, offset, count);
+        recode(other.vins, vins, codes, offset, count);
+        recode(other.panels, panels, codes, offset, count);
+        recode(other.dentSizes, dentSizes, codes, offset, count);
+        recode(other.versions, versions, codes, offset, count);
+        recode(other.reasons, reasons, codes, offset, count);
+        size += count;
+        return offset;
+    }
+
+    private static void recode(int[] from, int[] to, int[] codes, int offset, int count) {
+        for (int row = 0; row < count; row++) {
+            to[offset + row] = from[row] == NONE ? NONE : codes[from[row]];
+        }
+    }
+
+    /**
+     * Materializes one row as an {@link Invoice}. Each call returns a new object; its strings are
+     * shared with the dictionary. A header-only row has its details filled in first.
+     *
+     * @param row A row number returned by {@link #add}.
+     * @return The invoice stored in the row.
+     */
+    public Invoice get(int row) {
+        checkRow(row);
+        Invoice details = ensureDetails(row);
+        if (details != null) {
+            // Read by a snapshot and kept to the side; the header still comes from the columns
+            return materialize(row, details.getPanelType(), details.getLargestDentSize(), details.getNumberOfDents(),
+                    details.isAluminum(), details.getQuote().getRateCardVersion(), details.getQuote().getReason());
+        }
+        if (headerOnly.get(row)) {
+            // The details could not be read. A snapshot must not read the detail columns of such
+            // a row, which the live table may be filling in, so they are left empty either way.
+            return materialize(row, null, null, 0, false, null, null);
+        }
+        return materialize(row, strings.decode(panels[row]), strings.decode(dentSizes[row]), dentCounts[row],
+                aluminum.get(row), strings.decode(versions[row]), strings.decode(reasons[row]));
+    }
+
+    private Invoice materialize(int row, String panel, String dentSize, int dentCount, boolean isAluminum,
+                                String version, String reason) {
+        QuoteResult quote;
+        switch (STATUSES[statuses[row]]) {
+            case PRICED:
+                quote = QuoteResult.priced(cents[row], version);
+                break;
+            case CUSTOM_REPAIR:
+                quote = QuoteResult.customRepair(version);
+                break;
+            default:
+                quote = QuoteResult.invalid(reason);
+                break;
+        }
+        Invoice invoice = new Invoice(strings.decode(names[row]), strings.decode(vins[row]), panel, dentSize,
+                dentCount, isAluminum, quote, timestamps[row]);
+        invoice.setId(ids[row]);
+        return invoice;
+    }
+
+    // Column accessors, for scans that do not need a whole invoice
+    public long getId(int row) {
+        checkRow(row);
+        return ids[row];
+    }
+
+    public long getCreationTimestamp(int row) {
+        checkRow(row);
+        return timestamps[row];
+    }
+
+    /**
+     * @param row A row number.
+     * @return The priced amount in cents, or 0 for a custom repair or invalid quote.
+     */
+    public long getCostCents(int row) {
+        checkRow(row);
+        return cents[row];
+    }
+
+    public QuoteResult.Status getStatus(int row) {
+        checkRow(row);
+        return STATUSES[statuses[row]];
+    }
+
+    public boolean isAluminum(int row) {
+        checkRow(row);
+        Invoice details = ensureDetails(row);
+        return details != null ? details.isAluminum() : aluminum.get(row);
+    }
+
+    public String getCustomerName(int row) {
+        checkRow(row);
+        return strings.decode(names[row]);
+    }
+
+    public String getCustomerVIN(int row) {
+        checkRow(row);
+        return strings.decode(vins[row]);
+    }
+
+    /**
+     * @return True if both rows belong to the same customer and vehicle. This compares
+     *         dictionary codes, not strings.
+     */
+    boolean sameCustomer(int row, int other) {
+        return names[row] == names[other] && vins[row] == vins[other];
+    }
+
+    /**
+     * @param row A row number.
+     * @param invoice An invoice.
+     * @return True if the row holds that invoice: the same ID for a saved invoice, otherwise the
+     *         same creation timestamp and content.
+     */
+    boolean holds(int row, Invoice invoice) {
+        checkRow(row);
+        if (invoice.getId() != 0 || ids[row] != 0) {
+            return ids[row] == invoice.getId();
+        }
+        return timestamps[row] == invoice.getCreationTimestamp() && get(row).equals(invoice);
+    }
+
+    /**
+     * Sums the priced amounts of some rows, reading only the amount column.
+     *
+     * @param rows The rows to add up.
+     * @return The total in cents.
+     */
+    long sumCents(IntList rows) {
+        long total = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            total += cents[rows.get(i)];
+        }
+        return total;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+        }
+    }
+
+    /**
+     * Assigns each distinct string an int code. Codes are never reused, so they stay valid for
+     * the life of the table. The lookup table is open-addressed over plain ints (code + 1, 0 for
+     * an empty slot), so a distinct string costs a few bytes on top of itself rather than a map
+     * entry and a boxed code. The strings are kept in an array that is only appended to, so a
+     * snapshot can share it.
+     */
+    private static final class Dictionary {
+
+        private String[] values;
+        private int count;
+        private int[] slots; // Null in a snapshot, which only decodes
+
+        Dictionary() {
+            values = new String[16];
+            slots = new int[16];
+        }
+
+        Dictionary(Dictionary live) {
+            values = live.values;
+            count = live.count;
+        }
+
+        int encode(String value) {
+            if (value == null) {
+                return NONE;
+            }
+            int mask = slots.length - 1;
+            int slot = spread(value.hashCode()) & mask;
+            while (slots[slot] != 0) {
+                int code = slots[slot] - 1;
+                if (values[code].equals(value)) {
+                    return code;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int code = count;
+            if (code == values.length) {
+                values = Arrays.copyOf(values, code * 2);
+            }
+            values[code] = value;
+            count++;
+            slots[slot] = code + 1;
+            // Kept at most half full so probe runs stay short
+            if (count * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            return code;
+        }
+
+        private void rehash(int capacity) {
+            slots = new int[capacity];
+            int mask = capacity - 1;
+            for (int code = 0; code < count; code++) {
+                int slot = spread(values[code].hashCode()) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = code + 1;
+            }
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        String decode(int code) {
+            return code == NONE ? null : values[code];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InvoiceColumns{rows=" + size + ", strings=" + strings.count + '}';
+    }
+}
@@ -0,0 +1,418 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes over the invoice history, kept up to date one invoice at a time, that answer
+ * an {@link InvoiceQuery} without scanning every invoice:
+ * <ul>
+ *     <li>a list sorted by creation timestamp, searched by binary search for time ranges,</li>
+ *     <li>a hash index from normalized VIN to that vehicle's invoices,</li>
+ *     <li>a sorted map from lower-cased customer name, for prefix searches,</li>
+ *     <li>a primitive hash index from invoice ID, for {@link #get(long)} in O(1).</li>
+ * </ul>
+ * A query is driven by its most selective indexed criterion (VIN, then name prefix, then time
+ * range) and the remaining criteria are checked only on the invoices that index returns.
+ *
+ * The indexes hold row numbers of an {@link InvoiceColumns} table rather than invoices, and
+ * timestamps are read from its primitive column; only the invoices a query returns are
+ * materialized. {@link #add(Invoice)} stores the invoice in the table itself, while
+ * {@link InvoiceRepository} stores each invoice once and indexes its row with {@link #addRow}.
+ *
+ * Removing a row does not shift the others: the timestamp list, which must stay in order, only
+ * marks it removed and is compacted once half of it is marks, and the VIN and name lists, whose
+ * order does not matter, move their last row into its place. Each row's place in those two
+ * lists is kept in a primitive list indexed by row.
+ *
+ * This class is not thread-safe; {@link InvoiceRepository} guards it with its own lock.
+ */
+public class InvoiceIndex {
+
+    private final InvoiceColumns columns;
+    // Oldest first; rows with the same timestamp keep the order they were added in. ~row once removed
+    private final IntList byTime = new IntList(64);
+    private int removed; // Removed rows still marked in byTime
+    private final Map<String, IntList> byVin = new HashMap<>();
+    private final TreeMap<String, IntList> byName = new TreeMap<>();
+    private final IntList vinSlots = new IntList(64); // Index of each row in its byVin list
+    private final IntList nameSlots = new IntList(64); // Index of each row in its byName list
+    private final LongLongMap rowById = new LongLongMap();
+
+    public InvoiceIndex() {
+        this(new InvoiceColumns());
+    }
+
+    /**
+     * @param columns The table holding the rows that will be indexed.
+     */
+    InvoiceIndex(InvoiceColumns columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Adds an invoice to every index.
+     *
+     * @param invoice The invoice to add.
+     */
+    public void add(Invoice invoice) {
+        addRow(columns.add(invoice));
+    }
+
+    /**
+     * Adds every invoice in a collection, see {@link #addRows}.
+     *
+     * @param invoices The invoices to add.
+     */
+    public void addAll(Collection<Invoice> invoices) {
+        addRows(columns.addAll(invoices));
+    }
+
+    /**
+     * Adds one row of the table to every index. Rows usually arrive in time order, which makes
+     * the timestamp index an append.
+     *
+     * @param row The row to add.
+     */
+    void addRow(int row) {
+        long timestamp = columns.getCreationTimestamp(row);
+        int size = byTime.size();
+        if (size == 0 || timestampAt(size - 1) <= timestamp) {
+            byTime.add(row);
+        } else {
+            byTime.add(firstAfter(timestamp), row);
+        }
+        addToBuckets(row);
+    }
+
+    /**
+     * Adds several rows. They are sorted once and merged into the timestamp index, so adding an
+     * older block of history costs O(n + m) rather than one insertion into the middle of the
+     * list per row.
+     *
+     * @param rows The rows to add.
+     */
+    void addRows(IntList rows) {
+        IntList sorted = sortedByTime(rows);
+        for (int i = 0; i < sorted.size(); i++) {
+            addToBuckets(sorted.get(i));
+        }
+
+        if (sorted.isEmpty() || byTime.isEmpty()
+                || timestampAt(byTime.size() - 1) <= columns.getCreationTimestamp(sorted.get(0))) {
+            byTime.addAll(sorted);
+            return;
+        }
+        IntList merged = new IntList(byTime.size() + sorted.size());
+        int i = 0;
+        int j = 0;
+        while (i < byTime.size() && j < sorted.size()) {
+            // On equal timestamps the row already indexed comes first
+            if (timestampAt(i) <= columns.getCreationTimestamp(sorted.get(j))) {
+                merged.add(byTime.get(i++));
+            } else {
+                merged.add(sorted.get(j++));
+            }
+        }
+        while (i < byTime.size()) {
+            merged.add(byTime.get(i++));
+        }
+        while (j < sorted.size()) {
+            merged.add(sorted.get(j++));
+        }
+        byTime.clear();
+        byTime.addAll(merged);
+    }
+
+    private void addToBuckets(int row) {
+        addToBucket(byVin, vinKey(columns.getCustomerVIN(row)), vinSlots, row);
+        addToBucket(byName, nameKey(columns.getCustomerName(row)), nameSlots, row);
+        long id = columns.getId(row);
+        if (id != 0) {
+            rowById.put(id, row);
+        }
+    }
+
+    // Rows usually arrive in time order already, so only out-of-order input is actually sorted.
+    // Rows created at the same time are put in the order they were stored in the table, as the
+    // VIN and name lists lose their order when rows are removed.
+    private IntList sortedByTime(IntList rows) {
+        IntList sorted = new IntList(Math.max(rows.size(), 1));
+        boolean ordered = true;
+        for (int i = 0; i < rows.size(); i++) {
+            sorted.add(rows.get(i));
+            ordered &= i == 0 || compareByTime(rows.get(i - 1), rows.get(i)) <= 0;
+        }
+        if (ordered) {
+            return sorted;
+        }
+        Integer[] boxed = new Integer[rows.size()];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = rows.get(i);
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareByTime(o1, o2);
+            }
+        });
+        for (int i = 0; i < boxed.length; i++) {
+            sorted.set(i, boxed[i]);
+        }
+        return sorted;
+    }
+
+    private int compareByTime(int row, int other) {
+        int byTimestamp = Long.compare(columns.getCreationTimestamp(row), columns.getCreationTimestamp(other));
+        return byTimestamp != 0 ? byTimestamp : Integer.compare(row, other);
+    }
+
+    /**
+     * Removes an invoice from every index.
+     *
+     * @param invoice The invoice to remove.
+     * @return True if the invoice was indexed.
+     */
+    public boolean remove(Invoice invoice) {
+        long timestamp = invoice.getCreationTimestamp();
+        for (int i = firstAtOrAfter(timestamp); i < byTime.size() && timestampAt(i) == timestamp; i++) {
+            int row = byTime.get(i);
+            if (row >= 0 && columns.holds(row, invoice)) {
+                return removeRow(row);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes one row from every index.
+     *
+     * @param row The row to remove.
+     * @return True if the row was indexed.
+     */
+    boolean removeRow(int row) {
+        int index = indexOf(row);
+        if (index < 0) {
+            return false;
+        }
+        byTime.set(index, ~row);
+        removed++;
+        if (removed * 2 > byTime.size()) {
+            byTime.removeNegatives();
+            removed = 0;
+        }
+        removeFromBuckets(row);
+        long id = columns.getId(row);
+        if (id != 0 && rowById.get(id, -1) == row) {
+            rowById.remove(id, -1);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces one row with a new version of the same invoice, which must have the same creation
+     * timestamp, so it keeps its place in the timestamp index.
+     *
+     * @param row The row to replace.
+     * @param replacement The row of the new version.
+     * @return True if the row was indexed.
+     */
+    boolean replaceRow(int row, int replacement) {
+        int index = indexOf(row);
+        if (index < 0) {
+            return false;
+        }
+        byTime.set(index, replacement);
+        removeFromBuckets(row);
+        long id = columns.getId(row);
+        if (id != 0 && rowById.get(id, -1) == row) {
+            rowById.remove(id, -1);
+        }
+        addToBuckets(replacement);
+        return true;
+    }
+
+    // Index of the row in byTime, found by binary search on its timestamp, or -1
+    private int indexOf(int row) {
+        long timestamp = columns.getCreationTimestamp(row);
+        for (int i = firstAtOrAfter(timestamp); i < byTime.size() && timestampAt(i) == timestamp; i++) {
+            if (byTime.get(i) == row) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeFromBuckets(int row) {
+        removeFromBucket(byVin, vinKey(columns.getCustomerVIN(row)), vinSlots, row);
+        removeFromBucket(byName, nameKey(columns.getCustomerName(row)), nameSlots, row);
+    }
+
+    /**
+     * @param id An invoice ID.
+     * @return The indexed invoice with that ID, or null if there is none.
+     */
+    public Invoice get(long id) {
+        int row = rowOf(id);
+        return row >= 0 ? columns.get(row) : null;
+    }
+
+    /**
+     * @param id An invoice ID.
+     * @return The indexed row holding the invoice with that ID, or -1 if there is none.
+     */
+    int rowOf(long id) {
+        return (int) rowById.get(id, -1);
+    }
+
+    /**
+     * Discards every index entry.
+     */
+    public void clear() {
+        byTime.clear();
+        removed = 0;
+        byVin.clear();
+        byName.clear();
+        vinSlots.clear();
+        nameSlots.clear();
+        rowById.clear();
+    }
+
+    public int size() {
+        return byTime.size() - removed;
+    }
+
+    /**
+     * @param from The earliest creation timestamp to include.
+     * @param to The latest creation timestamp to include.
+     * @return The indexed rows created in the range, oldest first.
+     */
+    IntList rowsBetween(long from, long to) {
+        int end = firstAfter(to);
+        IntList rows = new IntList(Math.max(end - firstAtOrAfter(from), 1));
+        for (int i = firstAtOrAfter(from); i < end; i++) {
+            if (byTime.get(i) >= 0) {
+                rows.add(byTime.get(i));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the invoices matching a query.
+     *
+     * @param query The criteria and paging to apply.
+     * @return The matching invoices, newest first.
+     */
+    public List<Invoice> query(InvoiceQuery query) {
+        IntList candidates;
+        if (query.getVin() != null) {
+            IntList vehicle = byVin.get(vinKey(query.getVin()));
+            candidates = vehicle != null ? sortedByTime(vehicle) : new IntList(1);
+        } else if (query.getNamePrefix() != null) {
+            String prefix = nameKey(query.getNamePrefix());
+            IntList named = new IntList();
+            for (IntList rows : byName.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                named.addAll(rows);
+            }
+            candidates = sortedByTime(named);
+        } else {
+            // Already in time order, so only the range needs to be checked
+            candidates = rowsBetween(query.getCreatedFrom(), query.getCreatedTo());
+        }
+
+        List<Invoice> results = new ArrayList<>();
+        int skipped = 0;
+        for (int i = candidates.size() - 1; i >= 0 && results.size() < query.getLimit(); i--) {
+            Invoice invoice = columns.get(candidates.get(i));
+            if (!query.matches(invoice)) {
+                continue;
+            }
+            if (skipped < query.getOffset()) {
+                skipped++;
+                continue;
+            }
+            results.add(invoice);
+        }
+        return results;
+    }
+
+    // Removed rows keep their timestamp, so the list stays searchable
+    private long timestampAt(int index) {
+        int row = byTime.get(index);
+        return columns.getCreationTimestamp(row < 0 ? ~row : row);
+    }
+
+    // Index of the first row created at or after the timestamp
+    private int firstAtOrAfter(long timestamp) {
+        int low = 0;
+        int high = byTime.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first row created strictly after the timestamp
+    private int firstAfter(long timestamp) {
+        int low = 0;
+        int high = byTime.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void addToBucket(Map<String, IntList> index, String key, IntList slots, int row) {
+        IntList rows = index.get(key);
+        if (rows == null) {
+            rows = new IntList(4);
+            index.put(key, rows);
+        }
+        slots.put(row, rows.size());
+        rows.add(row);
+    }
+
+    // Moves the bucket's last row into the removed row's place
+    private static void removeFromBucket(Map<String, IntList> index, String key, IntList slots, int row) {
+        IntList rows = index.get(key);
+        int slot = row < slots.size() ? slots.get(row) : -1;
+        if (rows == null || slot < 0 || slot >= rows.size() || rows.get(slot) != row) {
+            return;
+        }
+        int last = rows.get(rows.size() - 1);
+        rows.swapRemove(slot);
+        slots.set(row, -1);
+        if (last != row) {
+            slots.set(last, slot);
+        }
+        if (rows.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    static String vinKey(String vin) {
+        return vin == null ? "" : vin.trim().toUpperCase(Locale.ROOT);
+    }
+
+    static String nameKey(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,388 @@
+package models;
+
+import android.util.JsonReader;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only invoice log stored as JSON Lines. Each line is one {@link Invoice} JSON object,
+ * a quote frame of the form {"quote": {...}} holding a {@link Quote} header and its panels, a
+ * tombstone of the form {"delete": [id, ...]}, or a batch frame of the form
+ * {"batch": [invoice, ...]} as written before quotes existed. Saving appends a single line
+ * instead of rewriting the whole history, and loading reads the records back one line at a time.
+ *
+ * Each line ends with a tab and the CRC32 of its JSON as eight hex digits, so a line that was
+ * damaged on disk is detected even when it still parses; lines written before checksums were
+ * added have none and are accepted as they are. A line that fails its checksum or cannot be
+ * parsed (for example, one cut short by a crash mid-write) is skipped without affecting the
+ * records around it, which makes a frame all-or-nothing: either every invoice in it is loaded or
+ * none is.
+ */
+public class InvoiceJournal implements InvoiceLog {
+
+    private static final String TAG = "InvoiceJournal";
+    private static final String BATCH_KEY = "batch";
+    private static final String BATCH_PREFIX = "{\"" + BATCH_KEY + "\":"; // How JSONObject writes a one-key frame
+    private static final String QUOTE_KEY = "quote";
+    private static final String QUOTE_PREFIX = "{\"" + QUOTE_KEY + "\":";
+    private static final String DELETE_KEY = "delete";
+    private static final String DELETE_PREFIX = "{\"" + DELETE_KEY + "\":";
+    private static final char CHECKSUM_SEPARATOR = '\t'; // Never appears unescaped in JSON output
+    private static final int CHECKSUM_LENGTH = 8;
+
+    private final File file;
+
+    /**
+     * @param file The journal file. It is created on the first write.
+     */
+    public InvoiceJournal(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends one invoice as a new line at the end of the journal.
+     *
+     * @param invoice The invoice to append.
+     * @return The offset of the new line.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If the invoice cannot be converted to JSON.
+     */
+    @Override
+    public synchronized long append(Invoice invoice) throws IOException, JSONException {
+        return appendLine(invoice.toJsonObject().toString());
+    }
+
+    /**
+     * Appends several invoices as one batch frame. The frame is a single line written with a
+     * single write and flushed to disk before returning, so the batch is committed atomically.
+     *
+     * @param invoices The invoices to append, typically every panel of one vehicle.
+     * @return The offset of the new line.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If an invoice cannot be converted to JSON.
+     */
+    @Override
+    public synchronized long appendBatch(Collection<Invoice> invoices) throws IOException, JSONException {
+        if (invoices.isEmpty()) {
+            return -1;
+        }
+        JSONArray batch = new JSONArray();
+        for (Invoice invoice : invoices) {
+            batch.put(invoice.toJsonObject());
+        }
+        return appendLine(new JSONObject().put(BATCH_KEY, batch).toString());
+    }
+
+    /**
+     * Appends a quote as one frame line, with its header written once for all of its panels.
+     *
+     * @param quote The quote to append.
+     * @return The offset of the new line.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If the quote cannot be converted to JSON.
+     */
+    @Override
+    public synchronized long appendQuote(Quote quote) throws IOException, JSONException {
+        return appendLine(quoteFrame(quote));
+    }
+
+    /**
+     * Appends a tombstone line for one invoice.
+     *
+     * @param id The ID of the deleted invoice.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If the tombstone cannot be converted to JSON.
+     */
+    @Override
+    public synchronized void appendDelete(long id) throws IOException, JSONException {
+        appendLine(new JSONObject().put(DELETE_KEY, new JSONArray().put(id)).toString());
+    }
+
+    private static String quoteFrame(Quote quote) throws JSONException {
+        return new JSONObject().put(QUOTE_KEY, quote.toJsonObject()).toString();
+    }
+
+    private long appendLine(String json) throws IOException {
+        byte[] line = (withChecksum(json) + "\n").getBytes(StandardCharsets.UTF_8);
+        boolean needsSeparator = endsWithPartialLine();
+        long offset = file.length() + (needsSeparator ? 1 : 0);
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            if (needsSeparator) {
+                fos.write('\n'); // Never glue a new record onto a torn one
+            }
+            fos.write(line);
+            fos.getFD().sync();
+        }
+        return offset;
+    }
+
+    /**
+     * Replaces the whole journal with the given invoices, one quote frame per {@link Quote} they
+     * group into. The new content is written to a temporary file that is renamed over the
+     * journal, so a crash leaves either the old or the new journal, never a truncated one.
+     *
+     * @param invoices The invoices the journal should contain.
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void rewrite(List<Invoice> invoices) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            StringBuilder sb = new StringBuilder();
+            for (Quote quote : Quote.group(invoices)) {
+                try {
+                    sb.append(withChecksum(quoteFrame(quote))).append('\n');
+                } catch (JSONException e) {
+                    Log.e(TAG, "Error converting quote to JSON: " + e.getMessage());
+                }
+            }
+            fos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file.getName());
+        }
+    }
+
+    /**
+     * Streams the records of the journal from an offset onwards to a visitor, in the order they
+     * were appended. Each record is decoded token by token straight into {@link Invoice} objects,
+     * without building a {@link JSONObject} first. Records that fail their checksum or cannot be
+     * parsed are logged and skipped; an unreadable quote or batch frame is skipped as a whole.
+     *
+     * @param from The offset of the first line to read; 0 for the whole journal.
+     * @param visitor Receives each invoice record and tombstone.
+     * @return The offset just after the last intact line, or {@code from} if there is none.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    @Override
+    public synchronized long scan(long from, InvoiceRecordVisitor visitor) throws IOException {
+        if (!file.exists()) {
+            return from;
+        }
+        long length = file.length();
+        long end = from;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            fis.getChannel().position(from);
+            InputStream in = new BufferedInputStream(fis, 64 * 1024);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            List<Invoice> frame = new ArrayList<>();
+            List<Long> deleted = new ArrayList<>();
+            boolean details = visitor.needsDetails();
+            long offset = from;
+            String line;
+            while ((line = readLine(in, buffer)) != null) {
+                long lineOffset = offset;
+                offset = Math.min(offset + buffer.size() + 1, length); // The last line may lack its newline
+                if (line.trim().isEmpty()) {
+                    end = offset;
+                    continue;
+                }
+                frame.clear();
+                deleted.clear();
+                try {
+                    decodeLine(line, frame, deleted, details);
+                } catch (IOException | JSONException | IllegalStateException | NumberFormatException e) {
+                    Log.w(TAG, "Skipping unreadable record at offset " + lineOffset + " of " + file.getName() + ": " + e.getMessage());
+                    continue;
+                }
+                end = offset;
+                for (Invoice invoice : frame) {
+                    visitor.record(lineOffset, invoice);
+                }
+                for (long id : deleted) {
+                    visitor.delete(id);
+                }
+            }
+        }
+        return end;
+    }
+
+    @Override
+    public synchronized void truncate(long length) throws IOException {
+        if (!file.exists() || file.length() <= length) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+            raf.getFD().sync();
+        }
+    }
+
+    /**
+     * Reads the single line starting at an offset.
+     *
+     * @param offset The offset of the line.
+     * @return The invoices in the line; empty for a tombstone.
+     * @throws IOException If the line cannot be read or parsed.
+     */
+    @Override
+    public synchronized List<Invoice> readAt(long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (offset < 0 || offset >= raf.length()) {
+                throw new IOException("No record at offset " + offset + " of " + file.getName());
+            }
+            raf.seek(offset);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            byte[] chunk = new byte[1024];
+            int read;
+            boolean complete = false;
+            while (!complete && (read = raf.read(chunk)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (chunk[i] == '\n') {
+                        read = i;
+                        complete = true;
+                        break;
+                    }
+                }
+                buffer.write(chunk, 0, read);
+            }
+            List<Invoice> frame = new ArrayList<>();
+            try {
+                decodeLine(new String(buffer.toByteArray(), StandardCharsets.UTF_8), frame, new ArrayList<Long>(), true);
+            } catch (IOException | JSONException | IllegalStateException | NumberFormatException e) {
+                throw new IOException("Unreadable record at offset " + offset + ": " + e.getMessage());
+            }
+            return frame;
+        }
+    }
+
+    // Reads one line of UTF-8 into a string, leaving its bytes (without the newline) in the buffer
+    private static String readLine(InputStream in, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            buffer.write(b);
+        }
+        if (b == -1 && buffer.size() == 0) {
+            return null;
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String withChecksum(String json) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        String hex = Long.toHexString(crc.getValue());
+        StringBuilder sb = new StringBuilder(json.length() + 1 + CHECKSUM_LENGTH).append(json).append(CHECKSUM_SEPARATOR);
+        for (int i = hex.length(); i < CHECKSUM_LENGTH; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    // Returns the JSON of a line after checking its checksum, if it has one
+    private static String verifiedJson(String line) throws IOException {
+        int separator = line.length() - CHECKSUM_LENGTH - 1;
+        if (separator < 0 || line.charAt(separator) != CHECKSUM_SEPARATOR) {
+            return line; // Written before checksums were added
+        }
+        String json = line.substring(0, separator);
+        long expected;
+        try {
+            expected = Long.parseLong(line.substring(separator + 1), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed checksum");
+        }
+        CRC32 crc = new CRC32();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        if (crc.getValue() != expected) {
+            throw new IOException("Checksum mismatch");
+        }
+        return json;
+    }
+
+    private static void decodeLine(String line, List<Invoice> frame, List<Long> deleted, boolean details) throws IOException, JSONException {
+        line = verifiedJson(line);
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            if (line.startsWith(QUOTE_PREFIX)) {
+                readQuoteFrame(reader, frame, details);
+            } else if (line.startsWith(DELETE_PREFIX)) {
+                readDeleteFrame(reader, deleted);
+            } else if (line.startsWith(BATCH_PREFIX)) {
+                readBatchFrame(reader, frame, details);
+            } else {
+                frame.add(Invoice.read(reader, details));
+            }
+        }
+    }
+
+    private static void readQuoteFrame(JsonReader reader, List<Invoice> frame, boolean details) throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!QUOTE_KEY.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            frame.addAll(Quote.read(reader, details).toInvoices());
+        }
+        reader.endObject();
+    }
+
+    private static void readDeleteFrame(JsonReader reader, List<Long> deleted) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!DELETE_KEY.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                deleted.add(reader.nextLong());
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    private static void readBatchFrame(JsonReader reader, List<Invoice> frame, boolean details) throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!BATCH_KEY.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                frame.add(Invoice.read(reader, details));
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    private boolean endsWithPartialLine() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+}
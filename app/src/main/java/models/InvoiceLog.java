@@ -0,0 +1,132 @@
+package models;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An append-only file of invoice records. Implementations differ only in how records are encoded
+ * on disk (see {@link SegmentFormat}); all of them append a batch atomically, rewrite through a
+ * temporary file, protect every record with a CRC32 checksum, and skip records left unreadable
+ * by an interrupted write.
+ *
+ * Invoices are never changed in place: an update appends a new record with the same ID, and a
+ * deletion appends a tombstone. Readers apply these in order through {@link LiveInvoices}.
+ */
+public interface InvoiceLog {
+
+    File getFile();
+
+    /**
+     * Appends one invoice and flushes it to disk. If an invoice with the same ID was appended
+     * before, the new record replaces it.
+     *
+     * @param invoice The invoice to append.
+     * @return The offset of the new record.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If the invoice cannot be encoded.
+     */
+    long append(Invoice invoice) throws IOException, JSONException;
+
+    /**
+     * Appends several invoices as one record that is either read back whole or not at all.
+     *
+     * @param invoices The invoices to append, typically every panel of one vehicle.
+     * @return The offset of the new record.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If an invoice cannot be encoded.
+     */
+    long appendBatch(Collection<Invoice> invoices) throws IOException, JSONException;
+
+    /**
+     * Appends a vehicle quote as one record: its header once, then every panel line.
+     *
+     * @param quote The quote to append.
+     * @return The offset of the new record.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If the quote cannot be encoded.
+     */
+    long appendQuote(Quote quote) throws IOException, JSONException;
+
+    /**
+     * Appends a tombstone that deletes the invoice with the given ID.
+     *
+     * @param id The ID of the invoice to delete.
+     * @throws IOException If the file cannot be written.
+     * @throws JSONException If the tombstone cannot be encoded.
+     */
+    void appendDelete(long id) throws IOException, JSONException;
+
+    /**
+     * Replaces the whole file with the given invoices, stored as quotes grouped by
+     * {@link Quote#group(Collection)}.
+     *
+     * @param invoices The invoices the file should contain.
+     * @throws IOException If the file cannot be written.
+     */
+    void rewrite(List<Invoice> invoices) throws IOException;
+
+    /**
+     * Streams every readable record to a visitor, in file order, without applying updates or
+     * tombstones.
+     *
+     * @param visitor Receives each invoice record and tombstone.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    default void scan(InvoiceRecordVisitor visitor) throws IOException {
+        scan(0, visitor);
+    }
+
+    /**
+     * Streams the readable records from an offset onwards, checking each record's checksum.
+     * Recovery uses this to validate only the records appended after the last checkpoint.
+     *
+     * @param from The offset of the first record to read; 0 for the start of the file.
+     * @param visitor Receives each invoice record and tombstone.
+     * @return The offset just after the last intact record, or {@code from} if there is none.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    long scan(long from, InvoiceRecordVisitor visitor) throws IOException;
+
+    /**
+     * Cuts the file to a length, dropping an incomplete record left at its end by a crash.
+     *
+     * @param length The new length, normally an offset returned by {@link #scan(long, InvoiceRecordVisitor)}.
+     * @throws IOException If the file cannot be written.
+     */
+    void truncate(long length) throws IOException;
+
+    /**
+     * Reads the single record at an offset reported by {@link #scan} or an append.
+     *
+     * @param offset The offset of the record.
+     * @return The invoices in the record; more than one for a quote or batch.
+     * @throws IOException If the record cannot be read or is damaged.
+     */
+    List<Invoice> readAt(long offset) throws IOException;
+
+    /**
+     * Streams every live invoice to a visitor, in the order they were first appended.
+     *
+     * @param visitor Receives each invoice.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    default void forEach(InvoiceVisitor visitor) throws IOException {
+        for (Invoice invoice : readAll()) {
+            visitor.visit(invoice);
+        }
+    }
+
+    /**
+     * @return Every live invoice, in the order they were first appended.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    default List<Invoice> readAll() throws IOException {
+        LiveInvoices live = new LiveInvoices();
+        scan(live);
+        return live.toList();
+    }
+}
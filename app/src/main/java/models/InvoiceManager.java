@@ -1,145 +1,733 @@
 package models;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
 import android.util.Log;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Manages the persistence of invoice data for the application. This class handles
- * saving, loading, and grouping invoices. It stores invoice data as a JSON array in a
- * private file and provides methods to interact with this data, including loading
- * all invoices and organizing them into a summary format grouped by customer and vehicle.
+ * saving, loading, and grouping invoices. Invoices are stored in private storage as monthly
+ * append-only segment files in a compact binary format ("invoice_segments/2026-10.qqhb", ...)
+ * described by a manifest, see
+ * {@link InvoiceSegmentStore}, so saving one invoice appends one record and recent history can
+ * be read without touching older months. Histories saved by older versions, either as a single
+ * JSON array ("invoices.json") or as one journal ("invoices.jsonl"), are migrated transparently
+ * on first open.
+ *
+ * The store is read into a shared {@link InvoiceRepository}, recent segments first; after that,
+ * loads are served from memory and saves are written to the store in the background. Nothing is
+ * ever rewritten in place, so a crash mid-save loses at most the record being written: on the
+ * next start only the records written since the last checkpoint are checked, and the rest of the
+ * history loads as before. Each customer's totals are also kept in a small summary file that is
+ * written with every save, so the history screen can show them before any invoice is read.
+ *
+ * The methods ending in "Async" never touch the disk on the calling thread and are the ones to
+ * use from activities. They return a {@link CompletableFuture}; pass {@link #mainThread()} to its
+ * "...Async" stages to get the result back on the main thread. Saves and deletions all run, in
+ * the order they were made, on the one writer thread that also writes the store, while loads run
+ * on a pool of reader threads and may overlap each other. Opening the store, which may migrate an
+ * old history, is also done on the writer thread, and the first loads wait for it. Once the
+ * history they need is loaded, loads read the repository's latest published snapshot and do not
+ * wait for saves in progress.
  */
 public class InvoiceManager {
 
-    private static final String FILENAME = "invoices.json";
+    private static final String LEGACY_FILENAME = "invoices.json";
+    private static final String JOURNAL_FILENAME = "invoices.jsonl";
+    private static final String SEGMENT_DIRECTORY = "invoice_segments";
+    private static final SegmentPeriod SEGMENT_PERIOD = SegmentPeriod.MONTH;
+    private static final SegmentFormat SEGMENT_FORMAT = SegmentFormat.BINARY;
     private static final String TAG = "InvoiceManager";
+
+    private static InvoiceRepository repository;
+    private static volatile boolean opened; // The repository exists, so loads no longer open the store
+    private static final Object OPENING_LOCK = new Object();
+    private static CompletableFuture<Void> opening; // The first open of the store, guarded by OPENING_LOCK
+    private static final ExecutorService WRITER = InvoiceRepository.newWriter();
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "invoice-reader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final Executor MAIN_THREAD = new Executor() {
+        private Handler handler; // Created on first use, when the main looper surely exists
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            if (handler == null) {
+                handler = new Handler(Looper.getMainLooper());
+            }
+            handler.post(command);
+        }
+    };
+
     /**
-     * Appends a new invoice to the existing list of invoices and saves the
-     * updated list back to the file.
+     * Saves a new invoice. It is visible to loads immediately and appended to the invoice
+     * journal in the background.
      *
      * @param context The application context, used for file I/O.
      * @param newInvoice The new {@link Invoice} object to be saved.
      */
     public static void saveInvoice(Context context, Invoice newInvoice) {
-        List<Invoice> currentInvoices = loadRawInvoices(context);
-        currentInvoices.add(newInvoice);
-        saveAllInvoices(context, currentInvoices);
+        try {
+            repository(context).add(newInvoice);
+            Log.d(TAG, "Invoice queued for saving.");
+        } catch (Exception e) {
+            Log.e(TAG, "Error saving invoice: " + e.getMessage());
+        }
     }
 
     /**
-     * Saves an entire list of invoices to the application's private file storage.
-     * The invoices are converted to a JSON array string before being written.
-     * This method overwrites any existing file with the same name.
+     * Saves several invoices, typically every panel of one vehicle quote, as a single atomic
+     * batch: one write and one flush to disk, performed in the background. If the app dies
+     * mid-write, none of the batch is loaded later rather than part of the vehicle.
+     *
+     * @param context The application context, used for file I/O.
+     * @param newInvoices The {@link Invoice} objects to be saved together.
+     * @return True if the batch was accepted for saving.
+     */
+    public static boolean saveInvoices(Context context, Collection<Invoice> newInvoices) {
+        try {
+            repository(context).addAll(newInvoices);
+            Log.d(TAG, "Batch of " + newInvoices.size() + " invoices queued for saving.");
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error saving invoice batch: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Saves a vehicle quote as one record, with the customer and VIN stored once for all of its
+     * panels. Like a batch, it is written with a single write and flush in the background, so it
+     * is either loaded whole or not at all.
+     *
+     * @param context The application context, used for file I/O.
+     * @param quote The {@link Quote} to save.
+     * @return True if the quote was accepted for saving.
+     */
+    public static boolean saveQuote(Context context, Quote quote) {
+        try {
+            repository(context).addQuote(quote);
+            Log.d(TAG, "Quote with " + quote.getLineCount() + " panels queued for saving.");
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error saving quote: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the entire invoice history with the given list.
+     * This method overwrites any existing invoices.
      *
      * @param context The application context.
      * @param invoicesToSave The list of {@link Invoice} objects to save.
      */
     public static void saveAllInvoices(Context context, List<Invoice> invoicesToSave) {
-        JSONArray jsonArray = new JSONArray();
-        for (Invoice inv : invoicesToSave) {
-            try {
-                jsonArray.put(inv.toJsonObject());
-            } catch (JSONException e) {
-                Log.e(TAG, "Error converting invoice to JSON: " + e.getMessage());
-            }
-        }
-
-        try (FileOutputStream fos = context.openFileOutput(FILENAME, Context.MODE_PRIVATE)) {
-            fos.write(jsonArray.toString().getBytes(StandardCharsets.UTF_8));
-            Log.d(TAG, "Invoices saved successfully.");
+        try {
+            repository(context).replaceAll(invoicesToSave);
+            Log.d(TAG, "Invoice history replaced.");
         } catch (Exception e) {
             Log.e(TAG, "Error saving invoices: " + e.getMessage());
         }
     }
 
     /**
-     * Loads all raw invoices from the saved file and returns them as a list.
-     * If the file does not exist or is empty, an empty list is returned.
+     * Returns all raw invoices as a list. The journal is only read the first time, or again
+     * if the file was changed outside the app. If there are no invoices, an empty list is returned.
      *
      * @param context The application context.
-     * @return A list of all {@link Invoice} objects found in the file.
+     * @return A list of all saved {@link Invoice} objects.
      */
     public static List<Invoice> loadRawInvoices(Context context) {
         List<Invoice> invoices = new ArrayList<>();
-        try (FileInputStream fis = context.openFileInput(FILENAME);
-             InputStreamReader isr = new InputStreamReader(fis, StandardCharsets.UTF_8);
-             BufferedReader br = new BufferedReader(isr)) {
+        try {
+            invoices = new ArrayList<>(repository(context).getAll());
+            Log.d(TAG, "Raw invoices loaded successfully. Count: " + invoices.size());
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading raw invoices: " + e.getMessage());
+        }
+        return invoices;
+    }
+
+    /**
+     * Searches the saved invoices, e.g. by VIN, customer name prefix, date range, panel type or
+     * material, using indexes maintained as invoices are saved rather than scanning the history.
+     *
+     * @param context The application context.
+     * @param query The criteria and paging to apply.
+     * @return The matching {@link Invoice} objects, newest first.
+     */
+    public static List<Invoice> queryInvoices(Context context, InvoiceQuery query) {
+        try {
+            return repository(context).query(query);
+        } catch (Exception e) {
+            Log.e(TAG, "Error querying invoices: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Hands every saved invoice to a visitor without copying the history into a new list: the
+     * repository's snapshot is walked in place and each {@link Invoice} is built only as it is
+     * handed over.
+     *
+     * @param context The application context.
+     * @param visitor Receives each {@link Invoice}, in the order they were saved.
+     */
+    public static void forEachInvoice(Context context, InvoiceVisitor visitor) {
+        try {
+            repository(context).forEach(visitor);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading invoices: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the process-wide invoice repository, creating it on first use.
+     *
+     * @param context The application context.
+     * @return The repository for the app's invoice segments.
+     * @throws IOException If an old history could not be migrated; nothing is saved until it is.
+     */
+    static synchronized InvoiceRepository repository(Context context) throws IOException {
+        File directory = new File(context.getFilesDir(), SEGMENT_DIRECTORY);
+        if (repository == null || !repository.getDirectory().equals(directory)) {
+            repository = new InvoiceRepository(openStore(context), WRITER);
+            opened = true;
+        }
+        return repository;
+    }
+
+    /**
+     * Returns the invoice segment store, first migrating a history saved by an older version if
+     * one is still present. The migrated segments are written to a temporary directory that is
+     * renamed into place, and the old files are only deleted after that, so an interrupted
+     * migration is simply repeated on the next open.
+     *
+     * @param context The application context.
+     * @return The invoice segment store.
+     * @throws IOException If the old history could not be migrated.
+     */
+    private static synchronized InvoiceSegmentStore openStore(Context context) throws IOException {
+        File dir = context.getFilesDir();
+        File directory = new File(dir, SEGMENT_DIRECTORY);
+        File journalFile = new File(dir, JOURNAL_FILENAME);
+        File legacyFile = new File(dir, LEGACY_FILENAME);
+        if (!journalFile.exists() && !legacyFile.exists()) {
+            return new InvoiceSegmentStore(directory, SEGMENT_PERIOD, SEGMENT_FORMAT);
+        }
+
+        if (!directory.exists()) {
+            File temp = new File(dir, SEGMENT_DIRECTORY + ".tmp");
+            List<Invoice> oldInvoices = readOldHistory(journalFile, legacyFile);
+            deleteDirectory(temp);
+            new InvoiceSegmentStore(temp, SEGMENT_PERIOD, SEGMENT_FORMAT).replaceAll(oldInvoices);
+            if (!temp.renameTo(directory)) {
+                throw new IOException("Could not move migrated segments into place");
+            }
+            Log.i(TAG, "Migrated " + oldInvoices.size() + " invoices to " + SEGMENT_DIRECTORY);
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            Log.w(TAG, "Could not delete old invoice journal.");
+        }
+        if (legacyFile.exists() && !legacyFile.delete()) {
+            Log.w(TAG, "Could not delete legacy invoice file.");
+        }
+        return new InvoiceSegmentStore(directory, SEGMENT_PERIOD, SEGMENT_FORMAT);
+    }
 
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
             }
+        }
+        directory.delete();
+    }
 
-            if (sb.length() > 0) {
-                JSONArray jsonArray = new JSONArray(sb.toString());
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject jsonObject = jsonArray.getJSONObject(i);
+    /**
+     * Reads the history saved by older versions: the invoice journal and the legacy JSON file.
+     * Both can be present, because the journal version started a new journal whenever the legacy
+     * file could not be migrated into it.
+     *
+     * @param journalFile The "invoices.jsonl" journal file, which may not exist.
+     * @param legacyFile The legacy "invoices.json" file, which may not exist.
+     * @return The invoices of both, the legacy ones first.
+     * @throws IOException If a file exists but cannot be read.
+     */
+    private static List<Invoice> readOldHistory(File journalFile, File legacyFile) throws IOException {
+        List<Invoice> journal = journalFile.exists() ? new InvoiceJournal(journalFile).readAll() : new ArrayList<Invoice>();
+        if (!legacyFile.exists()) {
+            return journal;
+        }
+        try {
+            return mergeLegacyInvoices(readLegacyFile(legacyFile), journal);
+        } catch (JSONException e) {
+            throw new IOException("Could not compare legacy invoices: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Puts the legacy invoices before the journal's, skipping the ones the journal already holds
+     * so a legacy file that was migrated but never deleted is not counted twice.
+     *
+     * @param legacyInvoices The invoices read from the legacy file.
+     * @param journalInvoices The invoices read from the journal.
+     * @return The merged history, oldest first.
+     * @throws JSONException If an invoice cannot be converted to JSON for comparison.
+     */
+    private static List<Invoice> mergeLegacyInvoices(List<Invoice> legacyInvoices, List<Invoice> journalInvoices) throws JSONException {
+        Set<String> migrated = new HashSet<>();
+        for (Invoice invoice : journalInvoices) {
+            migrated.add(invoice.toJsonObject().toString());
+        }
+        List<Invoice> invoices = new ArrayList<>();
+        for (Invoice invoice : legacyInvoices) {
+            if (!migrated.contains(invoice.toJsonObject().toString())) {
+                invoices.add(invoice);
+            }
+        }
+        if (!journalInvoices.isEmpty() && !invoices.isEmpty()) {
+            Log.i(TAG, "Recovered " + invoices.size() + " legacy invoices missing from the journal.");
+        }
+        invoices.addAll(journalInvoices);
+        return invoices;
+    }
+
+    /**
+     * Streams the single JSON array written by older versions of the app, one record at a time.
+     * Records that cannot be converted are skipped. If the file is cut short, the records read
+     * before the damaged point are kept.
+     *
+     * @param legacyFile The legacy "invoices.json" file.
+     * @return The invoices it contains.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static List<Invoice> readLegacyFile(File legacyFile) throws IOException {
+        List<Invoice> invoices = new ArrayList<>();
+        if (legacyFile.length() == 0) {
+            return invoices;
+        }
+        try (FileInputStream fis = new FileInputStream(legacyFile);
+             InputStreamReader isr = new InputStreamReader(fis, StandardCharsets.UTF_8);
+             JsonReader reader = new JsonReader(new BufferedReader(isr))) {
+
+            try {
+                reader.beginArray();
+                while (reader.hasNext()) {
                     try {
-                        invoices.add(new Invoice(jsonObject));
+                        invoices.add(Invoice.read(reader));
                     } catch (JSONException e) {
                         Log.e(TAG, "Error converting JSON to Invoice: " + e.getMessage());
                     }
                 }
+            } catch (IOException | IllegalStateException e) {
+                Log.e(TAG, "Legacy invoice file is damaged, keeping " + invoices.size() + " readable invoices: " + e.getMessage());
             }
-            Log.d(TAG, "Raw invoices loaded successfully. Count: " + invoices.size());
-        } catch (java.io.FileNotFoundException e) {
-            Log.i(TAG, "No invoice file found, starting with empty list.");
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading raw invoices: " + e.getMessage());
         }
         return invoices;
     }
 
     /**
-     * Loads, groups, and sorts invoices by customer name and VIN,
-     * calculating a total cost for each customer/VIN combination.
+     * Returns invoices grouped by customer name and VIN, with a total cost for each
+     * customer/VIN combination. Groups are maintained incrementally as invoices are saved,
+     * so this only copies the already sorted group list. History is loaded header-only; the
+     * panel details of an invoice are read when it is first taken from
+     * {@link CustomerInvoiceSummary#getInvoices()}, which may therefore read storage. From the
+     * main thread, use {@link #loadInvoicesAsync} instead.
      *
      * @param context The application context.
      * @return A sorted list of CustomerInvoiceSummary objects.
      */
     public static List<CustomerInvoiceSummary> loadGroupedInvoices(Context context) {
-        List<Invoice> allInvoices = loadRawInvoices(context);
-        Map<String, CustomerInvoiceSummary> groupedMap = new HashMap<>();
+        try {
+            return repository(context).getGroups();
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading grouped invoices: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
 
-        for (Invoice invoice : allInvoices) {
-            String key = invoice.getCustomerName() + "_" + invoice.getCustomerVIN();
-            if (!groupedMap.containsKey(key)) {
-                groupedMap.put(key, new CustomerInvoiceSummary(invoice.getCustomerName(), invoice.getCustomerVIN()));
-            }
-            groupedMap.get(key).addInvoice(invoice);
+    /**
+     * Returns only the invoices created since a given time, grouped by customer name and VIN.
+     * Only the newest segments are read, and only their invoice headers, so this stays fast
+     * however long the history is.
+     *
+     * @param context The application context.
+     * @param since The earliest creation timestamp to include.
+     * @return A sorted list of CustomerInvoiceSummary objects covering the recent invoices.
+     */
+    public static List<CustomerInvoiceSummary> loadRecentGroupedInvoices(Context context, long since) {
+        try {
+            return repository(context).getGroupsSince(since);
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading recent invoices: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Returns the totals of every customer and vehicle (amount, invoice count, custom repairs and
+     * latest date) without reading any invoice. They come from a small summary file that is
+     * updated together with every save, so this is fast enough to show as soon as the history
+     * screen opens, while the invoices themselves are loaded in the background.
+     *
+     * @param context The application context.
+     * @param since The earliest creation timestamp to include, as returned by
+     *              {@link #recentWindowStart}, or {@link Long#MIN_VALUE} for the whole history.
+     * @return A sorted list of CustomerTotals objects.
+     */
+    public static List<CustomerTotals> loadCustomerTotals(Context context, long since) {
+        try {
+            return repository(context).getTotalsSince(since);
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading customer totals: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Returns where the recent history shown by default starts: the beginning of the segment
+     * that covers {@link InvoiceRepository#RECENT_WINDOW_MILLIS} ago, so the totals from
+     * {@link #loadCustomerTotals} and the groups from {@link #loadRecentGroupedInvoices} cover
+     * the same invoices.
+     *
+     * @param context The application context.
+     * @return The earliest creation timestamp of the recent history.
+     */
+    public static long recentWindowStart(Context context) {
+        long since = System.currentTimeMillis() - InvoiceRepository.RECENT_WINDOW_MILLIS;
+        try {
+            return repository(context).segmentStartFor(since);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading invoice segments: " + e.getMessage());
+            return since;
+        }
+    }
+
+    /**
+     * @param context The application context.
+     * @param timestamp A creation timestamp.
+     * @return True if any invoice older than the timestamp is saved.
+     */
+    public static boolean hasInvoicesBefore(Context context, long timestamp) {
+        try {
+            return repository(context).hasInvoicesBefore(timestamp);
+        } catch (Exception e) {
+            Log.e(TAG, "Error checking invoice history: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Deletes old history a whole segment at a time: every monthly segment whose newest invoice
+     * is older than the cutoff is removed, and newer segments are left untouched.
+     *
+     * @param context The application context.
+     * @param cutoff The creation timestamp before which whole segments are discarded.
+     * @return The number of segments deleted.
+     */
+    public static int applyRetention(Context context, long cutoff) {
+        try {
+            int dropped = repository(context).dropSegmentsBefore(cutoff);
+            Log.d(TAG, "Retention dropped " + dropped + " invoice segments.");
+            return dropped;
+        } catch (Exception e) {
+            Log.e(TAG, "Error applying invoice retention: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Compacts one segment in the background, e.g. after an interrupted save left unreadable
+     * records in it. Other segments are not touched.
+     *
+     * @param context The application context.
+     * @param segmentName The segment to compact, e.g. "2026-10".
+     */
+    public static void compactSegment(Context context, String segmentName) {
+        try {
+            repository(context).compactSegment(segmentName);
+        } catch (Exception e) {
+            Log.e(TAG, "Error compacting invoice segment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Looks up one saved invoice by its ID.
+     *
+     * @param context The application context.
+     * @param id The invoice ID, as returned by {@link Invoice#getId()}.
+     * @return The invoice, or null if there is none with that ID.
+     */
+    public static Invoice getInvoice(Context context, long id) {
+        try {
+            return repository(context).get(id);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading invoice: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Replaces one saved invoice, keeping its ID and creation date.
+     *
+     * @param context The application context.
+     * @param id The ID of the invoice to replace.
+     * @param replacement The new content.
+     * @return The saved new version, or null if there is no invoice with that ID.
+     */
+    public static Invoice updateInvoice(Context context, long id, Invoice replacement) {
+        try {
+            return repository(context).update(id, replacement);
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating invoice: " + e.getMessage());
+            return null;
         }
+    }
+
+    /**
+     * Deletes one saved invoice.
+     *
+     * @param context The application context.
+     * @param invoice The {@link Invoice} to delete, as returned by a load.
+     * @return True if the invoice was found and removed.
+     */
+    public static boolean deleteInvoice(Context context, Invoice invoice) {
+        try {
+            return repository(context).remove(invoice);
+        } catch (Exception e) {
+            Log.e(TAG, "Error deleting invoice: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Deletes one saved invoice by its ID.
+     *
+     * @param context The application context.
+     * @param id The invoice ID, as returned by {@link Invoice#getId()}.
+     * @return True if the invoice was found and removed.
+     */
+    public static boolean deleteInvoice(Context context, long id) {
+        try {
+            return repository(context).remove(id);
+        } catch (Exception e) {
+            Log.e(TAG, "Error deleting invoice: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return An executor that runs tasks on the main thread, for the callbacks of the
+     *         asynchronous methods, e.g. {@code future.thenAcceptAsync(result -> ..., mainThread())}.
+     */
+    public static Executor mainThread() {
+        return MAIN_THREAD;
+    }
+
+    /**
+     * Saves a vehicle quote without blocking the caller, see {@link #saveQuote}.
+     *
+     * @param context The application context, used for file I/O.
+     * @param quote The {@link Quote} to save.
+     * @return Completes with true once the quote is visible to loads; the write to disk follows on the same thread.
+     */
+    public static CompletableFuture<Boolean> saveQuoteAsync(final Context context, final Quote quote) {
+        return write(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return saveQuote(context, quote);
+            }
+        });
+    }
+
+    /**
+     * Replaces the entire invoice history without blocking the caller, see {@link #saveAllInvoices}.
+     *
+     * @param context The application context.
+     * @param invoicesToSave The list of {@link Invoice} objects to save.
+     * @return Completes once the new history is visible to loads.
+     */
+    public static CompletableFuture<Void> saveAllInvoicesAsync(final Context context, final List<Invoice> invoicesToSave) {
+        return write(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                saveAllInvoices(context, invoicesToSave);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes one saved invoice without blocking the caller, see {@link #deleteInvoice(Context, long)}.
+     *
+     * @param context The application context.
+     * @param id The invoice ID.
+     * @return Completes with true if the invoice was found and removed.
+     */
+    public static CompletableFuture<Boolean> deleteInvoiceAsync(final Context context, final long id) {
+        return write(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return deleteInvoice(context, id);
+            }
+        });
+    }
+
+    /**
+     * Finds where the recent history starts without blocking the caller, see {@link #recentWindowStart}.
+     *
+     * @param context The application context.
+     * @return Completes with the earliest creation timestamp of the recent history.
+     */
+    public static CompletableFuture<Long> recentWindowStartAsync(final Context context) {
+        return read(context, new Supplier<Long>() {
+            @Override
+            public Long get() {
+                return recentWindowStart(context);
+            }
+        });
+    }
+
+    /**
+     * Reads the customer totals without blocking the caller, see {@link #loadCustomerTotals}.
+     *
+     * @param context The application context.
+     * @param since The earliest creation timestamp to include.
+     * @return Completes with a sorted list of CustomerTotals objects.
+     */
+    public static CompletableFuture<List<CustomerTotals>> loadCustomerTotalsAsync(final Context context, final long since) {
+        return read(context, new Supplier<List<CustomerTotals>>() {
+            @Override
+            public List<CustomerTotals> get() {
+                return loadCustomerTotals(context, since);
+            }
+        });
+    }
 
-        List<CustomerInvoiceSummary> groupedList = new ArrayList<>(groupedMap.values());
+    /**
+     * Checks for older invoices without blocking the caller, see {@link #hasInvoicesBefore}.
+     *
+     * @param context The application context.
+     * @param timestamp A creation timestamp.
+     * @return Completes with true if any invoice older than the timestamp is saved.
+     */
+    public static CompletableFuture<Boolean> hasInvoicesBeforeAsync(final Context context, final long timestamp) {
+        return read(context, new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return hasInvoicesBefore(context, timestamp);
+            }
+        });
+    }
 
-        // Sort the grouped list by Customer Name, then by VIN
-        Collections.sort(groupedList, new Comparator<CustomerInvoiceSummary>() {
+    /**
+     * Groups the invoices created since a given time without blocking the caller, see
+     * {@link #loadRecentGroupedInvoices}. The summaries are built for the caller rather than
+     * shared with the repository, so they can be read on the main thread while saves go on.
+     *
+     * @param context The application context.
+     * @param since The earliest creation timestamp to include, or {@link Long#MIN_VALUE} for the whole history.
+     * @return Completes with a sorted list of CustomerInvoiceSummary objects.
+     */
+    public static CompletableFuture<List<CustomerInvoiceSummary>> loadGroupedInvoicesSinceAsync(final Context context, final long since) {
+        return read(context, new Supplier<List<CustomerInvoiceSummary>>() {
             @Override
-            public int compare(CustomerInvoiceSummary o1, CustomerInvoiceSummary o2) {
-                int nameCompare = o1.getCustomerName().compareToIgnoreCase(o2.getCustomerName());
-                if (nameCompare != 0) {
-                    return nameCompare;
+            public List<CustomerInvoiceSummary> get() {
+                return loadRecentGroupedInvoices(context, since);
+            }
+        });
+    }
+
+    /**
+     * Materializes the invoices of one group without blocking the caller. Groups are loaded
+     * header-only, so this is where the panel details of a group are read from storage, e.g.
+     * when the user expands it.
+     *
+     * @param context The application context.
+     * @param summary A group returned by one of the loads.
+     * @return Completes with the group's invoices, newest first.
+     */
+    public static CompletableFuture<List<Invoice>> loadInvoicesAsync(final Context context, final CustomerInvoiceSummary summary) {
+        return read(context, new Supplier<List<Invoice>>() {
+            @Override
+            public List<Invoice> get() {
+                try {
+                    return new ArrayList<>(summary.getInvoices());
+                } catch (Exception e) {
+                    Log.e(TAG, "Error reading invoices of " + summary.getCustomerName() + ": " + e.getMessage());
+                    return new ArrayList<>();
                 }
-                return o1.getCustomerVIN().compareToIgnoreCase(o2.getCustomerVIN());
             }
         });
+    }
+
+    // Runs a change on the writer thread, after every change and write submitted before it
+    private static <T> CompletableFuture<T> write(Supplier<T> change) {
+        return CompletableFuture.supplyAsync(change, WRITER);
+    }
+
+    // Runs a load on a reader thread; several loads can be in flight at once. Loads wait for the
+    // store to be opened on the writer thread first; if that failed, the load runs on the writer
+    // too, where the open is tried again, so the store is never opened alongside a write.
+    private static <T> CompletableFuture<T> read(Context context, final Supplier<T> load) {
+        return opening(context).thenCompose(new Function<Void, CompletionStage<T>>() {
+            @Override
+            public CompletionStage<T> apply(Void ignored) {
+                return CompletableFuture.supplyAsync(load, opened ? READERS : WRITER);
+            }
+        });
+    }
 
-        return groupedList;
+    // Submits the first open of the store to the writer thread. Not guarded by the class lock,
+    // which the writer holds while it migrates, so the main thread never waits here.
+    private static CompletableFuture<Void> opening(final Context context) {
+        synchronized (OPENING_LOCK) {
+            if (opening == null) {
+                opening = write(new Supplier<Void>() {
+                    @Override
+                    public Void get() {
+                        try {
+                            repository(context);
+                        } catch (Exception e) {
+                            Log.e(TAG, "Error opening invoice history: " + e.getMessage());
+                        }
+                        return null;
+                    }
+                });
+            }
+            return opening;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,145 @@
+package models;
+
+/**
+ * Describes a search over the invoice history. Every criterion is optional; the ones that are set
+ * must all match. Results are returned newest first, and {@link #offset}/{@link #limit} page
+ * through them.
+ *
+ * <pre>
+ * List&lt;Invoice&gt; page = InvoiceManager.queryInvoices(context, new InvoiceQuery()
+ *         .namePrefix("jo")
+ *         .createdBetween(stormStart, stormEnd)
+ *         .panelType(PanelType.HOOD)
+ *         .limit(50));
+ * </pre>
+ */
+public class InvoiceQuery {
+
+    private String vin;
+    private String namePrefix;
+    private long createdFrom = Long.MIN_VALUE;
+    private long createdTo = Long.MAX_VALUE;
+    private PanelType panelType;
+    private Boolean aluminum;
+    private int offset = 0;
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * Only invoices for this VIN, compared ignoring case and surrounding spaces.
+     */
+    public InvoiceQuery vin(String vin) {
+        this.vin = vin;
+        return this;
+    }
+
+    /**
+     * Only invoices whose customer name starts with this text, compared ignoring case.
+     */
+    public InvoiceQuery namePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+        return this;
+    }
+
+    /**
+     * Only invoices created in the given range of epoch milliseconds, both ends inclusive.
+     */
+    public InvoiceQuery createdBetween(long from, long to) {
+        this.createdFrom = from;
+        this.createdTo = to;
+        return this;
+    }
+
+    /**
+     * Only invoices for this panel.
+     */
+    public InvoiceQuery panelType(PanelType panelType) {
+        this.panelType = panelType;
+        return this;
+    }
+
+    /**
+     * Only invoices whose aluminum flag has this value.
+     */
+    public InvoiceQuery aluminum(boolean aluminum) {
+        this.aluminum = aluminum;
+        return this;
+    }
+
+    /**
+     * Skips this many matching invoices before the first one returned.
+     */
+    public InvoiceQuery offset(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative.");
+        }
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Returns at most this many invoices.
+     */
+    public InvoiceQuery limit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative.");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    // Getters
+    public String getVin() {
+        return vin;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public long getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public long getCreatedTo() {
+        return createdTo;
+    }
+
+    public PanelType getPanelType() {
+        return panelType;
+    }
+
+    public Boolean getAluminum() {
+        return aluminum;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Checks an invoice against every criterion except paging.
+     *
+     * @param invoice The invoice to check.
+     * @return True if the invoice matches.
+     */
+    public boolean matches(Invoice invoice) {
+        if (vin != null && !InvoiceIndex.vinKey(vin).equals(InvoiceIndex.vinKey(invoice.getCustomerVIN()))) {
+            return false;
+        }
+        if (namePrefix != null && !InvoiceIndex.nameKey(invoice.getCustomerName()).startsWith(InvoiceIndex.nameKey(namePrefix))) {
+            return false;
+        }
+        long timestamp = invoice.getCreationTimestamp();
+        if (timestamp < createdFrom || timestamp > createdTo) {
+            return false;
+        }
+        if (panelType != null && panelType != PanelType.fromCode(invoice.getPanelType())) {
+            return false;
+        }
+        return aluminum == null || aluminum == invoice.isAluminum();
+    }
+}
@@ -0,0 +1,35 @@
+package models;
+
+/**
+ * A callback that receives the raw records of an {@link InvoiceLog} in file order, before
+ * updates and deletions are applied: every saved invoice together with the offset of the record
+ * holding it, and every tombstone. {@link LiveInvoices} turns these into the current history.
+ */
+public interface InvoiceRecordVisitor {
+
+    /**
+     * Called for each invoice record. A record whose ID was seen before replaces the earlier one.
+     *
+     * @param offset The file offset of the record; the panels of a quote or batch share one offset.
+     * @param invoice The invoice that was just read.
+     */
+    void record(long offset, Invoice invoice);
+
+    /**
+     * Called for each tombstone.
+     *
+     * @param id The ID of the deleted invoice.
+     */
+    void delete(long id);
+
+    /**
+     * Lets a visitor that only needs the header of each invoice (customer, VIN, amount, status,
+     * timestamp and ID) say so. Logs then skip over the panel details instead of decoding them,
+     * and hand over invoices whose panel type and dent size are null.
+     *
+     * @return False to receive header-only invoices.
+     */
+    default boolean needsDetails() {
+        return true;
+    }
+}
@@ -0,0 +1,1023 @@
+package models;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A process-wide, in-memory copy of the invoice history backed by an {@link InvoiceSegmentStore}.
+ * On first use only the recent segments are read; older segments are read the first time a
+ * request reaches back that far, and every later read is served from memory. When several
+ * segments are needed at once they are decoded and grouped in parallel, one task per segment,
+ * and then combined in timestamp order. Saves update the in-memory copy immediately and are
+ * written to the store in order by a single background writer (write-behind), so the UI thread
+ * never waits for the disk.
+ *
+ * The per-customer totals shown when the history screen opens come from the store's summary view
+ * (see {@link #getTotalsSince}), so they are available before any segment has been read.
+ *
+ * Changes made to the segment files by anything other than this repository are detected through
+ * the store's modification stamp: when no writes of our own are pending and the stamp no longer
+ * matches the one recorded after our last write, the loaded history is read again.
+ *
+ * The loaded history is held in an {@link InvoiceColumns} table, one row per invoice, with the
+ * rows of each segment listed in the order they were saved. A {@link CustomerGroupIndex} is kept
+ * alongside it and updated with each change, so the grouped history view never has to regroup or
+ * re-sort everything, and an {@link InvoiceIndex} does the same for searches made with
+ * {@link #query}. Both hold row numbers, so every invoice is stored once, and {@link Invoice}
+ * objects are only built for the invoices a caller actually reads. Rows are never changed: an
+ * update adds a new row, and a reload starts a new table, so summaries and lists handed out
+ * earlier keep reading consistent data. The new row takes the old one's place in each list, and
+ * a removed row is only marked in the lists that keep an order, so neither shifts the rows after
+ * it; the marks are compacted away once they make up half of a list.
+ *
+ * Every change is made under the repository's lock, in one order, and ends by publishing an
+ * immutable {@link Snapshot} of the loaded history: a snapshot of the table (see
+ * {@link InvoiceColumns#snapshot()}), the rows in save order and a copy of the groups. Reads of
+ * the whole history, the groups and the totals are answered from the latest snapshot without
+ * taking the lock whenever it covers the requested time range, so they never wait behind a save
+ * or a segment load, and each one sees the history at a single point in time. Searches and
+ * lookups by ID still take the lock, as the search index is updated in place.
+ *
+ * Every invoice is given its ID when it is added, before it becomes visible. Single invoices are
+ * looked up, updated and deleted by ID; the store records updates and deletions by appending to
+ * the segment rather than rewriting it, and the writer compacts a segment in the background once
+ * its dead records outnumber its live invoices.
+ */
+public class InvoiceRepository {
+
+    /** How far back the history is read when the repository is first used. */
+    public static final long RECENT_WINDOW_MILLIS = 90L * 24 * 60 * 60 * 1000;
+
+    private static final String TAG = "InvoiceRepository";
+
+    private final InvoiceSegmentStore store;
+    private final ExecutorService writer;
+    private final InvoiceColumns.DetailSource detailSource = new InvoiceColumns.DetailSource() {
+        @Override
+        public void fillDetails(InvoiceColumns table, int row) {
+            readDetails(table, row);
+        }
+    };
+
+    // Guarded by this
+    private InvoiceColumns columns = new InvoiceColumns();
+    private final TreeMap<String, IntList> loadedSegments = new TreeMap<>(); // Rows in the order they were saved; ~row once removed
+    private final IntList segmentSlots = new IntList(64); // Index of each row in its segment's list
+    private int removedRows; // Removed rows still marked in the segment lists
+    private final Set<String> headerOnlySegments = new HashSet<>(); // Loaded without panel details
+    private CustomerGroupIndex groups = new CustomerGroupIndex(columns);
+    private InvoiceIndex index = new InvoiceIndex(columns);
+    private boolean opened;
+    private long loadedFrom = Long.MAX_VALUE; // Every segment with invoices at or after this time is loaded
+    private long loadedStamp;
+    private long storeStamp = -1; // Stamp at which the store was opened for its summary view alone
+    private int pendingWrites;
+    private boolean writeFailed;
+    private boolean changed; // The loaded history differs from the published snapshot
+    private IdentityHashMap<CustomerInvoiceSummary, CustomerInvoiceSummary> groupCopies = new IdentityHashMap<>(); // Each group's copy in the snapshot
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    /**
+     * The loaded history at one point in time, published after every change for readers that do
+     * not take the lock. Nothing in it changes after it is published.
+     */
+    private static final class Snapshot {
+        final InvoiceColumns table;
+        final int[] rows; // Live rows in the order they were saved
+        final List<CustomerInvoiceSummary> groups; // Sorted by customer name and then VIN
+        final long loadedFrom;
+        final boolean complete; // No live row is header-only
+        final long stamp; // Store stamp the history matches once no writes are pending
+        final boolean pending;
+
+        Snapshot(InvoiceColumns table, int[] rows, List<CustomerInvoiceSummary> groups, long loadedFrom,
+                 boolean complete, long stamp, boolean pending) {
+            this.table = table;
+            this.rows = rows;
+            this.groups = groups;
+            this.loadedFrom = loadedFrom;
+            this.complete = complete;
+            this.stamp = stamp;
+            this.pending = pending;
+        }
+
+        Snapshot withStamp(long stamp, boolean pending) {
+            return new Snapshot(table, rows, groups, loadedFrom, complete, stamp, pending);
+        }
+
+        List<Invoice> all() {
+            List<Invoice> all = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                all.add(table.get(row));
+            }
+            return Collections.unmodifiableList(all);
+        }
+
+        void forEach(InvoiceVisitor visitor) {
+            for (int row : rows) {
+                visitor.visit(table.get(row));
+            }
+        }
+
+        List<CustomerInvoiceSummary> groupsSince(long since) {
+            List<CustomerInvoiceSummary> recent = new ArrayList<>(groups.size());
+            for (CustomerInvoiceSummary group : groups) {
+                CustomerInvoiceSummary copy = group.copy(table, since);
+                if (copy.getInvoiceCount() > 0) {
+                    recent.add(copy);
+                }
+            }
+            return recent;
+        }
+
+        List<CustomerTotals> totalsSince(long since) {
+            List<CustomerTotals> totals = new ArrayList<>(groups.size());
+            for (CustomerInvoiceSummary group : since == Long.MIN_VALUE ? groups : groupsSince(since)) {
+                totals.add(CustomerTotals.of(group));
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * @param store The segment store holding the persisted history.
+     */
+    public InvoiceRepository(InvoiceSegmentStore store) {
+        this(store, newWriter());
+    }
+
+    /**
+     * @param store The segment store holding the persisted history.
+     * @param writer The executor the store is written on. It must run one task at a time, in the
+     *               order they were submitted, and may be shared with callers that want their
+     *               changes serialized with the writes; such tasks must not call {@link #flush()}.
+     */
+    public InvoiceRepository(InvoiceSegmentStore store, ExecutorService writer) {
+        this.store = store;
+        this.writer = writer;
+        columns.setDetailSource(detailSource);
+    }
+
+    /**
+     * @return A new single-thread executor suitable as the writer of a repository.
+     */
+    public static ExecutorService newWriter() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "invoice-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public File getDirectory() {
+        return store.getDirectory();
+    }
+
+    /**
+     * Returns every invoice, in the order they were saved. Segments not read yet are read first.
+     *
+     * @return An unmodifiable snapshot of the history, materialized from the loaded rows.
+     */
+    public List<Invoice> getAll() {
+        return everything().all();
+    }
+
+    /**
+     * Hands every invoice to a visitor, in the order they were saved, by walking the rows of the
+     * current snapshot in place. Only one {@link Invoice} is materialized at a time, and none is
+     * kept. Segments not read yet are read first.
+     *
+     * @param visitor Receives each invoice.
+     */
+    public void forEach(InvoiceVisitor visitor) {
+        everything().forEach(visitor);
+    }
+
+    // A snapshot of the whole history with every panel detail, loading what is missing first
+    private Snapshot everything() {
+        Snapshot current = current(Long.MIN_VALUE, true);
+        if (current == null) {
+            synchronized (this) {
+                ensureFresh();
+                loadFrom(Long.MIN_VALUE, true);
+                current = publish();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the whole history grouped by customer and vehicle. The summaries are a snapshot
+     * shared between readers: they are not updated as invoices are added or removed, and must
+     * not be changed.
+     *
+     * @return The groups, sorted by customer name and then VIN.
+     */
+    public List<CustomerInvoiceSummary> getGroups() {
+        Snapshot current = current(Long.MIN_VALUE, false);
+        if (current == null) {
+            synchronized (this) {
+                ensureFresh(false);
+                loadFrom(Long.MIN_VALUE, false);
+                current = publish();
+            }
+        }
+        return new ArrayList<>(current.groups);
+    }
+
+    /**
+     * Groups only the invoices created since a given time. Only the segments that can hold such
+     * invoices are read.
+     *
+     * @param since The earliest creation timestamp to include.
+     * @return New summaries for the recent invoices, sorted by customer name and then VIN.
+     */
+    public List<CustomerInvoiceSummary> getGroupsSince(long since) {
+        Snapshot current = current(since, false);
+        if (current == null) {
+            synchronized (this) {
+                ensureFresh(false);
+                loadFrom(since, false);
+                current = publish();
+            }
+        }
+        return current.groupsSince(since);
+    }
+
+    /**
+     * Returns the totals of every customer and vehicle for the invoices created since a given
+     * time. Once the segments covering that time are loaded they are counted from the groups of
+     * the latest snapshot; until then they are read from the store's summary view, so no invoice
+     * is read or loaded.
+     *
+     * @param since The earliest creation timestamp to include. The totals match
+     *              {@link #getGroupsSince} exactly when this is a segment boundary, see
+     *              {@link #segmentStartFor}, or {@link Long#MIN_VALUE}.
+     * @return The totals, sorted by customer name and then VIN.
+     */
+    public List<CustomerTotals> getTotalsSince(long since) {
+        Snapshot current = current(since, false);
+        if (current != null) {
+            return current.totalsSince(since);
+        }
+        synchronized (this) {
+            if (!opened) {
+                openStore();
+                return store.getTotalsSince(since);
+            }
+            ensureFresh(false);
+            if (pendingWrites == 0) {
+                return store.getTotalsSince(since);
+            }
+            loadFrom(since, false); // Saves still waiting to be written are only in memory
+            current = publish();
+        }
+        return current.totalsSince(since);
+    }
+
+    /**
+     * @param timestamp A creation timestamp.
+     * @return The first millisecond of the store segment covering that time.
+     */
+    public synchronized long segmentStartFor(long timestamp) {
+        if (!opened) {
+            openStore(); // The manifest decides the segment period
+        }
+        return store.segmentStartFor(timestamp);
+    }
+
+    /**
+     * @param timestamp A creation timestamp.
+     * @return True if any saved invoice was created before the timestamp, whether or not its
+     *         segment has been read.
+     */
+    public synchronized boolean hasInvoicesBefore(long timestamp) {
+        if (opened) {
+            ensureFresh(false);
+        } else {
+            openStore();
+        }
+        for (InvoiceSegment segment : store.getSegments()) {
+            if (segment.getCount() > 0 && segment.getMinTimestamp() < timestamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the invoices matching a query using the maintained secondary indexes. Older segments
+     * are only read if the query's time range reaches them.
+     *
+     * @param query The criteria and paging to apply.
+     * @return The matching invoices, newest first.
+     */
+    public synchronized List<Invoice> query(InvoiceQuery query) {
+        ensureFresh();
+        loadFrom(query.getCreatedFrom(), true);
+        publish();
+        return index.query(query);
+    }
+
+    /**
+     * Looks up one invoice by ID. If its segment has not been read, only its record is read.
+     *
+     * @param id The invoice ID.
+     * @return The invoice, or null if there is none with that ID.
+     */
+    public synchronized Invoice get(long id) {
+        ensureFresh();
+        Invoice invoice = index.get(id);
+        if (invoice == null && loadedFrom != Long.MIN_VALUE) {
+            try {
+                invoice = store.get(id);
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading invoice " + id + ": " + e.getMessage());
+            }
+        }
+        return invoice;
+    }
+
+    /**
+     * Adds one invoice. It is given an ID, is visible to readers immediately and is appended to
+     * its segment in the background.
+     *
+     * @param invoice The invoice to add.
+     */
+    public synchronized void add(final Invoice invoice) {
+        ensureFresh();
+        if (invoice.getId() == 0) {
+            invoice.setId(store.allocateIds(1));
+        }
+        IntList segment = segment(store.segmentNameFor(invoice.getCreationTimestamp()));
+        int row = columns.add(invoice);
+        segmentSlots.put(row, segment.size());
+        segment.add(row);
+        groups.addRow(row);
+        index.addRow(row);
+        changed = true;
+        submitWrite(new Write() {
+            @Override
+            public void run() throws Exception {
+                store.append(invoice);
+            }
+        });
+        publish();
+    }
+
+    /**
+     * Adds several invoices, typically every panel of one vehicle quote. They become visible
+     * together and are appended in the background as one atomic batch, in the segment of the
+     * first invoice.
+     *
+     * @param newInvoices The invoices to add.
+     */
+    public synchronized void addAll(Collection<Invoice> newInvoices) {
+        if (newInvoices.isEmpty()) {
+            return;
+        }
+        ensureFresh();
+        final List<Invoice> batch = new ArrayList<>(newInvoices);
+        assignIds(batch);
+        addRows(segment(store.segmentNameFor(batch.get(0).getCreationTimestamp())), batch, true);
+        submitWrite(new Write() {
+            @Override
+            public void run() throws Exception {
+                store.appendBatch(batch);
+            }
+        });
+        publish();
+    }
+
+    /**
+     * Adds a vehicle quote. Its panels become visible together as invoices and the quote is
+     * appended in the background as one record, with its header stored once.
+     *
+     * @param quote The quote to add.
+     */
+    public synchronized void addQuote(Quote quote) {
+        ensureFresh();
+        final Quote numbered = quote.getFirstId() != 0 ? quote : quote.withFirstId(store.allocateIds(quote.getLineCount()));
+        addRows(segment(store.segmentNameFor(numbered.getCreationTimestamp())), numbered.toInvoices(), true);
+        submitWrite(new Write() {
+            @Override
+            public void run() throws Exception {
+                store.appendQuote(numbered);
+            }
+        });
+        publish();
+    }
+
+    /**
+     * Replaces one saved invoice with a new version. The new version keeps the ID and creation
+     * timestamp of the saved one, and is appended to its segment in the background.
+     *
+     * @param id The ID of the invoice to replace.
+     * @param replacement The new content.
+     * @return The saved new version, or null if there is no invoice with that ID.
+     */
+    public synchronized Invoice update(long id, Invoice replacement) {
+        Invoice previous = get(id);
+        if (previous == null) {
+            return null;
+        }
+        final Invoice updated = replacement.withIdentity(id, previous.getCreationTimestamp());
+        int row = index.rowOf(id);
+        if (row >= 0) {
+            int updatedRow = columns.add(updated);
+            IntList rows = segmentOf(row);
+            if (rows != null) {
+                rows.set(segmentSlots.get(row), updatedRow);
+                segmentSlots.put(updatedRow, segmentSlots.get(row));
+            }
+            groups.replaceRow(row, updatedRow);
+            index.replaceRow(row, updatedRow);
+            changed = true;
+        }
+        submitWrite(new Write() {
+            @Override
+            public void run() throws Exception {
+                if (!store.update(updated)) {
+                    Log.w(TAG, "Invoice " + updated.getId() + " to update was not found in the store.");
+                }
+                compactWhereNeeded();
+            }
+        });
+        publish();
+        return updated;
+    }
+
+    /**
+     * Removes one saved invoice. A tombstone is appended to the segment holding it, in the
+     * background; the segment is not rewritten.
+     *
+     * @param invoice The invoice to remove, as returned by this repository.
+     * @return True if the invoice was found.
+     */
+    public synchronized boolean remove(Invoice invoice) {
+        ensureFresh();
+        int row = index.rowOf(invoice.getId());
+        return row >= 0 && removeRow(row);
+    }
+
+    private boolean removeRow(int row) {
+        IntList rows = segmentOf(row);
+        if (rows == null) {
+            return false;
+        }
+        rows.set(segmentSlots.get(row), ~row);
+        if (++removedRows * 2 > loadedRowCount()) {
+            compactSegments();
+        }
+        groups.removeRow(row);
+        index.removeRow(row);
+        changed = true;
+        submitDelete(columns.getId(row));
+        return true;
+    }
+
+    /**
+     * Removes one saved invoice by ID. If its segment has not been read, only a tombstone is
+     * written; nothing is loaded into memory.
+     *
+     * @param id The invoice ID.
+     * @return True if the invoice was found.
+     */
+    public synchronized boolean remove(long id) {
+        ensureFresh();
+        int row = index.rowOf(id);
+        if (row >= 0) {
+            return removeRow(row);
+        }
+        if (get(id) == null) {
+            return false;
+        }
+        submitDelete(id);
+        return true;
+    }
+
+    // The loaded segment listing the row, found through its slot without searching the list
+    private IntList segmentOf(int row) {
+        int slot = row < segmentSlots.size() ? segmentSlots.get(row) : -1;
+        if (slot < 0) {
+            return null;
+        }
+        IntList rows = loadedSegments.get(store.segmentNameFor(columns.getCreationTimestamp(row)));
+        if (rows != null && slot < rows.size() && rows.get(slot) == row) {
+            return rows;
+        }
+        // A batch lives in the segment of its first invoice, which may be a neighbouring one
+        for (IntList other : loadedSegments.values()) {
+            if (slot < other.size() && other.get(slot) == row) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    private int loadedRowCount() {
+        int count = 0;
+        for (IntList rows : loadedSegments.values()) {
+            count += rows.size();
+        }
+        return count;
+    }
+
+    // Drops the marks of removed rows from the segment lists and records the rows' new places
+    private void compactSegments() {
+        for (IntList rows : loadedSegments.values()) {
+            rows.removeNegatives();
+            for (int i = 0; i < rows.size(); i++) {
+                segmentSlots.put(rows.get(i), i);
+            }
+        }
+        removedRows = 0;
+    }
+
+    private void submitDelete(final long id) {
+        submitWrite(new Write() {
+            @Override
+            public void run() throws Exception {
+                if (!store.delete(id)) {
+                    Log.w(TAG, "Invoice " + id + " to delete was not found in the store.");
+                }
+                compactWhereNeeded();
+            }
+        });
+        publish();
+    }
+
+    // Runs on the writer after updates and deletions, the only writes that leave dead records behind
+    private void compactWhereNeeded() throws Exception {
+        long reclaimed = store.compactWhereNeeded();
+        if (reclaimed > 0) {
+            Log.d(TAG, "Compacted invoice segments, reclaimed " + reclaimed + " bytes.");
+        }
+    }
+
+    /**
+     * Replaces the whole history. The segments are rewritten in the background.
+     *
+     * @param replacement The invoices the history should contain.
+     */
+    public synchronized void replaceAll(List<Invoice> replacement) {
+        final List<Invoice> snapshot = new ArrayList<>(replacement);
+        assignIds(snapshot);
+        resetMemory();
+        for (Map.Entry<String, List<Invoice>> entry : store.partition(snapshot).entrySet()) {
+            IntList rows = new IntList(entry.getValue().size());
+            loadedSegments.put(entry.getKey(), rows);
+            addRows(rows, entry.getValue(), true);
+        }
+        opened = true;
+        loadedFrom = Long.MIN_VALUE;
+        submitWrite(new Write() {
+            @Override
+            public void run() throws Exception {
+                store.replaceAll(snapshot);
+            }
+        });
+        publish();
+    }
+
+    /**
+     * Applies the retention policy: every segment whose newest invoice is older than the cutoff
+     * is deleted as a whole. Newer segments are not touched.
+     *
+     * @param cutoff The creation timestamp before which whole segments are discarded.
+     * @return The number of segments deleted.
+     */
+    public synchronized int dropSegmentsBefore(long cutoff) {
+        ensureFresh();
+        final List<String> expired = new ArrayList<>();
+        for (InvoiceSegment segment : store.getSegments()) {
+            if (segment.getMaxTimestamp() < cutoff && !hasNewerLoadedInvoice(segment.getName(), cutoff)) {
+                expired.add(segment.getName());
+            }
+        }
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        for (String name : expired) {
+            loadedSegments.remove(name);
+            headerOnlySegments.remove(name);
+        }
+        rebuildIndexes();
+        submitWrite(new Write() {
+            @Override
+            public void run() throws Exception {
+                for (String name : expired) {
+                    store.deleteSegment(name);
+                }
+            }
+        });
+        publish();
+        return expired.size();
+    }
+
+    /**
+     * Compacts one segment in the background, dropping records left unreadable by interrupted
+     * writes. The invoices it holds do not change.
+     *
+     * @param name The segment name.
+     */
+    public void compactSegment(final String name) {
+        synchronized (this) {
+            submitWrite(new Write() {
+                @Override
+                public void run() throws Exception {
+                    long reclaimed = store.compact(name);
+                    Log.d(TAG, "Compacted segment " + name + ", reclaimed " + reclaimed + " bytes.");
+                }
+            });
+            publish();
+        }
+    }
+
+    /**
+     * Blocks until every write submitted so far has reached the store.
+     */
+    public void flush() {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Runs after every write queued before it
+                }
+            }).get();
+        } catch (Exception e) {
+            Log.e(TAG, "Error waiting for pending writes: " + e.getMessage());
+        }
+    }
+
+    private interface Write {
+        void run() throws Exception;
+    }
+
+    private void submitWrite(final Write write) {
+        pendingWrites++;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean succeeded = false;
+                try {
+                    write.run();
+                    succeeded = true;
+                } catch (Exception e) {
+                    Log.e(TAG, "Error writing invoices: " + e.getMessage());
+                } finally {
+                    writeFinished(succeeded);
+                }
+            }
+        });
+    }
+
+    private synchronized void writeFinished(boolean succeeded) {
+        pendingWrites--;
+        writeFailed |= !succeeded;
+        if (pendingWrites == 0) {
+            // A failed write leaves memory ahead of the files; reload what actually got saved
+            loadedStamp = writeFailed ? -1 : store.stamp();
+            writeFailed = false;
+        }
+        publish();
+    }
+
+    // The latest snapshot, if it covers the time range (and has every panel detail, if asked) and
+    // the files have not been changed by anyone else since it was published. Called without the lock.
+    private Snapshot current(long from, boolean details) {
+        Snapshot current = snapshot.get();
+        if (current == null || current.loadedFrom > from || (details && !current.complete)) {
+            return null;
+        }
+        return current.pending || store.stamp() == current.stamp ? current : null;
+    }
+
+    // Publishes the loaded history for readers that do not take the lock. The table is shared with
+    // the snapshot rather than copied, and so are the copies of groups that have not changed since
+    // the last snapshot, which read rows an earlier snapshot of the table holds just the same; the
+    // rows and the changed groups are copied. Called at the end of every change, and by reads that
+    // had to load segments first.
+    private Snapshot publish() {
+        Snapshot current = snapshot.get();
+        if (current == null || changed) {
+            InvoiceColumns table = columns.snapshot();
+            int[] rows = new int[loadedRowCount() - removedRows];
+            int next = 0;
+            for (IntList segment : loadedSegments.values()) {
+                for (int i = 0; i < segment.size(); i++) {
+                    if (segment.get(i) >= 0) {
+                        rows[next++] = segment.get(i);
+                    }
+                }
+            }
+            IdentityHashMap<CustomerInvoiceSummary, CustomerInvoiceSummary> copies = new IdentityHashMap<>(groups.size());
+            List<CustomerInvoiceSummary> frozen = new ArrayList<>(groups.size());
+            for (CustomerInvoiceSummary group : groups.getGroups()) {
+                CustomerInvoiceSummary copy = groupCopies.get(group);
+                if (copy == null || copy.getVersion() != group.getVersion()) {
+                    copy = group.copy(table, Long.MIN_VALUE);
+                }
+                copies.put(group, copy);
+                frozen.add(copy);
+            }
+            groupCopies = copies;
+            current = new Snapshot(table, rows, Collections.unmodifiableList(frozen), loadedFrom,
+                    headerOnlySegments.isEmpty(), loadedStamp, pendingWrites > 0);
+            changed = false;
+        } else if (current.stamp != loadedStamp || current.pending != pendingWrites > 0) {
+            current = current.withStamp(loadedStamp, pendingWrites > 0);
+        } else {
+            return current;
+        }
+        snapshot.set(current);
+        return current;
+    }
+
+    private void ensureFresh() {
+        ensureFresh(true);
+    }
+
+    // A reload reads only the invoice headers when the caller does not need the panel details
+    private void ensureFresh(boolean details) {
+        if (opened && (pendingWrites > 0 || store.stamp() == loadedStamp)) {
+            return;
+        }
+        long horizon = opened ? loadedFrom : System.currentTimeMillis() - RECENT_WINDOW_MILLIS;
+        if (opened || store.stamp() != storeStamp) {
+            try {
+                store.open();
+            } catch (Exception e) {
+                Log.e(TAG, "Error opening invoice segments: " + e.getMessage());
+            }
+        }
+        resetMemory();
+        loadedFrom = Long.MAX_VALUE;
+        loadedStamp = store.stamp();
+        opened = true;
+        loadFrom(horizon, details);
+    }
+
+    // Reads the manifest and summary view without loading any invoices, unless that was already
+    // done and the files have not changed since. Only used while nothing is loaded.
+    private void openStore() {
+        if (store.stamp() == storeStamp) {
+            return;
+        }
+        try {
+            store.open();
+        } catch (Exception e) {
+            Log.e(TAG, "Error opening invoice segments: " + e.getMessage());
+        }
+        storeStamp = store.stamp();
+    }
+
+    // Reads every segment that can hold invoices created at or after the given time. Without
+    // details only the invoice headers are decoded; with them, segments loaded that way earlier
+    // are read again in full first.
+    private void loadFrom(long from, boolean details) {
+        if (details) {
+            completeDetails();
+        }
+        if (from >= loadedFrom) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (InvoiceSegment segment : store.getSegments()) {
+            if (!loadedSegments.containsKey(segment.getName()) && segment.getMaxTimestamp() >= from) {
+                names.add(segment.getName());
+            }
+        }
+        if (names.size() > 1 ? loadInParallel(names, details) : loadEach(names, details)) {
+            loadedFrom = from;
+        }
+        changed = true;
+    }
+
+    private void completeDetails() {
+        if (headerOnlySegments.isEmpty()) {
+            return;
+        }
+        List<String> names = new ArrayList<>(headerOnlySegments);
+        try {
+            for (List<Invoice> invoices : store.readAll(names, true)) {
+                for (Invoice invoice : invoices) {
+                    // Rows updated or deleted since are no longer indexed under the ID
+                    int row = index.rowOf(invoice.getId());
+                    if (row >= 0 && !columns.hasDetails(row)) {
+                        columns.fill(row, invoice);
+                    }
+                }
+            }
+            headerOnlySegments.clear();
+            groupCopies.clear(); // Their snapshots of the table still lack the details
+            changed = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading invoice details: " + e.getMessage());
+        }
+    }
+
+    // Fills in a header-only row, and the other panels saved in the same record, with one seek. The
+    // table may be a snapshot; the live rows of the record are then filled in too, and a snapshot
+    // of the current table shares their row numbers.
+    private synchronized void readDetails(InvoiceColumns table, int row) {
+        if (table.hasDetails(row)) {
+            return; // Filled in by another thread meanwhile
+        }
+        long id = table.getId(row);
+        try {
+            for (Invoice invoice : store.readRecord(id)) {
+                int live = index.rowOf(invoice.getId());
+                int target = invoice.getId() == id ? row : live;
+                if (table != columns) {
+                    if (live >= 0 && !columns.hasDetails(live)) {
+                        columns.fill(live, invoice);
+                    }
+                    if (target >= table.size() || (target >= 0 && table.getId(target) != invoice.getId())) {
+                        target = -1; // A snapshot of an earlier table
+                    }
+                }
+                if (target >= 0 && !table.hasDetails(target)) {
+                    table.fill(target, invoice);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading details of invoice " + id + ": " + e.getMessage());
+        }
+        if (!table.hasDetails(row)) {
+            Log.w(TAG, "No saved details for invoice " + id);
+        }
+    }
+
+    // Decodes the segments on the fork-join pool, one task per segment, each storing its invoices in
+    // a table of its own grouped into a partial index. The partial tables are then appended oldest
+    // segment first, their groups combined, and all the new rows merged into the search index at
+    // once. Falls back to reading one segment at a time if anything fails.
+    private boolean loadInParallel(List<String> names, final boolean details) {
+        List<CustomerGroupIndex> partials;
+        try {
+            List<List<Invoice>> decoded = store.readAll(names, details);
+            List<Callable<CustomerGroupIndex>> tasks = new ArrayList<>(decoded.size());
+            for (final List<Invoice> invoices : decoded) {
+                tasks.add(new Callable<CustomerGroupIndex>() {
+                    @Override
+                    public CustomerGroupIndex call() {
+                        InvoiceColumns table = new InvoiceColumns(invoices.size());
+                        CustomerGroupIndex partial = new CustomerGroupIndex(table);
+                        partial.addRows(table.addAll(invoices, details));
+                        return partial;
+                    }
+                });
+            }
+            partials = ParallelTasks.invokeAll(tasks);
+        } catch (Exception e) {
+            Log.w(TAG, "Parallel load failed, reading segments one at a time: " + e.getMessage());
+            return loadEach(names, details);
+        }
+        IntList added = new IntList(64);
+        for (int i = 0; i < names.size(); i++) {
+            CustomerGroupIndex partial = partials.get(i);
+            int count = partial.getColumns().size();
+            int offset = columns.append(partial.getColumns());
+            IntList rows = new IntList(count + 1);
+            for (int row = offset; row < offset + count; row++) {
+                segmentSlots.put(row, rows.size());
+                rows.add(row);
+            }
+            loadedSegments.put(names.get(i), rows);
+            if (!details) {
+                headerOnlySegments.add(names.get(i));
+            }
+            groups.merge(partial, offset);
+            added.addAll(rows);
+            Log.d(TAG, "Segment " + names.get(i) + " loaded. Count: " + count);
+        }
+        index.addRows(added);
+        return true;
+    }
+
+    private boolean loadEach(List<String> names, boolean details) {
+        boolean complete = true;
+        for (String name : names) {
+            try {
+                List<Invoice> invoices = store.readAll(Collections.singletonList(name), details).get(0);
+                IntList rows = new IntList(invoices.size());
+                loadedSegments.put(name, rows);
+                if (!details) {
+                    headerOnlySegments.add(name);
+                }
+                addRows(rows, invoices, details);
+                Log.d(TAG, "Segment " + name + " loaded. Count: " + invoices.size());
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading segment " + name + ": " + e.getMessage());
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    // Returns the in-memory rows of a segment about to be written to, reading it first if needed
+    private IntList segment(String name) {
+        IntList rows = loadedSegments.get(name);
+        if (rows == null) {
+            List<Invoice> invoices;
+            try {
+                invoices = store.read(name);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading segment " + name + ": " + e.getMessage());
+                invoices = new ArrayList<>();
+            }
+            rows = new IntList(invoices.size() + 1);
+            loadedSegments.put(name, rows);
+            addRows(rows, invoices, true);
+        }
+        return rows;
+    }
+
+    // Stores invoices as new rows, appends them to a segment's rows and indexes them
+    private void addRows(IntList segment, List<Invoice> invoices, boolean details) {
+        IntList rows = columns.addAll(invoices, details);
+        for (int i = 0; i < rows.size(); i++) {
+            segmentSlots.put(rows.get(i), segment.size() + i);
+        }
+        segment.addAll(rows);
+        groups.addRows(rows);
+        index.addRows(rows);
+        changed = true;
+    }
+
+    private boolean hasNewerLoadedInvoice(String name, long cutoff) {
+        IntList rows = loadedSegments.get(name);
+        if (rows != null) {
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i) >= 0 && columns.getCreationTimestamp(rows.get(i)) >= cutoff) {
+                    return true; // Added since the store's statistics were last written
+                }
+            }
+        }
+        return false;
+    }
+
+    // Starts a new table rather than clearing the old one, which summaries handed out may still read
+    private void resetMemory() {
+        columns = new InvoiceColumns();
+        columns.setDetailSource(detailSource);
+        loadedSegments.clear();
+        segmentSlots.clear();
+        removedRows = 0;
+        headerOnlySegments.clear();
+        groups = new CustomerGroupIndex(columns);
+        index = new InvoiceIndex(columns);
+        groupCopies.clear();
+        changed = true;
+    }
+
+    private void rebuildIndexes() {
+        compactSegments();
+        groups = new CustomerGroupIndex(columns);
+        index = new InvoiceIndex(columns);
+        for (IntList rows : loadedSegments.values()) {
+            groups.addRows(rows);
+            index.addRows(rows);
+        }
+        changed = true;
+    }
+
+    // Numbers the invoices that have no ID yet with one block of new IDs
+    private void assignIds(List<Invoice> invoices) {
+        int missing = 0;
+        for (Invoice invoice : invoices) {
+            if (invoice.getId() == 0) {
+                missing++;
+            }
+        }
+        if (missing == 0) {
+            return;
+        }
+        long next = store.allocateIds(missing);
+        for (Invoice invoice : invoices) {
+            if (invoice.getId() == 0) {
+                invoice.setId(next++);
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package models;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One time-partitioned file of the invoice history, together with the statistics recorded for it
+ * in the segment manifest: how many invoices it holds, the range of their creation timestamps and
+ * IDs, and the file length those statistics were taken at. The statistics let a reader decide
+ * whether a segment is relevant without opening it.
+ *
+ * Once the segment has been read, it also keeps a primitive index from invoice ID to the offset of
+ * the record holding it, so a single invoice can be read back without scanning the file.
+ *
+ * The recorded length doubles as a checkpoint: everything before it was checked when it was
+ * written, and a CRC32 of the last bytes before it tells whether that part of the file is still
+ * the one the statistics describe. After a crash, only the records past the checkpoint are read
+ * and checked (see {@link #recoverTail()}). The statistics also count dead records, superseded
+ * versions and tombstones, so the store knows when a segment is worth compacting.
+ */
+public class InvoiceSegment {
+
+    /** Fewer dead records than this are never worth a compaction. */
+    static final int COMPACT_MIN_DEAD_RECORDS = 32;
+    private static final int CHECKPOINT_BYTES = 64;
+    private static final String TAG = "InvoiceSegment";
+
+    private final String name;
+    private final SegmentFormat format;
+    private final InvoiceLog log;
+    private int count;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private long minId = Long.MAX_VALUE;
+    private long maxId = 0;
+    private int dead;
+    private long length;
+    private long checkpointCrc = -1; // CRC32 of the bytes just before length, or -1 if unknown
+    private LongLongMap offsets; // ID to record offset; null until the segment is read
+
+    InvoiceSegment(File directory, String name, SegmentFormat format) {
+        this.name = name;
+        this.format = format;
+        this.log = format.open(new File(directory, name + format.getExtension()));
+    }
+
+    /**
+     * Restores a segment from its manifest entry.
+     *
+     * @param directory The directory holding the segment files.
+     * @param json The manifest entry.
+     * @return The segment.
+     * @throws JSONException If the entry is missing fields.
+     */
+    static InvoiceSegment fromJson(File directory, JSONObject json) throws JSONException {
+        SegmentFormat format;
+        try {
+            format = SegmentFormat.valueOf(json.optString("format", SegmentFormat.JSON_LINES.name()));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Unknown segment format: " + json.optString("format"));
+        }
+        InvoiceSegment segment = new InvoiceSegment(directory, json.getString("name"), format);
+        segment.count = json.getInt("count");
+        segment.minTimestamp = json.getLong("minTimestamp");
+        segment.maxTimestamp = json.getLong("maxTimestamp");
+        segment.length = json.getLong("length");
+        segment.minId = json.optLong("minId", Long.MAX_VALUE); // Manifests written before invoice IDs have no range
+        segment.maxId = json.optLong("maxId", 0);
+        segment.dead = json.optInt("dead", 0);
+        segment.checkpointCrc = json.optLong("checkpointCrc", -1);
+        return segment;
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("name", name);
+        json.put("format", format.name());
+        json.put("count", count);
+        json.put("minTimestamp", minTimestamp);
+        json.put("maxTimestamp", maxTimestamp);
+        json.put("minId", minId);
+        json.put("maxId", maxId);
+        json.put("dead", dead);
+        json.put("length", length);
+        json.put("checkpointCrc", checkpointCrc);
+        return json;
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public SegmentFormat getFormat() {
+        return format;
+    }
+
+    public File getFile() {
+        return log.getFile();
+    }
+
+    InvoiceLog getLog() {
+        return log;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    long getCheckpointCrc() {
+        return checkpointCrc;
+    }
+
+    /**
+     * @param id An invoice ID.
+     * @return True if the ID is within the range of IDs saved in this segment.
+     */
+    boolean mayContain(long id) {
+        return id >= minId && id <= maxId;
+    }
+
+    /**
+     * @return True if at least {@link #COMPACT_MIN_DEAD_RECORDS} records are dead and they are at
+     *         least as many as the live invoices, so a compaction would at least halve the file.
+     */
+    boolean needsCompaction() {
+        return dead >= COMPACT_MIN_DEAD_RECORDS && dead >= count;
+    }
+
+    /**
+     * @return True if the file changed size since its statistics were recorded, e.g. because the
+     *         app stopped between appending to the segment and updating the manifest.
+     */
+    boolean isStale() {
+        return log.getFile().length() != length;
+    }
+
+    void record(Invoice invoice, long offset) {
+        count++;
+        minTimestamp = Math.min(minTimestamp, invoice.getCreationTimestamp());
+        maxTimestamp = Math.max(maxTimestamp, invoice.getCreationTimestamp());
+        if (invoice.getId() != 0) {
+            minId = Math.min(minId, invoice.getId());
+            maxId = Math.max(maxId, invoice.getId());
+            if (offsets != null) {
+                offsets.put(invoice.getId(), offset);
+            }
+        }
+    }
+
+    /**
+     * Records that an invoice was replaced by a new record. The count stays the same.
+     */
+    void recordUpdate(Invoice invoice, long offset) {
+        count--;
+        dead++;
+        record(invoice, offset);
+    }
+
+    /**
+     * Records a tombstone. The timestamp and ID ranges are left as they are, so they may be wider
+     * than the live invoices until the segment is rescanned.
+     */
+    void recordDelete(long id) {
+        count--;
+        dead += 2; // The deleted record and the tombstone
+        if (offsets != null) {
+            offsets.remove(id, -1);
+        }
+    }
+
+    /**
+     * Moves the checkpoint to the current end of the file, after a write has been flushed.
+     *
+     * @throws IOException If the end of the file cannot be read.
+     */
+    void recordLength() throws IOException {
+        length = log.getFile().length();
+        checkpointCrc = checksumBefore(length);
+    }
+
+    /**
+     * Brings the statistics up to date after records were appended past the checkpoint without
+     * the manifest being updated, reading only those records. Each is checked against its
+     * checksum, and an incomplete record left at the end of the file is cut off.
+     *
+     * @return False if the tail cannot be applied on its own and the segment must be rescanned:
+     *         the file is shorter than the checkpoint, the bytes before the checkpoint changed, or
+     *         the tail updates or deletes an invoice saved before it.
+     * @throws IOException If the file cannot be read or truncated.
+     */
+    boolean recoverTail() throws IOException {
+        File file = log.getFile();
+        if (checkpointCrc < 0 || file.length() < length || checksumBefore(length) != checkpointCrc) {
+            return false;
+        }
+        final LiveInvoices tail = new LiveInvoices();
+        final boolean[] touchesHistory = {false};
+        long end = log.scan(length, new InvoiceRecordVisitor() {
+            @Override
+            public void record(long offset, Invoice invoice) {
+                if (invoice.getId() == 0 || mayContain(invoice.getId())) {
+                    touchesHistory[0] = true;
+                } else {
+                    tail.record(offset, invoice);
+                }
+            }
+
+            @Override
+            public void delete(long id) {
+                if (tail.isLive(id)) {
+                    tail.delete(id);
+                } else {
+                    touchesHistory[0] = true;
+                }
+            }
+        });
+        if (touchesHistory[0]) {
+            return false;
+        }
+        LongLongMap tailOffsets = tail.getOffsets();
+        for (Invoice invoice : tail.toList()) {
+            record(invoice, tailOffsets.get(invoice.getId(), -1));
+        }
+        dead += tail.getDeadRecords();
+        if (end < file.length()) {
+            Log.w(TAG, "Dropping " + (file.length() - end) + " bytes of an incomplete record in " + file.getName());
+            log.truncate(end);
+        }
+        recordLength();
+        return true;
+    }
+
+    private long checksumBefore(long end) throws IOException {
+        CRC32 crc = new CRC32();
+        int span = (int) Math.min(end, CHECKPOINT_BYTES);
+        if (span > 0) {
+            byte[] bytes = new byte[span];
+            try (RandomAccessFile raf = new RandomAccessFile(log.getFile(), "r")) {
+                raf.seek(end - span);
+                raf.readFully(bytes);
+            }
+            crc.update(bytes, 0, span);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Reads the live invoices of the segment and (re)builds the ID-to-offset index on the way.
+     *
+     * @return The invoices in the order they were first saved.
+     * @throws IOException If the file cannot be read.
+     */
+    List<Invoice> load() throws IOException {
+        return load(true);
+    }
+
+    /**
+     * Reads the live invoices of the segment, optionally decoding only their headers, and
+     * (re)builds the ID-to-offset index on the way.
+     *
+     * @param details False to skip the panel details, see {@link InvoiceRecordVisitor#needsDetails()}.
+     * @return The invoices in the order they were first saved.
+     * @throws IOException If the file cannot be read.
+     */
+    List<Invoice> load(boolean details) throws IOException {
+        LiveInvoices live = new LiveInvoices(details);
+        log.scan(live);
+        offsets = live.getOffsets();
+        dead = live.getDeadRecords();
+        return live.toList();
+    }
+
+    /**
+     * @param id An invoice ID.
+     * @return The offset of the record holding the invoice, or -1 if it is not in this segment.
+     * @throws IOException If the segment has to be read to build its index and cannot be.
+     */
+    long offsetOf(long id) throws IOException {
+        if (!mayContain(id)) {
+            return -1;
+        }
+        if (offsets == null) {
+            load();
+        }
+        return offsets.get(id, -1);
+    }
+
+    /**
+     * Recomputes the statistics by reading the whole segment.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    void rescan() throws IOException {
+        List<Invoice> invoices = load();
+        count = 0;
+        minTimestamp = Long.MAX_VALUE;
+        maxTimestamp = Long.MIN_VALUE;
+        minId = Long.MAX_VALUE;
+        maxId = 0;
+        LongLongMap index = offsets;
+        offsets = null; // Already complete; record() must not rebuild it
+        for (Invoice invoice : invoices) {
+            record(invoice, -1);
+        }
+        offsets = index;
+        recordLength();
+    }
+}
@@ -0,0 +1,738 @@
+package models;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the invoice history as time-partitioned segment files (one {@link InvoiceLog} per
+ * month by default) in a directory, described by a small manifest ("manifest.json") holding
+ * each segment's invoice count and timestamp range. Readers use the manifest to open only the
+ * segments they need, typically the newest ones, and leave older history on disk until asked.
+ *
+ * Each invoice or {@link Quote} is appended to the segment covering its creation timestamp; a
+ * batch goes whole to the segment of its first invoice, so it stays atomic. Segments are compacted
+ * and dropped one at a time, so maintenance on old history never rewrites recent data.
+ *
+ * Every saved invoice has a unique ID drawn from a counter kept in the manifest; IDs only grow
+ * and are never reused. A single invoice is read, updated or deleted through its ID: the segment
+ * holding it is found from the ID ranges in the manifest and its primitive ID-to-offset index, the
+ * record is read with one seek, and updates and deletions append a new record or a tombstone
+ * instead of rewriting the segment. Invoices saved before IDs existed are numbered the first time
+ * their segment is read, and that segment is rewritten once so the numbers stick.
+ *
+ * The manifest is updated after every write through a temporary file that is renamed over it,
+ * and the segment length it records is a checkpoint up to which the file is known to be intact.
+ * If the app stops between a write and the manifest update, {@link #open()} reads and checks only
+ * the records past the checkpoint, cutting off an incomplete one, instead of the whole segment;
+ * a segment is rescanned in full only when its tail cannot be applied on its own.
+ *
+ * Segments whose dead records (superseded versions and tombstones) outnumber their live invoices
+ * are compacted by {@link #compactWhereNeeded()}: the live records are written to a new file that
+ * is renamed over the old one, so a crash leaves one or the other, never a mix.
+ *
+ * Alongside the manifest the store keeps an {@link InvoiceSummaryView} ("summary.json"): the
+ * totals of every customer and vehicle per segment, updated with each write and saved with the
+ * manifest, so the grouped totals can be shown without decoding any segment (see
+ * {@link #getTotalsSince}). The totals of a segment whose checkpoint moved without them, e.g.
+ * after a crash, are counted again from its invoice headers on {@link #open()}.
+ *
+ * New segments are written in the store's {@link SegmentFormat}. Existing segments keep the
+ * format they were written in until they are rewritten (e.g. by {@link #compact}), so JSON
+ * segments from before a switch to the binary format stay readable.
+ */
+public class InvoiceSegmentStore {
+
+    public static final String MANIFEST_FILENAME = "manifest.json";
+    private static final String TAG = "InvoiceSegmentStore";
+    private static final int MANIFEST_VERSION = 3;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private SegmentPeriod period;
+    private final SegmentFormat format;
+    // Oldest first; segment names sort chronologically
+    private final TreeMap<String, InvoiceSegment> segments = new TreeMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final InvoiceSummaryView summary = new InvoiceSummaryView();
+
+    /**
+     * @param directory The directory holding the manifest and segment files. It is created on the first write.
+     * @param period The period new stores are partitioned by. An existing store keeps the period in its manifest.
+     * @param format The format new and rewritten segments are written in.
+     */
+    public InvoiceSegmentStore(File directory, SegmentPeriod period, SegmentFormat format) {
+        this.directory = directory;
+        this.period = period;
+        this.format = format;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized SegmentPeriod getPeriod() {
+        return period;
+    }
+
+    /**
+     * Reads the manifest and reconciles it with the files on disk: segments whose files changed
+     * since the manifest was written are rescanned, missing files are dropped, and segment files
+     * the manifest does not know about are added. The summary view is read as well, and the
+     * totals of every segment it does not match are counted again.
+     *
+     * @throws IOException If the directory cannot be read.
+     */
+    public synchronized void open() throws IOException {
+        segments.clear();
+        boolean changed = false;
+
+        File manifest = new File(directory, MANIFEST_FILENAME);
+        if (manifest.exists()) {
+            try {
+                JSONObject json = new JSONObject(readText(manifest));
+                SegmentPeriod savedPeriod = SegmentPeriod.fromName(json.optString("period"));
+                if (savedPeriod != null) {
+                    period = savedPeriod;
+                }
+                reserveIdsThrough(json.optLong("nextId", 1) - 1);
+                JSONArray entries = json.getJSONArray("segments");
+                for (int i = 0; i < entries.length(); i++) {
+                    InvoiceSegment segment = InvoiceSegment.fromJson(directory, entries.getJSONObject(i));
+                    segments.put(segment.getName(), segment);
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Segment manifest is unreadable, rebuilding it: " + e.getMessage());
+                segments.clear();
+                changed = true;
+            }
+        }
+
+        File summaryFile = new File(directory, InvoiceSummaryView.FILENAME);
+        try {
+            if (summaryFile.exists()) {
+                summary.load(new JSONObject(readText(summaryFile)));
+            } else {
+                summary.retainAll(Collections.<String>emptySet());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Invoice summary view is unreadable, rebuilding it: " + e.getMessage());
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.endsWith(TEMP_SUFFIX)) {
+                    // Left behind by a rewrite that stopped before its rename; the original is intact
+                    Log.w(TAG, "Deleting unfinished file " + fileName);
+                    if (!file.delete()) {
+                        Log.w(TAG, "Could not delete " + fileName);
+                    }
+                    continue;
+                }
+                SegmentFormat fileFormat = SegmentFormat.forFileName(fileName);
+                if (fileFormat == null) {
+                    continue;
+                }
+                String name = fileName.substring(0, fileName.length() - fileFormat.getExtension().length());
+                InvoiceSegment known = segments.get(name);
+                if (known == null) {
+                    InvoiceSegment segment = new InvoiceSegment(directory, name, fileFormat);
+                    segment.rescan();
+                    segments.put(name, segment);
+                    changed = true;
+                } else if (known.getFormat() != fileFormat) {
+                    // Left behind by a format conversion that stopped before deleting the old file
+                    Log.w(TAG, "Deleting superseded segment file " + fileName);
+                    if (!file.delete()) {
+                        Log.w(TAG, "Could not delete " + fileName);
+                    }
+                }
+            }
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (InvoiceSegment segment : segments.values()) {
+            if (!segment.getFile().exists()) {
+                missing.add(segment.getName());
+            } else if (segment.isStale()) {
+                if (segment.recoverTail()) {
+                    Log.w(TAG, "Segment " + segment.getName() + " had records past its checkpoint, recovered them.");
+                } else {
+                    Log.w(TAG, "Segment " + segment.getName() + " changed since the manifest was written, rescanning.");
+                    segment.rescan();
+                }
+                changed = true;
+            }
+        }
+        for (String name : missing) {
+            segments.remove(name);
+            changed = true;
+        }
+        for (InvoiceSegment segment : segments.values()) {
+            reserveIdsThrough(segment.getMaxId()); // In case the manifest's counter fell behind
+        }
+        summary.retainAll(segments.keySet());
+        for (InvoiceSegment segment : segments.values()) {
+            if (!summary.isCurrent(segment)) {
+                Log.d(TAG, "Counting the totals of segment " + segment.getName());
+                summary.recount(segment.getName(), segment.load(false));
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            saveManifest();
+        }
+    }
+
+    /**
+     * @return Every segment, oldest first.
+     */
+    public synchronized List<InvoiceSegment> getSegments() {
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * @param timestamp A creation timestamp.
+     * @return The name of the segment an invoice created at that time is appended to.
+     */
+    public synchronized String segmentNameFor(long timestamp) {
+        return period.segmentNameFor(timestamp);
+    }
+
+    /**
+     * @param timestamp A creation timestamp.
+     * @return The first millisecond of the segment covering that time. Segment totals cover
+     *         exactly the invoices created from such a boundary on, see {@link #getTotalsSince}.
+     */
+    public synchronized long segmentStartFor(long timestamp) {
+        return period.startOf(timestamp);
+    }
+
+    /**
+     * Returns the totals of every customer and vehicle from the summary view, without reading
+     * any segment.
+     *
+     * @param since The earliest creation timestamp to include. Whole segments are counted, so
+     *              the totals are exact when this is a segment boundary (see {@link #segmentStartFor})
+     *              or {@link Long#MIN_VALUE}.
+     * @return One entry per customer and vehicle, sorted by customer name and then VIN.
+     */
+    public synchronized List<CustomerTotals> getTotalsSince(long since) {
+        List<String> names = new ArrayList<>();
+        for (InvoiceSegment segment : segments.values()) {
+            if (segment.getCount() > 0 && segment.getMaxTimestamp() >= since) {
+                names.add(segment.getName());
+            }
+        }
+        return summary.totals(names);
+    }
+
+    /**
+     * Reserves a range of new invoice IDs. This does not touch the disk and may be called from
+     * any thread, including while a write is in progress.
+     *
+     * @param count How many IDs to reserve.
+     * @return The first ID of the range; the others follow consecutively.
+     */
+    public long allocateIds(int count) {
+        return nextId.getAndAdd(count);
+    }
+
+    private void reserveIdsThrough(long id) {
+        long next;
+        do {
+            next = nextId.get();
+        } while (next <= id && !nextId.compareAndSet(next, id + 1));
+    }
+
+    /**
+     * Reads every live invoice in one segment. Invoices saved before IDs existed are numbered
+     * and the segment is rewritten with their new IDs.
+     *
+     * @param name The segment name.
+     * @return The invoices in the order they were first saved, or an empty list if there is no such segment.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public synchronized List<Invoice> read(String name) throws IOException {
+        InvoiceSegment segment = segments.get(name);
+        if (segment == null) {
+            return new ArrayList<>();
+        }
+        List<Invoice> invoices = segment.load();
+        if (assignMissingIds(invoices)) {
+            Log.d(TAG, "Numbering the invoices of segment " + name);
+            rewriteSegment(name, invoices);
+        }
+        return invoices;
+    }
+
+    /**
+     * Reads several segments at once, see {@link #read}. Each segment is decoded on its own
+     * thread of the shared fork-join pool; segments share no state while being read, and no
+     * write can start while this holds the store's lock. Invoices that still need numbering are
+     * numbered afterwards, one segment at a time.
+     *
+     * @param names The segment names.
+     * @param details False to decode only the header of each invoice (customer, VIN, amount,
+     *                status, timestamp and ID); see {@link InvoiceRecordVisitor#needsDetails()}.
+     *                A segment that still needs numbering is always read in full.
+     * @return The invoices of each segment, in the order of the names.
+     * @throws IOException If any of the files exists but cannot be read.
+     */
+    public synchronized List<List<Invoice>> readAll(List<String> names, final boolean details) throws IOException {
+        List<Callable<List<Invoice>>> tasks = new ArrayList<>(names.size());
+        for (String name : names) {
+            final InvoiceSegment segment = segments.get(name);
+            tasks.add(new Callable<List<Invoice>>() {
+                @Override
+                public List<Invoice> call() throws IOException {
+                    return segment != null ? segment.load(details) : new ArrayList<Invoice>();
+                }
+            });
+        }
+        List<List<Invoice>> decoded = ParallelTasks.invokeAll(tasks);
+        for (int i = 0; i < names.size(); i++) {
+            if (!details && hasMissingIds(decoded.get(i))) {
+                // Numbering rewrites the segment, which needs every field
+                decoded.set(i, read(names.get(i)));
+            } else if (assignMissingIds(decoded.get(i))) {
+                Log.d(TAG, "Numbering the invoices of segment " + names.get(i));
+                rewriteSegment(names.get(i), decoded.get(i));
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Reads one invoice by ID, seeking straight to its record.
+     *
+     * @param id The invoice ID.
+     * @return The invoice, or null if no live invoice has that ID.
+     * @throws IOException If the segment holding it cannot be read.
+     */
+    public synchronized Invoice get(long id) throws IOException {
+        for (Invoice invoice : readRecord(id)) {
+            if (invoice.getId() == id) {
+                return invoice;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the whole record holding one invoice, seeking straight to it. For a quote or batch
+     * this is every panel saved with it, usually the rest of the vehicle.
+     *
+     * @param id The invoice ID.
+     * @return The invoices of the record that are still current, i.e. not updated or deleted
+     *         since, or an empty list if no live invoice has that ID.
+     * @throws IOException If the segment holding it cannot be read.
+     */
+    public synchronized List<Invoice> readRecord(long id) throws IOException {
+        List<Invoice> current = new ArrayList<>();
+        InvoiceSegment segment = segmentHolding(id);
+        if (segment == null) {
+            return current;
+        }
+        long offset = segment.offsetOf(id);
+        for (Invoice invoice : segment.getLog().readAt(offset)) {
+            if (invoice.getId() == id || (invoice.getId() != 0 && segment.offsetOf(invoice.getId()) == offset)) {
+                current.add(invoice);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Appends one invoice to the segment covering its creation timestamp.
+     *
+     * @param invoice The invoice to append. It is given an ID if it has none.
+     * @throws IOException If the segment or manifest cannot be written.
+     * @throws JSONException If the invoice cannot be converted to JSON.
+     */
+    public synchronized void append(Invoice invoice) throws IOException, JSONException {
+        assignMissingIds(Collections.singletonList(invoice));
+        InvoiceSegment segment = segmentFor(invoice.getCreationTimestamp());
+        long offset = segment.getLog().append(invoice);
+        segment.record(invoice, offset);
+        segment.recordLength();
+        summary.add(segment.getName(), invoice);
+        saveManifest();
+    }
+
+    /**
+     * Appends several invoices as one atomic batch frame, in the segment of the first invoice.
+     *
+     * @param invoices The invoices to append, typically every panel of one vehicle. Those without an ID are given one.
+     * @throws IOException If the segment or manifest cannot be written.
+     * @throws JSONException If an invoice cannot be converted to JSON.
+     */
+    public synchronized void appendBatch(Collection<Invoice> invoices) throws IOException, JSONException {
+        if (invoices.isEmpty()) {
+            return;
+        }
+        assignMissingIds(invoices);
+        InvoiceSegment segment = segmentFor(invoices.iterator().next().getCreationTimestamp());
+        long offset = segment.getLog().appendBatch(invoices);
+        for (Invoice invoice : invoices) {
+            segment.record(invoice, offset);
+            summary.add(segment.getName(), invoice);
+        }
+        segment.recordLength();
+        saveManifest();
+    }
+
+    /**
+     * Appends a vehicle quote as one record to the segment covering its creation timestamp.
+     *
+     * @param quote The quote to append. Its panels are numbered first if they have no IDs yet.
+     * @throws IOException If the segment or manifest cannot be written.
+     * @throws JSONException If the quote cannot be converted to JSON.
+     */
+    public synchronized void appendQuote(Quote quote) throws IOException, JSONException {
+        if (quote.getFirstId() == 0) {
+            quote = quote.withFirstId(allocateIds(quote.getLineCount()));
+        } else {
+            reserveIdsThrough(quote.getFirstId() + quote.getLineCount() - 1);
+        }
+        InvoiceSegment segment = segmentFor(quote.getCreationTimestamp());
+        long offset = segment.getLog().appendQuote(quote);
+        for (Invoice invoice : quote.toInvoices()) {
+            segment.record(invoice, offset);
+            summary.add(segment.getName(), invoice);
+        }
+        segment.recordLength();
+        saveManifest();
+    }
+
+    /**
+     * Replaces a saved invoice by appending a new record with the same ID. If the new version
+     * belongs to another segment, a tombstone is appended to the old one as well.
+     *
+     * @param invoice The new version of the invoice, carrying the ID of the saved one.
+     * @return False if no live invoice has that ID.
+     * @throws IOException If a segment or the manifest cannot be written.
+     * @throws JSONException If the invoice cannot be converted to JSON.
+     */
+    public synchronized boolean update(Invoice invoice) throws IOException, JSONException {
+        InvoiceSegment previous = segmentHolding(invoice.getId());
+        if (previous == null) {
+            return false;
+        }
+        Invoice saved = get(invoice.getId()); // To take it out of the totals
+        InvoiceSegment segment = segmentFor(invoice.getCreationTimestamp());
+        long offset = segment.getLog().append(invoice);
+        if (segment == previous) {
+            segment.recordUpdate(invoice, offset);
+        } else {
+            segment.record(invoice, offset);
+            previous.getLog().appendDelete(invoice.getId());
+            previous.recordDelete(invoice.getId());
+            previous.recordLength();
+        }
+        segment.recordLength();
+        summary.remove(previous.getName(), saved);
+        summary.add(segment.getName(), invoice);
+        recountWhereNeeded();
+        saveManifest();
+        return true;
+    }
+
+    /**
+     * Deletes one invoice by appending a tombstone to the segment holding it.
+     *
+     * @param id The invoice ID.
+     * @return False if no live invoice has that ID.
+     * @throws IOException If the segment or manifest cannot be written.
+     * @throws JSONException If the tombstone cannot be converted to JSON.
+     */
+    public synchronized boolean delete(long id) throws IOException, JSONException {
+        InvoiceSegment segment = segmentHolding(id);
+        if (segment == null) {
+            return false;
+        }
+        Invoice saved = get(id); // To take it out of the totals
+        segment.getLog().appendDelete(id);
+        segment.recordDelete(id);
+        segment.recordLength();
+        summary.remove(segment.getName(), saved);
+        recountWhereNeeded();
+        saveManifest();
+        return true;
+    }
+
+    // Recounts the segments whose totals lost track of their newest invoice, from the headers alone
+    private void recountWhereNeeded() throws IOException {
+        for (String name : summary.getRecountNeeded()) {
+            InvoiceSegment segment = segments.get(name);
+            if (segment != null) {
+                summary.recount(name, segment.load(false));
+            } else {
+                summary.drop(name);
+            }
+        }
+    }
+
+    // Newest segments first: recently saved invoices are the ones most often edited
+    private InvoiceSegment segmentHolding(long id) throws IOException {
+        if (id == 0) {
+            return null;
+        }
+        for (InvoiceSegment segment : segments.descendingMap().values()) {
+            if (segment.offsetOf(id) >= 0) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasMissingIds(Collection<Invoice> invoices) {
+        for (Invoice invoice : invoices) {
+            if (invoice.getId() == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns true if any invoice had to be numbered
+    private boolean assignMissingIds(Collection<Invoice> invoices) {
+        boolean assigned = false;
+        for (Invoice invoice : invoices) {
+            if (invoice.getId() == 0) {
+                invoice.setId(allocateIds(1));
+                assigned = true;
+            } else {
+                reserveIdsThrough(invoice.getId());
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * Replaces the content of one segment, writing it in the store's format. An empty list
+     * deletes the segment.
+     *
+     * @param name The segment name.
+     * @param invoices The invoices the segment should contain.
+     * @throws IOException If the segment or manifest cannot be written.
+     */
+    public synchronized void rewriteSegment(String name, List<Invoice> invoices) throws IOException {
+        if (invoices.isEmpty()) {
+            deleteSegment(name);
+            return;
+        }
+        ensureDirectory();
+        assignMissingIds(invoices);
+        InvoiceSegment previous = segments.get(name);
+        InvoiceSegment segment = previous != null && previous.getFormat() == format
+                ? previous
+                : new InvoiceSegment(directory, name, format);
+        segment.getLog().rewrite(invoices);
+        segment.rescan();
+        segments.put(name, segment);
+        summary.recount(name, invoices);
+        saveManifest();
+        if (previous != null && previous != segment && !previous.getFile().delete()) {
+            Log.w(TAG, "Could not delete superseded segment file " + previous.getFile().getName());
+        }
+    }
+
+    /**
+     * Replaces the whole history, partitioning the invoices by creation timestamp.
+     *
+     * @param invoices The invoices the store should contain.
+     * @throws IOException If a segment or the manifest cannot be written.
+     */
+    public synchronized void replaceAll(List<Invoice> invoices) throws IOException {
+        Map<String, List<Invoice>> partitions = partition(invoices);
+        for (String name : new ArrayList<>(segments.keySet())) {
+            if (!partitions.containsKey(name)) {
+                deleteSegment(name);
+            }
+        }
+        for (Map.Entry<String, List<Invoice>> entry : partitions.entrySet()) {
+            rewriteSegment(entry.getKey(), entry.getValue());
+        }
+        saveManifest();
+    }
+
+    /**
+     * Rewrites one segment with only its live invoices, dropping superseded records, tombstones,
+     * and unreadable records left behind by interrupted writes.
+     *
+     * @param name The segment name.
+     * @return The number of bytes reclaimed.
+     * @throws IOException If the segment cannot be read or written.
+     */
+    public synchronized long compact(String name) throws IOException {
+        InvoiceSegment segment = segments.get(name);
+        if (segment == null) {
+            return 0;
+        }
+        long before = segment.getFile().length();
+        rewriteSegment(name, segment.load());
+        InvoiceSegment compacted = segments.get(name);
+        return before - (compacted != null ? compacted.getFile().length() : 0);
+    }
+
+    /**
+     * Compacts every segment whose dead records outnumber its live invoices, see
+     * {@link InvoiceSegment#needsCompaction()}.
+     *
+     * @return The number of bytes reclaimed.
+     * @throws IOException If a segment cannot be read or written.
+     */
+    public synchronized long compactWhereNeeded() throws IOException {
+        long reclaimed = 0;
+        for (InvoiceSegment segment : new ArrayList<>(segments.values())) {
+            if (segment.needsCompaction()) {
+                reclaimed += compact(segment.getName());
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Deletes one segment file and its manifest entry.
+     *
+     * @param name The segment name.
+     * @throws IOException If the manifest cannot be written.
+     */
+    public synchronized void deleteSegment(String name) throws IOException {
+        InvoiceSegment segment = segments.remove(name);
+        summary.drop(name);
+        if (segment == null) {
+            return;
+        }
+        if (segment.getFile().exists() && !segment.getFile().delete()) {
+            Log.w(TAG, "Could not delete segment " + name);
+        }
+        saveManifest();
+    }
+
+    /**
+     * Returns a stamp that changes whenever the manifest or any segment file changes, so callers
+     * holding the history in memory can detect writes made by someone else.
+     *
+     * @return The combined modification stamp.
+     */
+    public synchronized long stamp() {
+        long stamp = stampOf(new File(directory, MANIFEST_FILENAME));
+        for (InvoiceSegment segment : segments.values()) {
+            stamp = 31 * stamp + stampOf(segment.getFile());
+        }
+        return stamp;
+    }
+
+    /**
+     * Groups invoices by the segment they belong to, keeping their order within each segment.
+     *
+     * @param invoices The invoices to partition.
+     * @return The invoices of each segment, keyed by segment name in chronological order.
+     */
+    public synchronized TreeMap<String, List<Invoice>> partition(Collection<Invoice> invoices) {
+        TreeMap<String, List<Invoice>> partitions = new TreeMap<>();
+        for (Invoice invoice : invoices) {
+            String name = period.segmentNameFor(invoice.getCreationTimestamp());
+            List<Invoice> partition = partitions.get(name);
+            if (partition == null) {
+                partition = new ArrayList<>();
+                partitions.put(name, partition);
+            }
+            partition.add(invoice);
+        }
+        return partitions;
+    }
+
+    private InvoiceSegment segmentFor(long timestamp) throws IOException {
+        String name = period.segmentNameFor(timestamp);
+        InvoiceSegment segment = segments.get(name);
+        if (segment == null) {
+            ensureDirectory();
+            segment = new InvoiceSegment(directory, name, format);
+            segments.put(name, segment);
+        }
+        return segment;
+    }
+
+    private void ensureDirectory() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory.getName());
+        }
+    }
+
+    // The summary view is written first. If the app stops before the manifest follows, open()
+    // recovers the segment's tail up to the checkpoint the view was saved at, so the two agree again
+    private void saveManifest() throws IOException {
+        ensureDirectory();
+        try {
+            writeAtomically(new File(directory, InvoiceSummaryView.FILENAME), summary.toJson(segments.values()).toString());
+
+            JSONArray entries = new JSONArray();
+            for (InvoiceSegment segment : segments.values()) {
+                entries.put(segment.toJson());
+            }
+            JSONObject json = new JSONObject();
+            json.put("version", MANIFEST_VERSION);
+            json.put("period", period.name());
+            json.put("nextId", nextId.get());
+            json.put("segments", entries);
+
+            writeAtomically(new File(directory, MANIFEST_FILENAME), json.toString());
+        } catch (JSONException e) {
+            throw new IOException("Could not encode segment manifest: " + e.getMessage());
+        }
+    }
+
+    // Writes a temporary file and renames it over the target, so readers see the old or the new content
+    private void writeAtomically(File target, String content) throws IOException {
+        File temp = new File(directory, target.getName() + TEMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            fos.write(content.getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Could not replace " + target.getName());
+        }
+    }
+
+    private static String readText(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file);
+             InputStreamReader isr = new InputStreamReader(fis, StandardCharsets.UTF_8);
+             BufferedReader br = new BufferedReader(isr)) {
+
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    private static long stampOf(File file) {
+        return file.lastModified() ^ (file.length() << 32);
+    }
+}
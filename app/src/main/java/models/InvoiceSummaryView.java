@@ -0,0 +1,246 @@
+package models;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A materialized view of the invoice history: the {@link CustomerTotals} of every customer and
+ * vehicle, kept per segment by {@link InvoiceSegmentStore} and saved next to its manifest
+ * ("summary.json") with every write. Opening the history screen reads only this view; no segment
+ * has to be decoded to show the totals.
+ *
+ * Keeping the totals per segment lets the view answer for the recent segments alone, and lets a
+ * dropped or rewritten segment be taken out or recounted without touching the others. Each
+ * segment's totals are saved together with the checkpoint (file length and checksum, see
+ * {@link InvoiceSegment}) they were counted at. A crash between writing the segment, the view and
+ * the manifest leaves a checkpoint that no longer matches, and the store recounts that segment
+ * from its invoice headers when it is next opened, so the view never disagrees with the files.
+ *
+ * This class is not thread-safe; {@link InvoiceSegmentStore} guards it with its own lock.
+ */
+final class InvoiceSummaryView {
+
+    static final String FILENAME = "summary.json";
+    private static final int VERSION = 1;
+
+    private final TreeMap<String, SegmentTotals> segments = new TreeMap<>();
+
+    private static final class SegmentTotals {
+        final TreeMap<CustomerKey, CustomerTotals> rows = new TreeMap<>();
+        long length = -1; // Checkpoint the totals were last saved at; -1 while they have unsaved changes
+        long checkpointCrc = -1;
+        boolean recount; // The latest timestamp of a row may be out of date
+    }
+
+    /**
+     * Restores the view from its saved form.
+     *
+     * @param json The content of the summary file.
+     * @throws JSONException If the content is malformed; the view is then left empty.
+     */
+    void load(JSONObject json) throws JSONException {
+        segments.clear();
+        try {
+            JSONArray entries = json.getJSONArray("segments");
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                SegmentTotals totals = new SegmentTotals();
+                totals.length = entry.getLong("length");
+                totals.checkpointCrc = entry.optLong("checkpointCrc", -1);
+                JSONArray rows = entry.getJSONArray("rows");
+                for (int j = 0; j < rows.length(); j++) {
+                    JSONArray row = rows.getJSONArray(j);
+                    CustomerTotals customer = CustomerTotals.restore(row.getString(0), row.getString(1),
+                            row.getLong(2), row.getInt(3), row.getInt(4), row.getLong(5));
+                    totals.rows.put(customer.getKey(), customer);
+                }
+                segments.put(entry.getString("name"), totals);
+            }
+        } catch (JSONException e) {
+            segments.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes the view, recording for each segment the checkpoint its totals are valid at.
+     *
+     * @param current The segments of the store, whose checkpoints match their totals in memory.
+     * @return The content of the summary file.
+     * @throws JSONException If the view cannot be encoded.
+     */
+    JSONObject toJson(Collection<InvoiceSegment> current) throws JSONException {
+        JSONArray entries = new JSONArray();
+        for (InvoiceSegment segment : current) {
+            SegmentTotals totals = segments.get(segment.getName());
+            if (totals == null) {
+                continue;
+            }
+            if (!totals.recount) {
+                totals.length = segment.getLength();
+                totals.checkpointCrc = segment.getCheckpointCrc();
+            }
+            JSONArray rows = new JSONArray();
+            for (CustomerTotals customer : totals.rows.values()) {
+                rows.put(new JSONArray()
+                        .put(customer.getCustomerName())
+                        .put(customer.getCustomerVIN())
+                        .put(customer.getTotalCents())
+                        .put(customer.getInvoiceCount())
+                        .put(customer.getCustomRepairCount())
+                        .put(customer.getLatestTimestamp()));
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("name", segment.getName());
+            entry.put("length", totals.length); // Still -1 if a recount is pending, so it is redone on open
+            entry.put("checkpointCrc", totals.checkpointCrc);
+            entry.put("rows", rows);
+            entries.put(entry);
+        }
+        JSONObject json = new JSONObject();
+        json.put("version", VERSION);
+        json.put("segments", entries);
+        return json;
+    }
+
+    /**
+     * @param segment A segment of the store.
+     * @return True if the view holds totals for the segment counted at its current checkpoint.
+     */
+    boolean isCurrent(InvoiceSegment segment) {
+        SegmentTotals totals = segments.get(segment.getName());
+        return totals != null && !totals.recount && totals.length == segment.getLength()
+                && totals.checkpointCrc == segment.getCheckpointCrc();
+    }
+
+    /**
+     * Replaces the totals of one segment.
+     *
+     * @param name The segment name.
+     * @param invoices Every live invoice of the segment; headers are enough.
+     */
+    void recount(String name, List<Invoice> invoices) {
+        SegmentTotals totals = new SegmentTotals();
+        segments.put(name, totals);
+        for (Invoice invoice : invoices) {
+            add(totals, invoice);
+        }
+    }
+
+    /**
+     * Counts one invoice appended to a segment.
+     *
+     * @param name The segment name.
+     * @param invoice The invoice.
+     */
+    void add(String name, Invoice invoice) {
+        SegmentTotals totals = segments.get(name);
+        if (totals == null) {
+            totals = new SegmentTotals();
+            segments.put(name, totals);
+        }
+        add(totals, invoice);
+    }
+
+    private static void add(SegmentTotals totals, Invoice invoice) {
+        CustomerKey key = CustomerKey.of(invoice);
+        CustomerTotals customer = totals.rows.get(key);
+        if (customer == null) {
+            customer = new CustomerTotals(key.getCustomerName(), key.getCustomerVIN());
+            totals.rows.put(key, customer);
+        }
+        customer.add(invoice);
+        totals.length = -1;
+    }
+
+    /**
+     * Takes one updated or deleted invoice out of a segment's totals.
+     *
+     * @param name The segment name.
+     * @param invoice The invoice as it was saved, or null if it could not be read back, in which
+     *                case the segment is marked for a recount.
+     */
+    void remove(String name, Invoice invoice) {
+        SegmentTotals totals = segments.get(name);
+        if (totals == null) {
+            return;
+        }
+        totals.length = -1;
+        CustomerTotals customer = invoice != null ? totals.rows.get(CustomerKey.of(invoice)) : null;
+        if (customer == null) {
+            totals.recount = true;
+            return;
+        }
+        if (!customer.remove(invoice)) {
+            totals.recount = true;
+        }
+        if (customer.getInvoiceCount() == 0) {
+            totals.rows.remove(CustomerKey.of(invoice));
+        }
+    }
+
+    /**
+     * @return The names of the segments whose totals must be counted again from their invoices.
+     */
+    Set<String> getRecountNeeded() {
+        Set<String> names = new HashSet<>();
+        for (Map.Entry<String, SegmentTotals> entry : segments.entrySet()) {
+            if (entry.getValue().recount) {
+                names.add(entry.getKey());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Discards the totals of one segment.
+     *
+     * @param name The segment name.
+     */
+    void drop(String name) {
+        segments.remove(name);
+    }
+
+    /**
+     * Discards the totals of every segment the store no longer has.
+     *
+     * @param names The names of the store's segments.
+     */
+    void retainAll(Collection<String> names) {
+        segments.keySet().retainAll(names);
+    }
+
+    /**
+     * Combines the totals of several segments.
+     *
+     * @param names The segment names.
+     * @return One entry per customer and vehicle, sorted by customer name and then VIN.
+     */
+    List<CustomerTotals> totals(Collection<String> names) {
+        TreeMap<CustomerKey, CustomerTotals> combined = new TreeMap<>();
+        for (String name : names) {
+            SegmentTotals totals = segments.get(name);
+            if (totals == null) {
+                continue;
+            }
+            for (Map.Entry<CustomerKey, CustomerTotals> entry : totals.rows.entrySet()) {
+                CustomerTotals customer = combined.get(entry.getKey());
+                if (customer == null) {
+                    customer = new CustomerTotals(entry.getKey().getCustomerName(), entry.getKey().getCustomerVIN());
+                    combined.put(entry.getKey(), customer);
+                }
+                customer.add(entry.getValue());
+            }
+        }
+        return new ArrayList<>(combined.values());
+    }
+}
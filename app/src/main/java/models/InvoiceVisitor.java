@@ -0,0 +1,15 @@
+package models;
+
+/**
+ * A callback that receives invoices one at a time while they are streamed from storage,
+ * so callers can aggregate or filter a history without holding all of it in memory.
+ */
+public interface InvoiceVisitor {
+
+    /**
+     * Called once for each invoice, in the order the invoices were saved.
+     *
+     * @param invoice The invoice that was just read.
+     */
+    void visit(Invoice invoice);
+}
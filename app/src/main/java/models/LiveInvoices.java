@@ -0,0 +1,100 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the records of an {@link InvoiceLog} in order to find the invoices that are still live:
+ * a later record with the same ID replaces an earlier one in place, and a tombstone removes it.
+ * Invoices saved before IDs existed (ID 0) are always kept. Alongside the invoices it builds an
+ * ID-to-offset index of the records they were read from.
+ */
+final class LiveInvoices implements InvoiceRecordVisitor {
+
+    private final boolean details;
+    private final ArrayList<Invoice> slots = new ArrayList<>(); // Null where an invoice was deleted
+    private final LongLongMap slotById = new LongLongMap();
+    private final LongLongMap offsets = new LongLongMap();
+    private int live;
+    private int dead; // Superseded records and tombstones a rewrite would drop
+
+    LiveInvoices() {
+        this(true);
+    }
+
+    /**
+     * @param details False to read only the header of each invoice, see {@link InvoiceRecordVisitor#needsDetails()}.
+     */
+    LiveInvoices(boolean details) {
+        this.details = details;
+    }
+
+    @Override
+    public void record(long offset, Invoice invoice) {
+        long id = invoice.getId();
+        if (id != 0) {
+            offsets.put(id, offset);
+            long slot = slotById.get(id, -1);
+            if (slot >= 0) {
+                slots.set((int) slot, invoice);
+                dead++;
+                return;
+            }
+            slotById.put(id, slots.size());
+        }
+        slots.add(invoice);
+        live++;
+    }
+
+    @Override
+    public void delete(long id) {
+        long slot = slotById.remove(id, -1);
+        offsets.remove(id, -1);
+        dead++;
+        if (slot >= 0) {
+            slots.set((int) slot, null);
+            live--;
+            dead++;
+        }
+    }
+
+    @Override
+    public boolean needsDetails() {
+        return details;
+    }
+
+    /**
+     * @return The live invoices, in the order they were first saved.
+     */
+    List<Invoice> toList() {
+        List<Invoice> invoices = new ArrayList<>(live);
+        for (Invoice invoice : slots) {
+            if (invoice != null) {
+                invoices.add(invoice);
+            }
+        }
+        return invoices;
+    }
+
+    /**
+     * @return How many records were superseded or deleted, counting tombstones themselves.
+     */
+    int getDeadRecords() {
+        return dead;
+    }
+
+    /**
+     * @param id An invoice ID.
+     * @return True if an invoice with the ID was recorded and has not been deleted since.
+     */
+    boolean isLive(long id) {
+        return slotById.containsKey(id);
+    }
+
+    /**
+     * @return The offset of the record each live invoice was read from, keyed by ID.
+     */
+    LongLongMap getOffsets() {
+        return offsets;
+    }
+}
@@ -0,0 +1,151 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to long values stored in two primitive arrays, so lookups never box
+ * and each entry costs 16 bytes. Collisions are resolved by linear probing; removal shifts the
+ * following entries back, so no deleted markers accumulate. The key 0 is reserved to mark empty
+ * slots and cannot be stored.
+ *
+ * This class is not thread-safe.
+ */
+public final class LongLongMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public LongLongMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize How many entries the map should hold before growing.
+     */
+    public LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key A non-zero key.
+     * @param missing The value to return if the key is absent.
+     * @return The value stored for the key, or {@code missing}.
+     */
+    public long get(long key, long missing) {
+        int slot = find(key);
+        return slot >= 0 ? values[slot] : missing;
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Stores a value, replacing any previous value for the key.
+     *
+     * @param key A non-zero key.
+     * @param value The value.
+     * @throws IllegalArgumentException If the key is 0.
+     */
+    public void put(long key, long value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("The key 0 is reserved");
+        }
+        int slot = slotOf(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            grow();
+        }
+    }
+
+    /**
+     * @param key A key.
+     * @param missing The value to return if the key is absent.
+     * @return The value that was stored for the key, or {@code missing}.
+     */
+    public long remove(long key, long missing) {
+        int slot = find(key);
+        if (slot < 0) {
+            return missing;
+        }
+        long value = values[slot];
+        size--;
+        // Shift back every following entry of the probe run that would otherwise become unreachable
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != 0) {
+            int home = slotOf(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private int find(long key) {
+        if (key == 0) {
+            return -1;
+        }
+        int slot = slotOf(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L; // Spreads sequential IDs across the table
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
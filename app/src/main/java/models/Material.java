@@ -0,0 +1,17 @@
+package models;
+
+/**
+ * The body material of a panel. Each rate card defines a price multiplier per material,
+ * indexed by the ordinal of these constants.
+ */
+public enum Material {
+    STEEL, ALUMINUM;
+
+    /**
+     * @param isAluminum The aluminum flag captured in the calculator UI.
+     * @return The matching material.
+     */
+    public static Material of(boolean isAluminum) {
+        return isAluminum ? ALUMINUM : STEEL;
+    }
+}
@@ -0,0 +1,51 @@
+package models;
+
+import java.util.Locale;
+
+/**
+ * Helpers for converting between integer cents, which is how all costs are stored and
+ * summed, and the "$125.00" strings shown to the user. Formatting should only happen at
+ * the UI edge; parsing only exists for reading invoices saved by older versions.
+ */
+public final class Money {
+
+    private Money() {}
+
+    /**
+     * Formats an amount in cents as a dollar string for display, with the decimal separator of
+     * the user's locale.
+     *
+     * @param cents The amount in cents.
+     * @return The formatted amount (e.g., "$125.00", or "$125,00" in a comma-decimal locale).
+     */
+    public static String format(long cents) {
+        return String.format(Locale.getDefault(), "$%.2f", cents / 100.0);
+    }
+
+    /**
+     * Formats an amount in cents as a dollar string for saving, always with a '.' decimal
+     * separator, so that {@link #parseCents} reads it back in any locale.
+     *
+     * @param cents The amount in cents.
+     * @return The formatted amount (e.g., "$125.00").
+     */
+    public static String formatForStorage(long cents) {
+        return String.format(Locale.US, "$%.2f", cents / 100.0);
+    }
+
+    /**
+     * Parses a legacy dollar string (e.g., "$125.00") into cents. A ',' decimal separator, as
+     * written by builds that saved amounts in the user's locale, is accepted too.
+     *
+     * @param text The dollar string, with or without a leading '$'.
+     * @return The amount in cents.
+     * @throws NumberFormatException If the text is not a valid amount.
+     */
+    public static long parseCents(String text) {
+        String amount = text.replace("$", "").trim();
+        if (amount.indexOf('.') < 0) {
+            amount = amount.replace(',', '.');
+        }
+        return Math.round(Double.parseDouble(amount) * 100);
+    }
+}
@@ -16,7 +16,7 @@ public class PanelInputData {
     public String largestDentSize;
     public int numberOfDents;
     public boolean isAluminum;
-    public String estimatedCost;
+    public QuoteResult quote; // null until the panel has been calculated
 
     // UI elements specific to this panel
     public LinearLayout panelLayout;
@@ -40,6 +40,21 @@ public class PanelInputData {
         this.largestDentSize = "Not Set";
         this.numberOfDents = -1;
         this.isAluminum = false;
-        this.estimatedCost = "N/A";
+        this.quote = null;
+    }
+
+    /**
+     * Constructs a new PanelInputData object with every input already set.
+     *
+     * @param panelType The type of panel, such as "HOOD" or "LFF".
+     * @param largestDentSize The largest dent size code.
+     * @param numberOfDents The number of dents on the panel.
+     * @param isAluminum True if the panel is aluminum.
+     */
+    public PanelInputData(String panelType, String largestDentSize, int numberOfDents, boolean isAluminum) {
+        this(panelType);
+        this.largestDentSize = largestDentSize;
+        this.numberOfDents = numberOfDents;
+        this.isAluminum = isAluminum;
     }
 }
\ No newline at end of file
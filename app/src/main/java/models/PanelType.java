@@ -0,0 +1,30 @@
+package models;
+
+/**
+ * The vehicle panels that can be quoted. The ordinal of each constant is used as a
+ * row index into the compiled price matrix in {@link Calculator}, so the declaration
+ * order must not change without updating the rate table.
+ */
+public enum PanelType {
+    HOOD, ROOF, TRUNK,
+    LFF, LFD, LG, LQ, LRAIL,
+    RFF, RFD, RG, RQ, RRAIL;
+
+    private static final PanelType[] VALUES = values();
+
+    /**
+     * Resolves a panel code (e.g., "hood", "LFF") to its enum constant without allocating.
+     *
+     * @param code The panel code, compared case-insensitively.
+     * @return The matching {@link PanelType}, or null if the code is null or unknown.
+     */
+    public static PanelType fromCode(String code) {
+        if (code == null) return null;
+        for (PanelType panel : VALUES) {
+            if (panel.name().equalsIgnoreCase(code)) {
+                return panel;
+            }
+        }
+        return null;
+    }
+}
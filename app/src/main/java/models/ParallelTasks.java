@@ -0,0 +1,64 @@
+package models;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent pieces of loading work, such as decoding one segment each, on the shared
+ * {@link ForkJoinPool} so they use every core. The calling thread waits for all of them; results
+ * come back in the order the tasks were given, whatever order they finished in.
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * @param tasks The tasks to run.
+     * @return Each task's result, in the order of the tasks.
+     * @throws IOException If any task failed; the first failure in task order is reported.
+     */
+    static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.size() == 1) {
+            results.add(call(tasks.get(0))); // Not worth a hand-off
+            return results;
+        }
+        List<Future<T>> futures;
+        try {
+            futures = ForkJoinPool.commonPool().invokeAll(tasks);
+        } catch (Exception e) {
+            throw new IOException("Parallel load failed to start: " + e.getMessage(), e);
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading", e);
+            }
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
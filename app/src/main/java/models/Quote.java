@@ -0,0 +1,391 @@
+package models;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A vehicle estimate saved as one unit: a header with the customer, the VIN, the creation
+ * timestamp and the rate card version, followed by one compact {@link Line} per panel.
+ * The header is stored once instead of being repeated on every panel, and the whole quote is
+ * written and read back as a single record.
+ *
+ * The rest of the app still works with one {@link Invoice} per panel; {@link #toInvoices()}
+ * produces those as views that share the header's strings, and {@link #group(Collection)} turns
+ * saved invoices back into quotes. An invoice saved before quotes existed becomes a one-line quote.
+ */
+public final class Quote {
+
+    private final String customerName;
+    private final String customerVIN;
+    private final long creationTimestamp;
+    private final String rateCardVersion;
+    private final long firstId; // The panels are numbered firstId, firstId + 1, ...; 0 until saved
+    private final Line[] lines;
+
+    /**
+     * One panel of a quote. Customer, VIN and timestamp live in the quote header.
+     */
+    public static final class Line {
+        private final String panelType;
+        private final String largestDentSize;
+        private final int numberOfDents;
+        private final boolean isAluminum;
+        private final QuoteResult result;
+
+        /**
+         * @param panelType The type of panel being repaired (e.g., "HOOD").
+         * @param largestDentSize The largest dent size category (e.g., "D", "N").
+         * @param numberOfDents The total number of dents on the panel.
+         * @param isAluminum True if the panel is aluminum, false otherwise.
+         * @param result The priced result for this panel.
+         */
+        public Line(String panelType, String largestDentSize, int numberOfDents, boolean isAluminum, QuoteResult result) {
+            this.panelType = panelType;
+            this.largestDentSize = largestDentSize;
+            this.numberOfDents = numberOfDents;
+            this.isAluminum = isAluminum;
+            this.result = result;
+        }
+
+        // Getters
+        public String getPanelType() { return panelType; }
+        public String getLargestDentSize() { return largestDentSize; }
+        public int getNumberOfDents() { return numberOfDents; }
+        public boolean isAluminum() { return isAluminum; }
+        public QuoteResult getResult() { return result; }
+
+        // Lines stored without their own version were priced with the quote's
+        Line withDefaultVersion(String version) {
+            if (result.getRateCardVersion() != null) {
+                return this;
+            }
+            QuoteResult resolved;
+            switch (result.getStatus()) {
+                case PRICED:
+                    resolved = QuoteResult.priced(result.getAmountCents(), version);
+                    break;
+                case CUSTOM_REPAIR:
+                    resolved = QuoteResult.customRepair(version);
+                    break;
+                default:
+                    return this;
+            }
+            return new Line(panelType, largestDentSize, numberOfDents, isAluminum, resolved);
+        }
+    }
+
+    /**
+     * @param customerName The name of the customer.
+     * @param customerVIN The vehicle's VIN.
+     * @param creationTimestamp When the quote was made, in milliseconds since the epoch.
+     * @param lines The panels, at least one.
+     * @throws IllegalArgumentException If there are no lines.
+     */
+    public Quote(String customerName, String customerVIN, long creationTimestamp, List<Line> lines) {
+        this(customerName, customerVIN, creationTimestamp, 0, lines.toArray(new Line[0]));
+    }
+
+    private Quote(String customerName, String customerVIN, long creationTimestamp, long firstId, Line[] lines) {
+        if (lines.length == 0) {
+            throw new IllegalArgumentException("A quote needs at least one panel");
+        }
+        this.customerName = customerName;
+        this.customerVIN = customerVIN;
+        this.creationTimestamp = creationTimestamp;
+        this.firstId = firstId;
+        this.lines = lines;
+        this.rateCardVersion = commonVersion(lines);
+    }
+
+    /**
+     * @param firstId The ID of the first panel; the others follow consecutively.
+     * @return A copy of this quote with its panels numbered from the given ID.
+     */
+    Quote withFirstId(long firstId) {
+        return new Quote(customerName, customerVIN, creationTimestamp, firstId, lines);
+    }
+
+    /**
+     * Builds a quote from the calculated panels of the calculator screen, stamped with the current time.
+     *
+     * @param customerName The name of the customer.
+     * @param customerVIN The vehicle's VIN.
+     * @param panels The panels, each with its {@link QuoteResult} already set.
+     * @return The quote.
+     */
+    public static Quote fromPanels(String customerName, String customerVIN, List<PanelInputData> panels) {
+        List<Line> lines = new ArrayList<>(panels.size());
+        for (PanelInputData panel : panels) {
+            lines.add(new Line(panel.panelType, panel.largestDentSize, panel.numberOfDents, panel.isAluminum, panel.quote));
+        }
+        return new Quote(customerName, customerVIN, System.currentTimeMillis(), lines);
+    }
+
+    /**
+     * Splits invoices into quotes. Consecutive invoices with the same customer, VIN and creation
+     * timestamp, and consecutive IDs, form one quote, which is how {@link #toInvoices()} lays them
+     * out; any other invoice becomes a quote of its own.
+     *
+     * @param invoices The invoices, in their saved order.
+     * @return The quotes, in the same order.
+     */
+    public static List<Quote> group(Collection<Invoice> invoices) {
+        List<Quote> quotes = new ArrayList<>();
+        List<Line> lines = new ArrayList<>();
+        Invoice first = null;
+        for (Invoice invoice : invoices) {
+            if (first != null && !(sameHeader(first, invoice) && continuesIds(first, lines.size(), invoice))) {
+                quotes.add(of(first, lines));
+                lines.clear();
+                first = null;
+            }
+            if (first == null) {
+                first = invoice;
+            }
+            lines.add(new Line(invoice.getPanelType(), invoice.getLargestDentSize(), invoice.getNumberOfDents(),
+                    invoice.isAluminum(), invoice.getQuote()));
+        }
+        if (first != null) {
+            quotes.add(of(first, lines));
+        }
+        return quotes;
+    }
+
+    private static Quote of(Invoice first, List<Line> lines) {
+        return new Quote(first.getCustomerName(), first.getCustomerVIN(), first.getCreationTimestamp(),
+                first.getId(), lines.toArray(new Line[0]));
+    }
+
+    private static boolean continuesIds(Invoice first, int count, Invoice next) {
+        return first.getId() == 0 ? next.getId() == 0 : next.getId() == first.getId() + count;
+    }
+
+    private static boolean sameHeader(Invoice a, Invoice b) {
+        return a.getCreationTimestamp() == b.getCreationTimestamp()
+                && Objects.equals(a.getCustomerName(), b.getCustomerName())
+                && Objects.equals(a.getCustomerVIN(), b.getCustomerVIN());
+    }
+
+    // The first version found is stored once in the header; lines priced with another one keep their own
+    private static String commonVersion(Line[] lines) {
+        for (Line line : lines) {
+            if (line.result.getRateCardVersion() != null) {
+                return line.result.getRateCardVersion();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return One invoice per panel, all sharing this quote's customer, VIN and timestamp.
+     */
+    public List<Invoice> toInvoices() {
+        List<Invoice> invoices = new ArrayList<>(lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            Line line = lines[i];
+            Invoice invoice = new Invoice(customerName, customerVIN, line.panelType, line.largestDentSize,
+                    line.numberOfDents, line.isAluminum, line.result, creationTimestamp);
+            if (firstId != 0) {
+                invoice.setId(firstId + i);
+            }
+            invoices.add(invoice);
+        }
+        return invoices;
+    }
+
+    // Getters
+    public String getCustomerName() { return customerName; }
+    public String getCustomerVIN() { return customerVIN; }
+    public long getCreationTimestamp() { return creationTimestamp; }
+    public String getRateCardVersion() { return rateCardVersion; }
+    public long getFirstId() { return firstId; }
+    public int getLineCount() { return lines.length; }
+    public Line getLine(int index) { return lines[index]; }
+
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(Arrays.asList(lines));
+    }
+
+    /**
+     * @return The sum of every priced panel, in cents.
+     */
+    public long getSubtotalCents() {
+        long total = 0;
+        for (Line line : lines) {
+            if (line.result.isPriced()) {
+                total += line.result.getAmountCents();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return How many panels need a custom repair quote.
+     */
+    public int getCustomRepairCount() {
+        int count = 0;
+        for (Line line : lines) {
+            if (line.result.getStatus() == QuoteResult.Status.CUSTOM_REPAIR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Converts the quote into a {@link JSONObject}: the header fields and a "panels" array.
+     * A panel only carries a "rateCardVersion" when it differs from the header's.
+     *
+     * @return A {@link JSONObject} representation of the quote.
+     * @throws JSONException If an error occurs during JSON creation.
+     */
+    public JSONObject toJsonObject() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("customerName", customerName);
+        json.put("customerVIN", customerVIN);
+        json.put("creationTimestamp", creationTimestamp);
+        if (firstId != 0) {
+            json.put("firstId", firstId);
+        }
+        if (rateCardVersion != null) {
+            json.put("rateCardVersion", rateCardVersion);
+        }
+        JSONArray panels = new JSONArray();
+        for (Line line : lines) {
+            JSONObject panel = new JSONObject();
+            panel.put("panelType", line.panelType);
+            panel.put("largestDentSize", line.largestDentSize);
+            panel.put("numberOfDents", line.numberOfDents);
+            panel.put("isAluminum", line.isAluminum);
+            panel.put("costStatus", line.result.getStatus().name());
+            panel.put("costCents", line.result.getAmountCents());
+            if (line.result.getReason() != null) {
+                panel.put("costReason", line.result.getReason());
+            }
+            if (line.result.getRateCardVersion() != null && !line.result.getRateCardVersion().equals(rateCardVersion)) {
+                panel.put("rateCardVersion", line.result.getRateCardVersion());
+            }
+            panels.put(panel);
+        }
+        json.put("panels", panels);
+        return json;
+    }
+
+    /**
+     * Reads one quote object, as written by {@link #toJsonObject()}, from a streaming
+     * {@link JsonReader}. Unknown fields are skipped.
+     *
+     * @param reader A reader positioned at the start of a quote object.
+     * @return The quote.
+     * @throws IOException If the underlying JSON is syntactically broken.
+     * @throws JSONException If the header or a panel is missing a required field.
+     */
+    public static Quote read(JsonReader reader) throws IOException, JSONException {
+        return read(reader, true);
+    }
+
+    /**
+     * Reads one quote object, optionally skipping the panel details.
+     *
+     * @param reader A reader positioned at the start of a quote object.
+     * @param details False to skip the fields {@link Invoice#isDetailField} names, in the header
+     *                and in every panel, without decoding them.
+     * @return The quote.
+     * @throws IOException If the underlying JSON is syntactically broken.
+     * @throws JSONException If the header or a panel is missing a required field.
+     */
+    static Quote read(JsonReader reader, boolean details) throws IOException, JSONException {
+        String customerName = null;
+        String customerVIN = null;
+        Long creationTimestamp = null;
+        String rateCardVersion = null;
+        long firstId = 0;
+        List<Line> lines = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL || (!details && Invoice.isDetailField(name))) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "customerName": customerName = reader.nextString(); break;
+                case "customerVIN": customerVIN = reader.nextString(); break;
+                case "creationTimestamp": creationTimestamp = reader.nextLong(); break;
+                case "rateCardVersion": rateCardVersion = reader.nextString(); break;
+                case "firstId": firstId = reader.nextLong(); break;
+                case "panels":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        lines.add(readLine(reader, details));
+                    }
+                    reader.endArray();
+                    break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+
+        if (customerName == null || customerVIN == null || creationTimestamp == null || lines.isEmpty()) {
+            throw new JSONException("Quote record is missing required fields");
+        }
+        if (rateCardVersion != null) {
+            for (int i = 0; i < lines.size(); i++) {
+                lines.set(i, lines.get(i).withDefaultVersion(rateCardVersion));
+            }
+        }
+        return new Quote(customerName, customerVIN, creationTimestamp, firstId, lines.toArray(new Line[0]));
+    }
+
+    private static Line readLine(JsonReader reader, boolean details) throws IOException, JSONException {
+        String panelType = null;
+        String largestDentSize = null;
+        Integer numberOfDents = null;
+        Boolean isAluminum = null;
+        String costStatus = null;
+        long costCents = 0;
+        String costReason = null;
+        String rateCardVersion = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL || (!details && Invoice.isDetailField(name))) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "panelType": panelType = reader.nextString(); break;
+                case "largestDentSize": largestDentSize = reader.nextString(); break;
+                case "numberOfDents": numberOfDents = reader.nextInt(); break;
+                case "isAluminum": isAluminum = reader.nextBoolean(); break;
+                case "costStatus": costStatus = reader.nextString(); break;
+                case "costCents": costCents = reader.nextLong(); break;
+                case "costReason": costReason = reader.nextString(); break;
+                case "rateCardVersion": rateCardVersion = reader.nextString(); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+
+        if (costStatus == null || (details && (panelType == null || largestDentSize == null || numberOfDents == null
+                || isAluminum == null))) {
+            throw new JSONException("Quote panel is missing required fields");
+        }
+        QuoteResult result = Invoice.toQuote(costStatus, costCents, costReason, rateCardVersion, null);
+        return new Line(panelType, largestDentSize, numberOfDents != null ? numberOfDents : 0, isAluminum != null && isAluminum, result);
+    }
+}
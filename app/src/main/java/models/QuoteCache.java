@@ -0,0 +1,118 @@
+package models;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An optional, bounded memo of {@link QuoteResult}s for a {@link Calculator}. The pricing inputs
+ * (panel, dent size, dent count and material) and the serial number of the {@link RateCard} are
+ * packed into a single primitive {@code long} key, so a lookup allocates nothing.
+ *
+ * The cache is a fixed-size, direct-mapped table: each key has exactly one slot and a new entry
+ * simply replaces whatever was there, which keeps the size bounded without any eviction
+ * bookkeeping. Because the card serial is part of the key, entries computed against a replaced
+ * rate card can never be returned again; they are overwritten as new quotes come in.
+ *
+ * Entries are immutable and published with a single array store, so the cache is safe to share
+ * between threads without locking. A racing store may drop an entry, which only costs a miss.
+ */
+public final class QuoteCache {
+
+    // Key layout (low to high bits): dent count (14), material (1), dent size (2), panel (4), card serial (rest)
+    private static final int COUNT_BITS = 14;
+    private static final int MATERIAL_SHIFT = COUNT_BITS;
+    private static final int SIZE_SHIFT = MATERIAL_SHIFT + 1;
+    private static final int PANEL_SHIFT = SIZE_SHIFT + 2;
+    private static final int SERIAL_SHIFT = PANEL_SHIFT + 4;
+
+    private final Entry[] table;
+    private final int indexShift;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache holding at most the given number of results.
+     *
+     * @param capacity The maximum number of entries; rounded up to a power of two (at least 16).
+     */
+    public QuoteCache(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 20)) {
+            throw new IllegalArgumentException("Quote cache capacity must be between 1 and " + (1 << 20));
+        }
+        int size = Math.max(16, Integer.highestOneBit(capacity - 1) << 1);
+        this.table = new Entry[size];
+        this.indexShift = 64 - Integer.numberOfTrailingZeros(size);
+    }
+
+    /**
+     * Packs validated pricing inputs into a cache key. The dent count must already be
+     * within the card's buckets, which are capped at {@link DentBuckets#MAX_SUPPORTED_DENTS}.
+     *
+     * @return The packed key.
+     */
+    static long key(RateCard card, PanelType panel, DentSize size, int numberOfDents, Material material) {
+        return card.getSerial() << SERIAL_SHIFT
+                | (long) panel.ordinal() << PANEL_SHIFT
+                | (long) size.ordinal() << SIZE_SHIFT
+                | (long) material.ordinal() << MATERIAL_SHIFT
+                | numberOfDents;
+    }
+
+    /**
+     * @param key A key from {@link #key}.
+     * @return The cached result, or null on a miss.
+     */
+    QuoteResult get(long key) {
+        Entry entry = table[slot(key)];
+        if (entry != null && entry.key == key) {
+            hits.incrementAndGet();
+            return entry.result;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a result, replacing whatever occupied its slot.
+     */
+    void put(long key, QuoteResult result) {
+        table[slot(key)] = new Entry(key, result);
+    }
+
+    private int slot(long key) {
+        // Fibonacci hashing spreads the densely packed keys across the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> indexShift);
+    }
+
+    /**
+     * Removes every entry. Counters are kept.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = null;
+        }
+    }
+
+    // Getters
+    public int getCapacity() { return table.length; }
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+
+    @Override
+    public String toString() {
+        return "QuoteCache{" +
+                "capacity=" + table.length +
+                ", hits=" + hits.get() +
+                ", misses=" + misses.get() +
+                '}';
+    }
+
+    private static final class Entry {
+        final long key;
+        final QuoteResult result;
+
+        Entry(long key, QuoteResult result) {
+            this.key = key;
+            this.result = result;
+        }
+    }
+}
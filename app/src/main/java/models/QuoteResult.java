@@ -0,0 +1,156 @@
+package models;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The immutable outcome of pricing a single panel. A result is either priced (with an amount
+ * in cents), flagged for a custom repair quote, or invalid (with a reason explaining why no
+ * price could be produced). Amounts stay in integer cents until they are displayed.
+ * Priced and custom repair results also carry the version of the {@link RateCard} they came from.
+ */
+public final class QuoteResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kind of result produced by the {@link Calculator}.
+     */
+    public enum Status {
+        PRICED,
+        CUSTOM_REPAIR,
+        INVALID
+    }
+
+    private final Status status;
+    private final long amountCents;
+    private final String reason;
+    private final String rateCardVersion;
+
+    private QuoteResult(Status status, long amountCents, String reason, String rateCardVersion) {
+        this.status = status;
+        this.amountCents = amountCents;
+        this.reason = reason;
+        this.rateCardVersion = rateCardVersion;
+    }
+
+    /**
+     * @param amountCents The priced amount in cents.
+     * @param rateCardVersion The version of the rate card that produced the price, or null if unknown.
+     * @return A priced result.
+     */
+    public static QuoteResult priced(long amountCents, String rateCardVersion) {
+        return new QuoteResult(Status.PRICED, amountCents, null, rateCardVersion);
+    }
+
+    /**
+     * @param rateCardVersion The version of the rate card that flagged the panel, or null if unknown.
+     * @return A result for a panel that needs a custom repair quote.
+     */
+    public static QuoteResult customRepair(String rateCardVersion) {
+        return new QuoteResult(Status.CUSTOM_REPAIR, 0, "Custom Repair Needed", rateCardVersion);
+    }
+
+    /**
+     * @param reason A short, user-readable explanation (e.g., "Unknown panel type.").
+     * @return An invalid result carrying the given reason.
+     */
+    public static QuoteResult invalid(String reason) {
+        return new QuoteResult(Status.INVALID, 0, reason, null);
+    }
+
+    /**
+     * Rebuilds a result from a cost string written by older versions of the app
+     * (e.g., "$125.00", "CR: Custom Repair Needed" or "N/A: Invalid input.").
+     *
+     * @param legacyCost The stored cost string.
+     * @return The equivalent result, with no rate card version; unparseable amounts become {@link Status#INVALID}.
+     */
+    public static QuoteResult fromLegacyString(String legacyCost) {
+        if (legacyCost == null || legacyCost.startsWith("N/A")) {
+            return invalid(legacyCost == null || legacyCost.length() <= 5 ? "Invalid input." : legacyCost.substring(5));
+        }
+        if (legacyCost.startsWith("CR")) {
+            return customRepair(null);
+        }
+        try {
+            return priced(Money.parseCents(legacyCost), null);
+        } catch (NumberFormatException e) {
+            return invalid("Unreadable cost " + legacyCost);
+        }
+    }
+
+    // Getters
+    public Status getStatus() { return status; }
+    public long getAmountCents() { return amountCents; }
+    public String getReason() { return reason; }
+    public String getRateCardVersion() { return rateCardVersion; }
+    public boolean isPriced() { return status == Status.PRICED; }
+
+    /**
+     * Formats the result for display (e.g., "$125.00", "CR: Custom Repair Needed", "N/A: Invalid input.").
+     *
+     * @return The display string.
+     */
+    public String toDisplayString() {
+        switch (status) {
+            case PRICED:
+                return Money.format(amountCents);
+            case CUSTOM_REPAIR:
+                return "CR: " + reason;
+            default:
+                return "N/A: " + reason;
+        }
+    }
+
+    /**
+     * Formats the result the way older versions of the app saved it, see {@link #fromLegacyString}.
+     * Unlike {@link #toDisplayString()} the amount does not depend on the user's locale.
+     *
+     * @return The saved cost string (e.g., "$125.00", "CR: Custom Repair Needed", "N/A: Invalid input.").
+     */
+    public String toLegacyString() {
+        return status == Status.PRICED ? Money.formatForStorage(amountCents) : toDisplayString();
+    }
+
+    /**
+     * Formats the result for narrow columns such as the PDF table ("$125.00", "CR" or "N/A").
+     *
+     * @return The short display string.
+     */
+    public String toShortString() {
+        switch (status) {
+            case PRICED:
+                return Money.format(amountCents);
+            case CUSTOM_REPAIR:
+                return "CR";
+            default:
+                return "N/A";
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QuoteResult that = (QuoteResult) o;
+        return status == that.status && amountCents == that.amountCents
+                && Objects.equals(reason, that.reason)
+                && Objects.equals(rateCardVersion, that.rateCardVersion);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(status, amountCents, reason, rateCardVersion);
+    }
+
+    @Override
+    public String toString() {
+        return "QuoteResult{" +
+                "status=" + status +
+                ", amountCents=" + amountCents +
+                ", reason='" + reason + '\'' +
+                ", rateCardVersion='" + rateCardVersion + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,258 @@
+package models;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable, compiled rate card for one pricing program (e.g., an insurer's price list).
+ * It holds the dent-count buckets, a flat price matrix in cents indexed by
+ * [panel][dent bucket][dent size], a price multiplier per {@link Material}, and the version
+ * string that identifies which price list an estimate was produced with.
+ *
+ * Rate cards are either the built-in defaults or compiled from a JSON file of the form:
+ * <pre>
+ * {
+ *   "program": "DEFAULT",
+ *   "version": "2025-09",
+ *   "dentBuckets": [5, 15, 30, 50, 75, 100, 150, 200, 300],
+ *   "materialMultipliers": {"STEEL": 1.0, "ALUMINUM": 1.5},
+ *   "panels": {
+ *     "HOOD": [[125, 155, 185, 215], ..., ["CR", "CR", "CR", "CR"]],
+ *     ...
+ *   }
+ * }
+ * </pre>
+ * Each panel has one row per dent bucket, and each row lists the D, N, Q and H prices in dollars,
+ * or "CR" when the panel needs a custom repair quote. Every {@link PanelType} must be present.
+ * "program" defaults to {@link RateCardRegistry#DEFAULT_PROGRAM}, and materials missing from
+ * "materialMultipliers" keep the built-in multipliers.
+ */
+public final class RateCard {
+
+    private static final int CR = Calculator.CUSTOM_REPAIR;
+    private static final PanelType[] PANELS = PanelType.values();
+    private static final int SIZE_COUNT = DentSize.values().length;
+    private static final int MAX_PRICE_CENTS = 10_000_000; // Keeps multiplied prices well inside an int
+    private static final int MULTIPLIER_SCALE = 10_000; // Multipliers are stored in basis points
+    private static final int[] BUILT_IN_MULTIPLIERS = {10_000, 15_000}; // STEEL 1.0x, ALUMINUM 1.5x
+
+    private static final AtomicLong NEXT_SERIAL = new AtomicLong(1);
+
+    private final long serial; // Unique per compiled card, so caches can tell replaced cards apart
+    private final String programId;
+    private final String version;
+    private final DentBuckets buckets;
+    private final int[] centsMatrix;
+    private final int[] materialMultipliers;
+    private final QuoteResult customRepair;
+
+    private RateCard(String programId, String version, DentBuckets buckets, int[] centsMatrix, int[] materialMultipliers) {
+        this.serial = NEXT_SERIAL.getAndIncrement();
+        this.programId = programId;
+        this.version = version;
+        this.buckets = buckets;
+        this.centsMatrix = centsMatrix;
+        this.materialMultipliers = materialMultipliers;
+        this.customRepair = QuoteResult.customRepair(getVersionTag());
+    }
+
+    /**
+     * Builds the rate card that ships with the app, used until a card is loaded from storage.
+     *
+     * @return The built-in rate card.
+     */
+    public static RateCard builtIn() {
+        // Panel: HOOD, ROOF, TRUNK. Rows are the standard dent buckets, columns are dent sizes D, N, Q, H (in dollars)
+        int[][] mainPanelRows = {
+                {125, 155, 185, 215},     // 1-5
+                {185, 215, 255, 325},     // 6-15
+                {255, 325, 375, 425},     // 16-30
+                {375, 425, 475, 575},     // 31-50
+                {475, 525, 625, 800},     // 51-75
+                {625, 725, 850, CR},      // 76-100, CR for 'Call for Quote'
+                {850, 1000, 1200, 1500},  // 101-150
+                {1200, 1500, 1800, CR},   // 151-200
+                {CR, CR, CR, CR}          // 201-300
+        };
+        // Panel: LFF (Left Front Fender) and other similar 95-start panels
+        int[][] panelsWith95StartRows = {
+                {95, 125, 155, 185},      // 1-5
+                {135, 175, 215, 255},     // 6-15
+                {185, 255, 325, 375},     // 16-30
+                {325, 375, 425, CR},      // 31-50, CR in H col
+                {CR, CR, CR, CR},         // 51-75, all CR
+                {CR, CR, CR, CR},         // 76-100, all CR
+                {CR, CR, CR, CR},         // 101-150, all CR
+                {CR, CR, CR, CR},         // 151-200, all CR
+                {CR, CR, CR, CR}          // 201-300, all CR
+        };
+
+        DentBuckets buckets = DentBuckets.STANDARD;
+        int[] cents = new int[PANELS.length * buckets.size() * SIZE_COUNT];
+        for (PanelType panel : PANELS) {
+            boolean mainPanel = panel == PanelType.HOOD || panel == PanelType.ROOF || panel == PanelType.TRUNK;
+            int[][] rows = mainPanel ? mainPanelRows : panelsWith95StartRows;
+            for (int bucket = 0; bucket < buckets.size(); bucket++) {
+                for (int size = 0; size < SIZE_COUNT; size++) {
+                    int dollars = rows[bucket][size];
+                    cents[index(buckets, panel.ordinal(), bucket, size)] = dollars == CR ? CR : dollars * 100;
+                }
+            }
+        }
+        return new RateCard(RateCardRegistry.DEFAULT_PROGRAM, "builtin-1", buckets, cents, BUILT_IN_MULTIPLIERS.clone());
+    }
+
+    /**
+     * Validates and compiles a rate card from its JSON representation.
+     *
+     * @param json The rate card JSON (see the class documentation for the format).
+     * @return The compiled rate card.
+     * @throws JSONException If a required field is missing or has the wrong type.
+     * @throws IllegalArgumentException If the card is structurally invalid (unknown or missing
+     *         panels, wrong row counts, non-positive prices or multipliers).
+     */
+    public static RateCard fromJson(JSONObject json) throws JSONException {
+        String programId = json.optString("program", RateCardRegistry.DEFAULT_PROGRAM).trim();
+        String version = json.getString("version").trim();
+        if (programId.isEmpty() || version.isEmpty()) {
+            throw new IllegalArgumentException("Rate card program and version must not be empty.");
+        }
+
+        int[] multipliers = BUILT_IN_MULTIPLIERS.clone();
+        JSONObject multipliersJson = json.optJSONObject("materialMultipliers");
+        if (multipliersJson != null) {
+            Iterator<String> materials = multipliersJson.keys();
+            while (materials.hasNext()) {
+                String key = materials.next();
+                Material material;
+                try {
+                    material = Material.valueOf(key.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown material in rate card: " + key);
+                }
+                double factor = multipliersJson.getDouble(key);
+                if (!(factor > 0) || factor > 10) {
+                    throw new IllegalArgumentException(key + " has an out-of-range multiplier: " + factor);
+                }
+                multipliers[material.ordinal()] = (int) Math.round(factor * MULTIPLIER_SCALE);
+            }
+        }
+
+        JSONArray boundsJson = json.getJSONArray("dentBuckets");
+        int[] bounds = new int[boundsJson.length()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = boundsJson.getInt(i);
+        }
+        DentBuckets buckets = new DentBuckets(bounds);
+
+        JSONObject panelsJson = json.getJSONObject("panels");
+        int[] cents = new int[PANELS.length * buckets.size() * SIZE_COUNT];
+        boolean[] seen = new boolean[PANELS.length];
+        Iterator<String> keys = panelsJson.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            PanelType panel = PanelType.fromCode(key);
+            if (panel == null) {
+                throw new IllegalArgumentException("Unknown panel in rate card: " + key);
+            }
+            seen[panel.ordinal()] = true;
+
+            JSONArray rows = panelsJson.getJSONArray(key);
+            if (rows.length() != buckets.size()) {
+                throw new IllegalArgumentException(key + " has " + rows.length() + " rows, expected " + buckets.size());
+            }
+            for (int bucket = 0; bucket < buckets.size(); bucket++) {
+                JSONArray row = rows.getJSONArray(bucket);
+                if (row.length() != SIZE_COUNT) {
+                    throw new IllegalArgumentException(key + " row " + buckets.label(bucket) + " must have " + SIZE_COUNT + " prices");
+                }
+                for (int size = 0; size < SIZE_COUNT; size++) {
+                    cents[index(buckets, panel.ordinal(), bucket, size)] = parseCents(row.get(size), key);
+                }
+            }
+        }
+        for (PanelType panel : PANELS) {
+            if (!seen[panel.ordinal()]) {
+                throw new IllegalArgumentException("Rate card is missing panel " + panel.name());
+            }
+        }
+        return new RateCard(programId, version, buckets, cents, multipliers);
+    }
+
+    private static int parseCents(Object value, String panel) {
+        if ("CR".equals(value)) {
+            return CR;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(panel + " has a non-numeric price: " + value);
+        }
+        long cents = Math.round(((Number) value).doubleValue() * 100);
+        if (cents <= 0 || cents > MAX_PRICE_CENTS) {
+            throw new IllegalArgumentException(panel + " has an out-of-range price: " + value);
+        }
+        return (int) cents;
+    }
+
+    private static int index(DentBuckets buckets, int panel, int bucket, int size) {
+        return (panel * buckets.size() + bucket) * SIZE_COUNT + size;
+    }
+
+    /**
+     * Looks up a base price without any material multiplier.
+     *
+     * @param panel The panel being repaired.
+     * @param bucket The dent bucket index from {@link #getBuckets()}.
+     * @param size The largest dent size category.
+     * @return The price in cents, or {@link Calculator#CUSTOM_REPAIR} for a custom repair.
+     */
+    public int centsFor(PanelType panel, int bucket, DentSize size) {
+        return centsMatrix[index(buckets, panel.ordinal(), bucket, size.ordinal())];
+    }
+
+    /**
+     * Applies this card's multiplier for the given material, rounding to the nearest cent.
+     *
+     * @param cents A base price in cents (not {@link Calculator#CUSTOM_REPAIR}).
+     * @param material The panel material.
+     * @return The adjusted price in cents.
+     */
+    public int applyMaterial(int cents, Material material) {
+        int multiplier = materialMultipliers[material.ordinal()];
+        if (multiplier == MULTIPLIER_SCALE) {
+            return cents;
+        }
+        return (int) ((cents * (long) multiplier + MULTIPLIER_SCALE / 2) / MULTIPLIER_SCALE);
+    }
+
+    // Getters
+    public String getProgramId() { return programId; }
+    public String getVersion() { return version; }
+    public DentBuckets getBuckets() { return buckets; }
+
+    /**
+     * @return The program and version together (e.g., "DEFAULT/builtin-1"), which is what
+     *         quotes and saved invoices record, since versions are only unique within a program.
+     */
+    public String getVersionTag() {
+        return programId + "/" + version;
+    }
+
+    /**
+     * @return A number that is unique to this compiled card within the process.
+     */
+    long getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return The custom repair result tagged with this card's version.
+     */
+    QuoteResult customRepairResult() {
+        return customRepair;
+    }
+}
@@ -0,0 +1,141 @@
+package models;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Loads rate card files from the app's private storage and publishes them to the
+ * {@link RateCardRegistry}. The default card lives in "rate_card.json"; additional insurer or
+ * program cards can be placed as "*.json" files in the "rate_cards" directory, each naming its
+ * program in the "program" field. Every file is validated and compiled into an immutable
+ * {@link RateCard} and swapped in atomically. A {@link Calculator} reads its card once per quote,
+ * so quotes already in progress keep the snapshot they started with while new quotes see the
+ * new card. Readers never block.
+ *
+ * If a file is missing or invalid, the card previously registered for that program stays in effect.
+ *
+ * Activities check for changed files with {@link #reloadIfChangedAsync}, which reads them on a
+ * background thread, so the main thread never touches the disk.
+ */
+public class RateCardManager {
+
+    public static final String FILENAME = "rate_card.json";
+    public static final String PROGRAM_DIRECTORY = "rate_cards";
+    private static final String TAG = "RateCardManager";
+
+    // Modification stamp of each file at its last load attempt, to skip needless reloads
+    private static final Map<String, Long> loadedStamps = new ConcurrentHashMap<>();
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "rate-card-loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * @return The default program's rate card, which new quotes use unless they select a program.
+     */
+    public static RateCard current() {
+        return RateCardRegistry.defaultCard();
+    }
+
+    /**
+     * Makes a compiled rate card the current one for its program.
+     *
+     * @param card The card to publish.
+     */
+    public static void publish(RateCard card) {
+        RateCardRegistry.register(card);
+        Log.i(TAG, "Published rate card " + card.getVersionTag());
+    }
+
+    /**
+     * Loads every rate card file that changed since the last check, and publishes it.
+     * Validation errors are logged and leave the affected program's card untouched.
+     *
+     * @param context The application context, used for file I/O.
+     * @return True if at least one new card was published.
+     */
+    public static boolean reloadIfChanged(Context context) {
+        List<File> files = new ArrayList<>();
+        files.add(new File(context.getFilesDir(), FILENAME));
+        File[] programFiles = new File(context.getFilesDir(), PROGRAM_DIRECTORY).listFiles();
+        if (programFiles != null) {
+            for (File file : programFiles) {
+                if (file.getName().endsWith(".json")) {
+                    files.add(file);
+                }
+            }
+        }
+
+        boolean published = false;
+        for (File file : files) {
+            published |= reloadIfChanged(file);
+        }
+        return published;
+    }
+
+    private static boolean reloadIfChanged(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        long stamp = file.lastModified() ^ (file.length() << 32);
+        Long previous = loadedStamps.put(file.getPath(), stamp); // A broken file is only reported once, until it changes again
+        if (previous != null && previous == stamp) {
+            return false;
+        }
+
+        try (FileInputStream fis = new FileInputStream(file);
+             InputStreamReader isr = new InputStreamReader(fis, StandardCharsets.UTF_8);
+             BufferedReader br = new BufferedReader(isr)) {
+
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                sb.append(line).append('\n');
+            }
+
+            publish(RateCard.fromJson(new JSONObject(sb.toString())));
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading rate card " + file.getName() + ", keeping the current card: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs {@link #reloadIfChanged(Context)} on a background thread. Checks run one at a time, in
+     * the order they were requested.
+     *
+     * @param context A context, used for file I/O; only its application context is kept.
+     * @return A future completing with true if at least one new card was published.
+     */
+    public static CompletableFuture<Boolean> reloadIfChangedAsync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        return CompletableFuture.supplyAsync(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return reloadIfChanged(appContext);
+            }
+        }, LOADER);
+    }
+}
@@ -0,0 +1,63 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the compiled rate card of every insurer or pricing program the shop quotes against,
+ * keyed by program ID. Cards are immutable and shared read-only across threads, so selecting
+ * a card is a single hash lookup and never copies its tables. Registering a card for an
+ * existing program atomically replaces it for all new quotes.
+ *
+ * The {@link #DEFAULT_PROGRAM} always has a card, starting with {@link RateCard#builtIn()}.
+ */
+public final class RateCardRegistry {
+
+    /** The program used when a quote does not name one. */
+    public static final String DEFAULT_PROGRAM = "DEFAULT";
+
+    private static final ConcurrentHashMap<String, RateCard> CARDS = new ConcurrentHashMap<>();
+
+    static {
+        register(RateCard.builtIn());
+    }
+
+    private RateCardRegistry() {}
+
+    /**
+     * Publishes a card under its program ID, replacing any previous card for that program.
+     *
+     * @param card The compiled rate card.
+     */
+    public static void register(RateCard card) {
+        CARDS.put(card.getProgramId(), card);
+    }
+
+    /**
+     * @param programId The program ID, or null for the default program.
+     * @return The current card for the program, or null if no card is registered for it.
+     */
+    public static RateCard get(String programId) {
+        return CARDS.get(programId == null ? DEFAULT_PROGRAM : programId);
+    }
+
+    /**
+     * @return The current card of the default program.
+     */
+    public static RateCard defaultCard() {
+        return CARDS.get(DEFAULT_PROGRAM);
+    }
+
+    /**
+     * @return The registered program IDs, sorted, with the default program first.
+     */
+    public static List<String> programIds() {
+        List<String> ids = new ArrayList<>(CARDS.keySet());
+        ids.remove(DEFAULT_PROGRAM);
+        Collections.sort(ids);
+        ids.add(0, DEFAULT_PROGRAM);
+        return ids;
+    }
+}
@@ -0,0 +1,48 @@
+package models;
+
+import java.io.File;
+
+/**
+ * How the records of an invoice segment are encoded on disk. The format of each segment is
+ * recognized by its file extension, so segments in different formats can live side by side and
+ * older JSON segments stay readable after the store switches to binary.
+ */
+public enum SegmentFormat {
+    /** One JSON object per line, see {@link InvoiceJournal}. */
+    JSON_LINES(".jsonl"),
+    /** Fixed-width, dictionary-coded binary frames, see {@link BinaryInvoiceLog}. */
+    BINARY(".qqhb");
+
+    private final String extension;
+
+    SegmentFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param file The file holding the records.
+     * @return An {@link InvoiceLog} that reads and writes the file in this format.
+     */
+    public InvoiceLog open(File file) {
+        return this == BINARY ? new BinaryInvoiceLog(file) : new InvoiceJournal(file);
+    }
+
+    /**
+     * Recognizes a segment file by its extension.
+     *
+     * @param fileName A file name.
+     * @return The format, or null if the file is not a segment.
+     */
+    public static SegmentFormat forFileName(String fileName) {
+        for (SegmentFormat format : values()) {
+            if (fileName.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+package models;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * How much time one invoice segment file covers. Segment names are derived from an invoice's
+ * creation timestamp in UTC and sort in chronological order (e.g., "2026-10", "2026-Q4", "2026").
+ */
+public enum SegmentPeriod {
+    MONTH, QUARTER, YEAR;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * @param timestamp A creation timestamp in milliseconds since the epoch.
+     * @return The name of the segment that covers the timestamp.
+     */
+    public String segmentNameFor(long timestamp) {
+        Calendar calendar = Calendar.getInstance(UTC, Locale.ROOT);
+        calendar.setTimeInMillis(timestamp);
+        int year = calendar.get(Calendar.YEAR);
+        int month = calendar.get(Calendar.MONTH);
+        switch (this) {
+            case MONTH:
+                return String.format(Locale.ROOT, "%04d-%02d", year, month + 1);
+            case QUARTER:
+                return String.format(Locale.ROOT, "%04d-Q%d", year, month / 3 + 1);
+            default:
+                return String.format(Locale.ROOT, "%04d", year);
+        }
+    }
+
+    /**
+     * @param timestamp A creation timestamp in milliseconds since the epoch.
+     * @return The first millisecond of the segment that covers the timestamp.
+     */
+    public long startOf(long timestamp) {
+        Calendar calendar = Calendar.getInstance(UTC, Locale.ROOT);
+        calendar.setTimeInMillis(timestamp);
+        int month = calendar.get(Calendar.MONTH);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        if (this == QUARTER) {
+            calendar.set(Calendar.MONTH, month - month % 3);
+        } else if (this == YEAR) {
+            calendar.set(Calendar.MONTH, Calendar.JANUARY);
+        }
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Resolves a period name to its enum constant.
+     *
+     * @param name The period name, compared case-insensitively.
+     * @return The matching {@link SegmentPeriod}, or null if the name is null or unknown.
+     */
+    public static SegmentPeriod fromName(String name) {
+        if (name == null) return null;
+        for (SegmentPeriod period : values()) {
+            if (period.name().equalsIgnoreCase(name)) {
+                return period;
+            }
+        }
+        return null;
+    }
+}
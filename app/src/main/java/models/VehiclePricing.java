@@ -0,0 +1,46 @@
+package models;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The immutable result of pricing every panel of one vehicle in a single pass with
+ * {@link Calculator#priceVehicle(List)}. It holds the per-panel {@link QuoteResult}s in input
+ * order, the subtotal of all priced panels in cents, the number of panels that need a
+ * custom repair quote, and the position of the first panel that could not be priced.
+ */
+public final class VehiclePricing {
+
+    private final List<QuoteResult> panelResults;
+    private final long subtotalCents;
+    private final int customRepairCount;
+    private final int firstInvalidIndex;
+
+    VehiclePricing(QuoteResult[] panelResults, long subtotalCents, int customRepairCount, int firstInvalidIndex) {
+        this.panelResults = Collections.unmodifiableList(Arrays.asList(panelResults));
+        this.subtotalCents = subtotalCents;
+        this.customRepairCount = customRepairCount;
+        this.firstInvalidIndex = firstInvalidIndex;
+    }
+
+    // Getters
+    public List<QuoteResult> getPanelResults() { return panelResults; }
+    public long getSubtotalCents() { return subtotalCents; }
+    public int getCustomRepairCount() { return customRepairCount; }
+    public int getFirstInvalidIndex() { return firstInvalidIndex; }
+
+    /**
+     * @return The first {@link QuoteResult.Status#INVALID} result, or null if every panel was priced or flagged CR.
+     */
+    public QuoteResult getFirstInvalid() {
+        return firstInvalidIndex < 0 ? null : panelResults.get(firstInvalidIndex);
+    }
+
+    /**
+     * @return True if no panel failed validation.
+     */
+    public boolean isValid() {
+        return firstInvalidIndex < 0;
+    }
+}
@@ -0,0 +1,60 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.BinaryInvoiceCodec;
+import models.Calculator;
+import models.Invoice;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the BinaryInvoiceCodec model.
+ */
+public class BinaryInvoiceCodecTest {
+
+    @Test
+    public void test_binary_codec_round_trip() throws Exception {
+        Calculator calculator = new Calculator();
+        Invoice priced = new Invoice("Zo\u00eb", "1HGCM", "HOOD", "D", 3, true, calculator.quote("HOOD", "D", 3, true));
+        Invoice custom = new Invoice("Zo\u00eb", "1HGCM", "roof", "H", 80, false, calculator.quote("ROOF", "H", 80, false));
+        Invoice invalid = new Invoice("Zo\u00eb", "1HGCM", "LFF", "Not Set", 10, false, calculator.quote("LFF", "Not Set", 10, false));
+
+        byte[] frame = BinaryInvoiceCodec.encodeFrame(Arrays.asList(priced, custom, invalid), true);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        int length = buffer.getInt(0);
+        assertEquals(frame.length - 8, length);
+        buffer.limit(4 + length).position(4);
+
+        List<Invoice> decoded = new ArrayList<>();
+        new BinaryInvoiceCodec().decodePayload(buffer, decoded);
+        assertEquals(3, decoded.size());
+        assertEquals("Zo\u00eb", decoded.get(0).getCustomerName());
+        assertEquals(priced.getCreationTimestamp(), decoded.get(0).getCreationTimestamp());
+        assertEquals(priced.getQuote(), decoded.get(0).getQuote());
+        assertTrue(decoded.get(0).isAluminum());
+        assertEquals("roof", decoded.get(1).getPanelType()); // Not an exact enum name, stored as text
+        assertEquals(custom.getQuote(), decoded.get(1).getQuote());
+        assertEquals("Not Set", decoded.get(2).getLargestDentSize());
+        assertEquals(invalid.getQuote().getReason(), decoded.get(2).getQuote().getReason());
+        assertNull(decoded.get(2).getQuote().getRateCardVersion());
+    }
+
+    @Test
+    public void test_tombstone_frame_round_trip() throws Exception {
+        byte[] frame = BinaryInvoiceCodec.encodeTombstone(42L);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.limit(frame.length - 4).position(4);
+        List<Invoice> decoded = new ArrayList<>();
+        long[] deleted = new BinaryInvoiceCodec().decodePayload(buffer, decoded);
+        assertTrue(decoded.isEmpty());
+        assertEquals(1, deleted.length);
+        assertEquals(42L, deleted[0]);
+    }
+}
@@ -1,6 +1,9 @@
 package com.AppWizards.QuickQuoteHail;
 
 import models.Calculator;
+import models.DentSize;
+import models.PanelType;
+import models.QuoteResult;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -59,4 +62,30 @@ public class CalculatorTest {
         String cost = calculator.getEstimatedCost("HOOD", "D", 1000000, false);
         assertTrue(cost.startsWith("N/A"));
     }
+
+    @Test
+    public void test_cents_lookup() {
+        Calculator calculator = new Calculator();
+        assertEquals(17500, calculator.getEstimatedCostCents(PanelType.LFF, DentSize.N, 10, false));
+        assertEquals(18750, calculator.getEstimatedCostCents(PanelType.HOOD, DentSize.D, 3, true));
+    }
+
+    @Test
+    public void test_cents_sentinels() {
+        Calculator calculator = new Calculator();
+        assertEquals(Calculator.CUSTOM_REPAIR, calculator.getEstimatedCostCents(PanelType.HOOD, DentSize.H, 80, true));
+        assertEquals(Calculator.NOT_AVAILABLE, calculator.getEstimatedCostCents(PanelType.HOOD, DentSize.D, 301, false));
+    }
+
+    @Test
+    public void test_quote_result_statuses() {
+        Calculator calculator = new Calculator();
+        QuoteResult priced = calculator.quote("HOOD", "D", 3, true);
+        assertEquals(QuoteResult.Status.PRICED, priced.getStatus());
+        assertEquals(18750, priced.getAmountCents());
+        assertEquals(QuoteResult.Status.CUSTOM_REPAIR, calculator.quote("HOOD", "H", 80, false).getStatus());
+        QuoteResult invalid = calculator.quote("FENDER", "D", 5, false);
+        assertEquals(QuoteResult.Status.INVALID, invalid.getStatus());
+        assertEquals("Unknown panel type.", invalid.getReason());
+    }
 }
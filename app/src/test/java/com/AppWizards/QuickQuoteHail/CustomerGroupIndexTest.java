@@ -0,0 +1,42 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.Calculator;
+import models.CustomerGroupIndex;
+import models.CustomerInvoiceSummary;
+import models.CustomerKey;
+import models.Invoice;
+import models.QuoteResult;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the CustomerGroupIndex model.
+ */
+public class CustomerGroupIndexTest {
+
+    @Test
+    public void test_group_index_keys_and_removal() {
+        Calculator calculator = new Calculator();
+        QuoteResult quote = calculator.quote("HOOD", "D", 3, false);
+        Invoice first = new Invoice("a_b", "c", "HOOD", "D", 3, false, quote);
+        Invoice second = new Invoice("a", "b_c", "HOOD", "D", 3, false, quote);
+        Invoice third = new Invoice("A", "b_c", "HOOD", "D", 3, false, quote);
+
+        CustomerGroupIndex index = new CustomerGroupIndex();
+        index.addAll(Arrays.asList(first, second, third, second));
+        List<CustomerInvoiceSummary> groups = index.getGroups();
+        assertEquals(3, groups.size()); // "a_b"+"c" and "a"+"b_c" used to share a key
+        assertEquals(new CustomerKey("A", "b_c"), groups.get(0).getKey());
+        assertEquals(25000, index.get(new CustomerKey("a", "b_c")).getTotalCents());
+
+        assertTrue(index.remove(second));
+        assertEquals(12500, index.get(new CustomerKey("a", "b_c")).getTotalCents());
+        assertTrue(index.remove(first));
+        assertEquals(2, index.size());
+    }
+}
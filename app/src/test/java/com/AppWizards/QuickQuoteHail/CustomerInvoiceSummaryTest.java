@@ -0,0 +1,41 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.Calculator;
+import models.CustomerInvoiceSummary;
+import models.Invoice;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the CustomerInvoiceSummary model.
+ */
+public class CustomerInvoiceSummaryTest {
+
+    @Test
+    public void test_summary_running_totals() {
+        Calculator calculator = new Calculator();
+        Invoice hood = new Invoice("Ann", "V1", "HOOD", "D", 3, false, calculator.quote("HOOD", "D", 3, false));
+        Invoice roof = new Invoice("Ann", "V1", "ROOF", "H", 80, false, calculator.quote("ROOF", "H", 80, false));
+        Invoice fender = new Invoice("Ann", "V1", "LFF", "N", 10, false, calculator.quote("LFF", "N", 10, false));
+
+        CustomerInvoiceSummary summary = new CustomerInvoiceSummary("Ann", "V1");
+        summary.addInvoice(hood);
+        summary.addInvoice(roof);
+        summary.addInvoice(fender);
+        assertEquals(3, summary.getInvoiceCount());
+        assertEquals(12500 + 17500, summary.getTotalCents());
+        assertEquals(1, summary.getCustomRepairCount());
+        assertTrue(summary.getEarliestTimestamp() <= summary.getLatestTimestamp());
+        for (int i = 1; i < summary.getInvoiceCount(); i++) {
+            assertTrue(summary.getInvoices().get(i - 1).getCreationTimestamp() >= summary.getInvoices().get(i).getCreationTimestamp());
+        }
+
+        assertTrue(summary.removeInvoice(roof));
+        assertEquals(0, summary.getCustomRepairCount());
+        assertTrue(summary.removeInvoice(hood));
+        assertEquals(17500, summary.getTotalCents());
+        assertEquals(fender, summary.getInvoices().get(0)); // Materialized again from the summary's columns
+    }
+}
@@ -0,0 +1,28 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.DentBuckets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the DentBuckets model.
+ */
+public class DentBucketsTest {
+
+    @Test
+    public void test_dent_bucket_boundaries() {
+        DentBuckets buckets = DentBuckets.STANDARD;
+        assertEquals(-1, buckets.indexOf(0));
+        assertEquals(0, buckets.indexOf(1));
+        assertEquals(0, buckets.indexOf(5));
+        assertEquals(1, buckets.indexOf(6));
+        assertEquals(8, buckets.indexOf(300));
+        assertEquals(-1, buckets.indexOf(301));
+        assertEquals("16-30", buckets.label(2));
+
+        DentBuckets custom = new DentBuckets(new int[]{10, 20});
+        assertEquals(1, custom.indexOf(11));
+        assertEquals(-1, custom.indexOf(21));
+    }
+}
@@ -0,0 +1,48 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.Calculator;
+import models.Invoice;
+import models.InvoiceIndex;
+import models.InvoiceQuery;
+import models.PanelType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the InvoiceIndex model.
+ */
+public class InvoiceIndexTest {
+
+    @Test
+    public void test_invoice_index_queries() {
+        Calculator calculator = new Calculator();
+        Invoice johnHood = new Invoice("John", "1HGCM", "HOOD", "D", 3, false, calculator.quote("HOOD", "D", 3, false));
+        Invoice johnRoof = new Invoice("John", "1HGCM", "ROOF", "D", 3, true, calculator.quote("ROOF", "D", 3, true));
+        Invoice joanHood = new Invoice("joan", "5YJSA", "HOOD", "N", 10, true, calculator.quote("HOOD", "N", 10, true));
+        Invoice maryHood = new Invoice("Mary", "WBA3A", "HOOD", "D", 3, false, calculator.quote("HOOD", "D", 3, false));
+
+        InvoiceIndex index = new InvoiceIndex();
+        index.addAll(Arrays.asList(johnHood, johnRoof, joanHood, maryHood));
+
+        assertEquals(2, index.query(new InvoiceQuery().vin(" 1hgcm")).size());
+        assertEquals(3, index.query(new InvoiceQuery().namePrefix("JO")).size());
+        assertEquals(Arrays.asList(joanHood), index.query(new InvoiceQuery().namePrefix("jo").panelType(PanelType.HOOD).aluminum(true)));
+        assertEquals(3, index.query(new InvoiceQuery().panelType(PanelType.HOOD)).size());
+        assertEquals(4, index.query(new InvoiceQuery().createdBetween(0, Long.MAX_VALUE)).size());
+        assertEquals(0, index.query(new InvoiceQuery().createdBetween(0, 1)).size());
+
+        List<Invoice> all = index.query(new InvoiceQuery());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getCreationTimestamp() >= all.get(i).getCreationTimestamp()); // Newest first
+        }
+        assertEquals(all.subList(1, 3), index.query(new InvoiceQuery().offset(1).limit(2)));
+
+        assertTrue(index.remove(johnRoof));
+        assertEquals(Arrays.asList(johnHood), index.query(new InvoiceQuery().vin("1HGCM")));
+    }
+}
@@ -0,0 +1,37 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.LongLongMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the LongLongMap model.
+ */
+public class LongLongMapTest {
+
+    @Test
+    public void test_long_long_map_matches_hash_map() {
+        LongLongMap map = new LongLongMap();
+        HashMap<Long, Long> expected = new HashMap<>();
+        Random random = new Random(18);
+        for (int i = 0; i < 20000; i++) {
+            long key = 1 + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                Long removed = expected.remove(key);
+                assertEquals(removed == null ? -1 : removed, map.remove(key, -1));
+            } else {
+                map.put(key, i);
+                expected.put(key, (long) i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 1; key <= 2000; key++) {
+            Long value = expected.get(key);
+            assertEquals(value == null ? -1 : value, map.get(key, -1));
+        }
+    }
+}
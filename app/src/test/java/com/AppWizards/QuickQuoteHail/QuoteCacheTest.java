@@ -0,0 +1,34 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.Calculator;
+import models.QuoteCache;
+import models.QuoteResult;
+import models.RateCard;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the QuoteCache model.
+ */
+public class QuoteCacheTest {
+
+    @Test
+    public void test_quote_cache_hits_and_card_invalidation() {
+        QuoteCache cache = new QuoteCache(64);
+        Calculator calculator = new Calculator(RateCard.builtIn());
+        calculator.setQuoteCache(cache);
+
+        QuoteResult first = calculator.quote("HOOD", "D", 3, true);
+        assertSame(first, calculator.quote("hood", "d", 3, true));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A newly compiled card must not see results cached for the old one
+        Calculator recompiled = new Calculator(RateCard.builtIn());
+        recompiled.setQuoteCache(cache);
+        recompiled.quote("HOOD", "D", 3, true);
+        assertEquals(2, cache.getMissCount());
+    }
+}
@@ -0,0 +1,36 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.QuoteResult;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the QuoteResult model.
+ */
+public class QuoteResultTest {
+
+    @Test
+    public void test_legacy_cost_strings() {
+        assertEquals(QuoteResult.priced(18750, null), QuoteResult.fromLegacyString("$187.50"));
+        assertEquals(QuoteResult.customRepair(null), QuoteResult.fromLegacyString("CR: Custom Repair Needed"));
+        assertEquals(QuoteResult.Status.INVALID, QuoteResult.fromLegacyString("N/A: Invalid input.").getStatus());
+    }
+
+    @Test
+    public void test_legacy_cost_strings_ignore_locale() {
+        Locale previous = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            QuoteResult priced = QuoteResult.priced(12550, null);
+            assertEquals("$125.50", priced.toLegacyString());
+            assertEquals(priced, QuoteResult.fromLegacyString(priced.toLegacyString()));
+            // As saved by builds that used the display format
+            assertEquals(priced, QuoteResult.fromLegacyString(priced.toDisplayString()));
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+}
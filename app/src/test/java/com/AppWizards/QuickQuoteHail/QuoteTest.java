@@ -0,0 +1,61 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.BinaryInvoiceCodec;
+import models.Calculator;
+import models.Invoice;
+import models.PanelInputData;
+import models.Quote;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the Quote model.
+ */
+public class QuoteTest {
+
+    @Test
+    public void test_quote_frame_stores_header_once() throws Exception {
+        Calculator calculator = new Calculator();
+        List<PanelInputData> panels = Arrays.asList(new PanelInputData("HOOD", "D", 3, true),
+                new PanelInputData("ROOF", "H", 80, false), new PanelInputData("LFF", "N", 10, false));
+        for (PanelInputData data : panels) {
+            data.quote = calculator.quote(data.panelType, data.largestDentSize, data.numberOfDents, data.isAluminum);
+        }
+        Quote quote = Quote.fromPanels("Zo\u00eb", "1HGCM", panels);
+        assertEquals(1, quote.getCustomRepairCount());
+
+        List<Invoice> panelInvoices = quote.toInvoices();
+        assertEquals(1, Quote.group(panelInvoices).size());
+        byte[] quoteFrame = BinaryInvoiceCodec.encodeQuote(quote);
+        assertTrue(quoteFrame.length < BinaryInvoiceCodec.encodeFrame(panelInvoices, true).length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(quoteFrame);
+        buffer.limit(quoteFrame.length - 4).position(4);
+        List<Invoice> decoded = new ArrayList<>();
+        new BinaryInvoiceCodec().decodePayload(buffer, decoded);
+        assertEquals(3, decoded.size());
+        for (int i = 0; i < decoded.size(); i++) {
+            assertEquals(panelInvoices.get(i).getPanelType(), decoded.get(i).getPanelType());
+            assertEquals(panelInvoices.get(i).getQuote(), decoded.get(i).getQuote());
+            assertEquals(quote.getCreationTimestamp(), decoded.get(i).getCreationTimestamp());
+            assertSame(decoded.get(0).getCustomerName(), decoded.get(i).getCustomerName());
+        }
+        assertEquals(quote.getRateCardVersion(), decoded.get(0).getRateCardVersion());
+
+        // Panels saved one at a time keep their own timestamps and become one-line quotes
+        Quote.Line trunk = new Quote.Line("TRUNK", "D", 2, false, calculator.quote("TRUNK", "D", 2, false));
+        Invoice loose = new Quote("Zo\u00eb", "1HGCM", quote.getCreationTimestamp() + 1, Arrays.asList(trunk)).toInvoices().get(0);
+        List<Invoice> mixed = new ArrayList<>(panelInvoices);
+        mixed.add(loose);
+        assertEquals(2, Quote.group(mixed).size());
+        assertEquals(1, Quote.group(mixed).get(1).getLineCount());
+    }
+}
@@ -0,0 +1,48 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.Calculator;
+import models.Material;
+import models.RateCard;
+import models.RateCardRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the RateCardRegistry model.
+ */
+public class RateCardRegistryTest {
+
+    @Test
+    public void test_registry_serves_default_card() {
+        RateCard card = RateCardRegistry.defaultCard();
+        assertNotNull(card);
+        assertSame(card, RateCardRegistry.get(null));
+        assertEquals(RateCardRegistry.DEFAULT_PROGRAM, RateCardRegistry.programIds().get(0));
+        assertNull(RateCardRegistry.get("NO_SUCH_PROGRAM"));
+    }
+
+    @Test
+    public void test_register_replaces_card_for_new_quotes() {
+        RateCard previous = RateCardRegistry.defaultCard();
+        RateCard replacement = RateCard.builtIn();
+        try {
+            RateCardRegistry.register(replacement);
+            assertSame(replacement, RateCardRegistry.defaultCard());
+            assertEquals(replacement.getVersionTag(), new Calculator().quote("HOOD", "D", 3, false).getRateCardVersion());
+        } finally {
+            RateCardRegistry.register(previous);
+        }
+    }
+
+    @Test
+    public void test_material_multipliers() {
+        RateCard card = RateCard.builtIn();
+        assertEquals(12500, card.applyMaterial(12500, Material.STEEL));
+        assertEquals(18750, card.applyMaterial(12500, Material.ALUMINUM));
+        assertEquals(18752, card.applyMaterial(12501, Material.ALUMINUM)); // Rounded to the nearest cent
+    }
+}
@@ -0,0 +1,21 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.Calculator;
+import models.RateCard;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the RateCard model.
+ */
+public class RateCardTest {
+
+    @Test
+    public void test_quote_records_rate_card_version() {
+        RateCard card = RateCard.builtIn();
+        Calculator calculator = new Calculator(card);
+        assertEquals(card.getVersionTag(), calculator.quote("HOOD", "D", 3, false).getRateCardVersion());
+        assertEquals(card.getVersionTag(), calculator.quote("HOOD", "H", 80, false).getRateCardVersion());
+    }
+}
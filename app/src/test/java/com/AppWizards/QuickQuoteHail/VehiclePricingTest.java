@@ -0,0 +1,32 @@
+package com.AppWizards.QuickQuoteHail;
+
+import models.Calculator;
+import models.PanelInputData;
+import models.QuoteResult;
+import models.VehiclePricing;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the VehiclePricing model.
+ */
+public class VehiclePricingTest {
+
+    @Test
+    public void test_price_vehicle_batch() {
+        PanelInputData hood = new PanelInputData("HOOD", "D", 3, true);
+        PanelInputData roof = new PanelInputData("ROOF", "H", 80, false);
+        PanelInputData fender = new PanelInputData("LFF", "N", 10, false);
+        PanelInputData broken = new PanelInputData("LFF", "Not Set", 10, false);
+
+        VehiclePricing pricing = new Calculator().priceVehicle(Arrays.asList(hood, roof, fender, broken));
+        assertEquals(4, pricing.getPanelResults().size());
+        assertEquals(18750 + 17500, pricing.getSubtotalCents());
+        assertEquals(1, pricing.getCustomRepairCount());
+        assertEquals(3, pricing.getFirstInvalidIndex());
+        assertEquals(QuoteResult.Status.INVALID, pricing.getFirstInvalid().getStatus());
+    }
+}